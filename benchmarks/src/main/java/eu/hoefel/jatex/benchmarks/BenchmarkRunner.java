@@ -0,0 +1,37 @@
+package eu.hoefel.jatex.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that the allocation per
+ * operation gets reported next to the throughput. All the usual JMH command
+ * line options are supported, e.g. a regex to select the benchmarks to run.
+ * 
+ * @author Udo Hoefel
+ */
+public final class BenchmarkRunner {
+
+    /** Hiding any public constructor. */
+    private BenchmarkRunner() {
+        throw new IllegalStateException("This is a pure utility class!");
+    }
+
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args the JMH command line options
+     * @throws CommandLineOptionException if the command line options are invalid
+     * @throws RunnerException            if running the benchmarks fails
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        var options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                                          .addProfiler(GCProfiler.class)
+                                          .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,60 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.Equation;
+import eu.hoefel.jatex.Equation.EquationEnvironment;
+
+/**
+ * Benchmarks for rendering long aligned equations.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EquationBenchmarks {
+
+    @Param({ "1000", "10000" })
+    private int lines;
+
+    private String[] equations;
+
+    /** Prepares the lines of the equation. */
+    @Setup
+    public void setup() {
+        equations = new String[lines];
+        for (int i = 0; i < lines; i++) {
+            equations[i] = "a_{" + i + "} &= " + "b_{" + i + "} + c".repeat(i % 7 + 1);
+        }
+    }
+
+    /**
+     * Benchmarks rendering an align environment with many lines.
+     * 
+     * @return the lines of code
+     */
+    @Benchmark
+    public List<String> latexCode() {
+        return new Equation().environment(EquationEnvironment.ALIGN)
+                             .label("bench")
+                             .add(equations)
+                             .latexCode();
+    }
+}
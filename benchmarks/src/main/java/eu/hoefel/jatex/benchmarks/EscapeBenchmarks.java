@@ -0,0 +1,54 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.Latex;
+
+/**
+ * Benchmarks for escaping user supplied text.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EscapeBenchmarks {
+
+    @Param({ "A plain table cell without anything special",
+             "50% of $x_1$ & {y} #1 ~ ^ \\ done" })
+    private String input;
+
+    /**
+     * Benchmarks escaping outside of inline math.
+     * 
+     * @return the escaped input
+     */
+    @Benchmark
+    public String escapeChars() {
+        return Latex.escapeChars(input);
+    }
+
+    /**
+     * Benchmarks escaping all special characters.
+     * 
+     * @return the escaped input
+     */
+    @Benchmark
+    public String escapeAllChars() {
+        return Latex.escapeAllChars(input);
+    }
+}
@@ -0,0 +1,105 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.Latex;
+import eu.hoefel.jatex.PgfPlots;
+import eu.hoefel.jatex.Table;
+
+/**
+ * Benchmarks for building whole documents.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LatexBenchmarks {
+
+    @Param({ "10000", "100000", "1000000" })
+    private int lines;
+
+    /**
+     * Benchmarks adding many lines to the body and rendering the document.
+     * 
+     * @return the rendered document
+     */
+    @Benchmark
+    public String largeBody() {
+        Latex tex = Latex.standard();
+        for (int i = 0; i < lines; i++) {
+            tex.add("Line " + i + " of the body with some text.");
+        }
+        return tex.toString();
+    }
+
+    /**
+     * Benchmarks adding many lines to the body and streaming the document.
+     * 
+     * @return the LaTeX object
+     */
+    @Benchmark
+    public Latex largeBodyStreamed() {
+        Latex tex = Latex.standard();
+        for (int i = 0; i < lines; i++) {
+            tex.add("Line " + i + " of the body with some text.");
+        }
+        return tex.writeTo(Writer.nullWriter());
+    }
+
+    /**
+     * Benchmarks assembling a document from many texables that request the same
+     * packages and preamble entries, one texable per line divided by ten.
+     * 
+     * @return the LaTeX object
+     */
+    @Benchmark
+    public Latex manyTexables() {
+        Latex tex = Latex.standard();
+        for (int i = 0; i < lines / 10; i++) {
+            tex.add(new Table().format("l").row(0, "x" + i));
+            tex.add(new PgfPlots().tikzlibraries("calc"));
+        }
+        return tex.writeTo(Writer.nullWriter());
+    }
+
+    /**
+     * Benchmarks for the default document, which do not depend on the number of
+     * lines and thus run only once instead of once per {@link #lines}.
+     * 
+     * @author Udo Hoefel
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public static class Standard {
+
+        /**
+         * Benchmarks the creation and rendering of the default document.
+         * 
+         * @return the rendered document
+         */
+        @Benchmark
+        public String standard() {
+            return Latex.standard().toString();
+        }
+    }
+}
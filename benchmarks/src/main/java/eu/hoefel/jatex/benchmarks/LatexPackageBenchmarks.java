@@ -0,0 +1,61 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.LatexPackage;
+
+/**
+ * Benchmarks for merging package lists with many duplicates.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LatexPackageBenchmarks {
+
+    /** The number of distinct packages. */
+    private static final int DISTINCT = 50;
+
+    @Param({ "1000", "10000" })
+    private int packages;
+
+    private List<LatexPackage> list;
+
+    /** Prepares the list of packages. */
+    @Setup
+    public void setup() {
+        list = new ArrayList<>(packages);
+        for (int i = 0; i < packages; i++) {
+            list.add(new LatexPackage("package" + (i % DISTINCT), Map.of("option" + (i % 7), "" + i)));
+        }
+    }
+
+    /**
+     * Benchmarks the cleanup of the package list.
+     * 
+     * @return the cleaned up packages
+     */
+    @Benchmark
+    public List<LatexPackage> cleanup() {
+        return LatexPackage.cleanup(new ArrayList<>(list));
+    }
+}
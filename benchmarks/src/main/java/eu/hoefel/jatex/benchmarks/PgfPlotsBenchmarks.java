@@ -0,0 +1,86 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.PgfPlots;
+
+/**
+ * Benchmarks for plotting large data sets.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PgfPlotsBenchmarks {
+
+    /** The number of coordinates of the line plot. */
+    private static final int COORDINATES = 1_000_000;
+
+    /** The number of grid points per dimension of the contour plot. */
+    private static final int GRID = 1000;
+
+    private double[][] xy;
+    private double[] x;
+    private double[] y;
+    private double[][] z;
+
+    /** Prepares the data. */
+    @Setup
+    public void setup() {
+        xy = new double[2][COORDINATES];
+        for (int i = 0; i < COORDINATES; i++) {
+            xy[0][i] = i * 1e-3;
+            xy[1][i] = Math.sin(i * 1e-3);
+        }
+
+        x = new double[GRID];
+        y = new double[GRID];
+        z = new double[GRID][GRID];
+        for (int i = 0; i < GRID; i++) {
+            x[i] = i / (GRID - 1.0);
+            y[i] = 2 * i / (GRID - 1.0);
+        }
+        for (int i = 0; i < GRID; i++) {
+            for (int j = 0; j < GRID; j++) {
+                z[i][j] = Math.sin(x[i] * 10) * Math.cos(y[j] * 5);
+            }
+        }
+    }
+
+    /**
+     * Benchmarks a line plot with many coordinates.
+     * 
+     * @return the lines of code
+     */
+    @Benchmark
+    public List<String> plot() {
+        return PgfPlots.of(xy, "sin").latexCode();
+    }
+
+    /**
+     * Benchmarks a contour plot on a large grid.
+     * 
+     * @return the lines of code
+     */
+    @Benchmark
+    public List<String> contour() {
+        return PgfPlots.contourOf(x, y, z, Map.of("contour filled", "{number=20}")).latexCode();
+    }
+}
@@ -0,0 +1,67 @@
+package eu.hoefel.jatex.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.hoefel.jatex.Table;
+import eu.hoefel.jatex.Table.TableEnvironment;
+
+/**
+ * Benchmarks for rendering tables.
+ * 
+ * @author Udo Hoefel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableBenchmarks {
+
+    /** The number of columns of the table. */
+    private static final int COLUMNS = 10;
+
+    @Param({ "10000", "100000", "1000000" })
+    private int cells;
+
+    private String[][] rows;
+
+    /** Prepares the cell contents. */
+    @Setup
+    public void setup() {
+        rows = new String[cells / COLUMNS][COLUMNS];
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = 0; j < COLUMNS; j++) {
+                rows[i][j] = "r" + i + "c" + j;
+            }
+        }
+    }
+
+    /**
+     * Benchmarks filling and rendering a table.
+     * 
+     * @return the lines of code
+     */
+    @Benchmark
+    public List<String> latexCode() {
+        Table table = new Table().environment(TableEnvironment.LONGTABLE)
+                                 .format("l".repeat(COLUMNS).split(""));
+        for (int i = 0; i < rows.length; i++) {
+            table.row(i, rows[i]);
+        }
+        return table.latexCode();
+    }
+}
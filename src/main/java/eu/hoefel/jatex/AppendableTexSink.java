@@ -0,0 +1,126 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Sink that writes the lines of LaTeX code to an {@link Appendable}. Every line
+ * gets assembled in a buffer that is reused for all lines and gets written to
+ * the appendable once the line is complete.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see TexSink#of(Appendable)
+ */
+final class AppendableTexSink implements TexSink {
+
+    private final Appendable out;
+    private final DataFiles files;
+    private final StringBuilder line = new StringBuilder();
+    private char[] chars = new char[0];
+
+    /**
+     * Constructor.
+     * 
+     * @param out the appendable to write to, not {@code null}
+     */
+    AppendableTexSink(Appendable out) {
+        this(out, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param out   the appendable to write to, not {@code null}
+     * @param files the sidecar files of the document written to the appendable,
+     *              or null if it does not get saved
+     */
+    AppendableTexSink(Appendable out, DataFiles files) {
+        this.out = Objects.requireNonNull(out);
+        this.files = files;
+    }
+
+    @Override
+    public TexSink indent(int level) {
+        line.append(Latex.indent(level));
+        return this;
+    }
+
+    @Override
+    public TexSink append(CharSequence code) {
+        line.append(code);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(long value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value, CoordinateFormat format) {
+        format.format(value, line);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value, CoordinateFormat format) {
+        format.format(value, line);
+        return this;
+    }
+
+    @Override
+    public TexSink append(char c) {
+        line.append(c);
+        return this;
+    }
+
+    @Override
+    public TexSink endLine() {
+        line.append(Latex.LINE_BREAK);
+        try {
+            if (out instanceof Writer writer) {
+                // Writer.append(CharSequence) would create a String for every line
+                int length = line.length();
+                if (chars.length < length) chars = new char[Math.max(length, 2 * chars.length)];
+                line.getChars(0, length, chars, 0);
+                writer.write(chars, 0, length);
+            } else {
+                out.append(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        line.setLength(0);
+        return this;
+    }
+
+    @Override
+    public Path folder() {
+        return files == null ? null : files.folder();
+    }
+
+    @Override
+    public boolean sidecar(Path file, Consumer<TexSink> content) {
+        if (files == null) return false;
+        files.write(file, content);
+        return true;
+    }
+}
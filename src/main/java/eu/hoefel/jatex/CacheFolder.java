@@ -0,0 +1,264 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A folder of cached files with a maximum size, shared by the
+ * {@link CompileCache}, the {@link FigureCache} and the cached bibliographies
+ * of {@link Compilation compilations}. The modification time of
+ * the files tracks their last use, so that the least recently used files can
+ * be evicted if the files exceed the maximum size, also if the folder is used
+ * by multiple processes. Lock files and temporary files are not considered
+ * part of the cache, but lock files not needed anymore can be
+ * {@link #deleteUnusedLocks(PathLocks) deleted}.
+ * 
+ * @author Udo Hoefel
+ */
+final class CacheFolder {
+
+    private static final Logger logger = System.getLogger(CacheFolder.class.getName());
+
+    private final Path folder;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache in the given folder.
+     * 
+     * @param folder   the folder to store the files in
+     * @param maxBytes the maximum size of all cached files in bytes, at least 0
+     */
+    CacheFolder(Path folder, long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("The maximum size must not be negative, but got " + maxBytes);
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the folder of the cached files.
+     * 
+     * @return the folder
+     */
+    Path folder() {
+        return folder;
+    }
+
+    /**
+     * Gets the cached file with the given key.
+     * 
+     * @param key the key
+     * @param ext the extension
+     * @return the file, which may not exist
+     */
+    Path file(String key, String ext) {
+        return folder.resolve(key + "." + ext);
+    }
+
+    /**
+     * Counts a cache hit and marks the given file as used.
+     * 
+     * @param cached the cached file
+     */
+    void hit(Path cached) {
+        hits.incrementAndGet();
+        touch(cached);
+    }
+
+    /**
+     * Marks the given file as used, without counting a cache hit.
+     * 
+     * @param cached the cached file
+     */
+    void touch(Path cached) {
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted concurrently, which does not affect the copy
+            logger.log(Level.DEBUG, () -> "Unable to mark %s as used, %s".formatted(cached, e.getMessage()));
+        }
+    }
+
+    /** Counts a cache miss. */
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of cache hits.
+     * 
+     * @return the number of cache hits
+     */
+    long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of cache misses.
+     * 
+     * @return the number of cache misses
+     */
+    long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the size of all cached files.
+     * 
+     * @return the size in bytes
+     */
+    long size() {
+        return entries().stream().mapToLong(Entry::size).sum();
+    }
+
+    /** Removes all cached files. */
+    void clear() {
+        for (Entry entry : entries()) {
+            delete(entry.file());
+        }
+    }
+
+    /** Evicts the least recently used files until the cache does not exceed its maximum size. */
+    void evict() {
+        List<Entry> entries = entries();
+        long size = entries.stream().mapToLong(Entry::size).sum();
+        if (size <= maxBytes) return;
+
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (Entry entry : entries) {
+            if (size <= maxBytes) break;
+            delete(entry.file());
+            size -= entry.size();
+            logger.log(Level.DEBUG, "Evicted {0}", entry.file());
+        }
+    }
+
+    /**
+     * Deletes the lock files of the keys without cached files, unless a thread
+     * of this JVM or another process holds them. A process that opened a lock
+     * file just before it got deleted may compile the same file as the next
+     * process, which only costs time, as the cached files are moved in place
+     * atomically.
+     * 
+     * @param locks the locks of the lock files in this JVM, which have to be
+     *              held while using a lock file, as closing any channel of a
+     *              file may release the file locks of the whole JVM
+     */
+    void deleteUnusedLocks(PathLocks locks) {
+        if (!Files.isDirectory(folder)) return;
+
+        Set<String> keys = entries().stream().map(entry -> key(entry.file())).collect(Collectors.toSet());
+        List<Path> unused;
+        try (Stream<Path> files = Files.list(folder)) {
+            unused = files.filter(file -> file.getFileName().toString().endsWith(".lock") && !keys.contains(key(file))).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        for (Path lock : unused) {
+            if (!locks.tryLock(lock)) continue;
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.WRITE);
+                    FileLock held = channel.tryLock()) {
+                if (held != null) {
+                    Files.deleteIfExists(lock);
+                    logger.log(Level.DEBUG, "Deleted lock file {0}", lock);
+                }
+            } catch (IOException e) {
+                // deleted concurrently, or the lock file cannot be deleted while it is open
+                logger.log(Level.DEBUG, () -> "Unable to delete %s, %s".formatted(lock, e.getMessage()));
+            } finally {
+                locks.unlock(lock);
+            }
+        }
+    }
+
+    /**
+     * A cached file.
+     * 
+     * @param file     the file
+     * @param size     the size in bytes
+     * @param lastUsed the time of the last use
+     * 
+     * @author Udo Hoefel
+     */
+    private static record Entry(Path file, long size, FileTime lastUsed) {}
+
+    /**
+     * Gets the cached files. The lock files are not considered, as deleting
+     * them would break the locking of processes waiting for them.
+     * 
+     * @return the cached files, modifiable
+     */
+    private List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(folder)) return entries;
+
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : files.filter(CacheFolder::isEntry).toList()) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime()));
+                } catch (NoSuchFileException e) {
+                    // evicted concurrently
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * Checks whether the given file in the cache folder is a cached file.
+     * 
+     * @param file the file
+     * @return true if it is neither a lock file nor a temporary file
+     */
+    private static boolean isEntry(Path file) {
+        String name = file.getFileName().toString();
+        return !name.endsWith(".lock") && !name.endsWith(".tmp");
+    }
+
+    /**
+     * Gets the key of the given file in the cache folder.
+     * 
+     * @param file the file
+     * @return the name of the file without its extension
+     */
+    private static String key(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Deletes the given file, ignoring files deleted concurrently.
+     * 
+     * @param file the file
+     */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, () -> "Unable to delete %s, %s".formatted(file, e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package eu.hoefel.jatex;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Executor whose tasks are run by the thread waiting for a result via
+ * {@link #join(CompletableFuture)}. This allows the blocking methods to reuse
+ * the asynchronous compilation, while the work between the compiler passes is
+ * still done by the calling thread rather than by the thread completing
+ * {@link Process#onExit()}, which is shared by all processes of the JVM.
+ * 
+ * @author Udo Hoefel
+ */
+final class CallingThreadExecutor implements Executor {
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Runs the submitted tasks on the calling thread until the given future is
+     * complete.
+     * 
+     * @param <T>    the type of the result
+     * @param future the future, completed by the submitted tasks or by other
+     *               threads
+     * @return the result of the future
+     * @throws InterruptedException if the calling thread got interrupted while
+     *                              waiting
+     * @throws ExecutionException   if the future completed exceptionally
+     */
+    <T> T join(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+        // wakes up the calling thread if the future gets completed by another thread
+        future.whenComplete((r, e) -> tasks.add(() -> {}));
+        while (!future.isDone()) {
+            tasks.take().run();
+        }
+        return future.get();
+    }
+}
@@ -0,0 +1,619 @@
+package eu.hoefel.jatex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the compiler (and biber, if requested) on a saved LaTeX document. In
+ * adaptive mode the passes stop as soon as another pass cannot change the
+ * output anymore, i.e. after the first successful pass if the document has no
+ * features relying on auxiliary files and the log does not ask for a rerun,
+ * and otherwise once the auxiliary files reached a fixed point. The maximum
+ * number of passes is never exceeded. Without adaptive mode, the compiler is
+ * always called the maximum number of times.
+ * <p>
+ * In draft mode, only the final pass writes the output (pdf, dvi or xdv), as
+ * the intermediate passes are only needed for their auxiliary files. With
+ * adaptive mode, this means that a document needing multiple passes gets one
+ * more pass after the auxiliary files reached their fixed point, which is
+ * still cheaper than writing the output in every pass for documents with many
+ * images or fonts.
+ * <p>
+ * Biber only runs if the .bcf file changed since its last run. Its results
+ * are cached by the content of the .bcf and the bib file, so an unchanged
+ * bibliography does not need biber at all. The results are kept in the
+ * {@link CompileCache} of the document if it has one, so that documents in
+ * different folders share them, else in a folder of the output directory that
+ * is limited to {@link #BBL_CACHE_BYTES}.
+ * <p>
+ * The passes are chained via {@link Process#onExit()} and the output of the
+ * processes is redirected to temporary files, so no thread waits while the
+ * compiler or biber is running. Cancelling a compilation kills the running
+ * process including all processes it started.
+ * 
+ * @author Udo Hoefel
+ */
+final class Compilation {
+
+    private static final Logger logger = System.getLogger(Compilation.class.getName());
+
+    /** The extensions of the auxiliary files that are read back in a subsequent pass. */
+    private static final List<String> AUXILIARY_EXTS = List.of("aux", "toc", "lof", "lot", "out", "bbl");
+
+    /** The commands that rely on information from a previous pass. */
+    private static final Pattern AUXILIARY_FEATURES = Pattern.compile("\\\\(?:label|ref|pageref|eqref|[cC]ref|autoref|nameref"
+            + "|\\w*cite\\w*|tableofcontents|listoffigures|listoftables|printbibliography|begin\\{longtable\\})(?![a-zA-Z])");
+
+    /** The folder, relative to the output directory, of the cached .bbl files, named after the hash of their input. */
+    static final String BBL_CACHE = ".bbl-cache";
+
+    /** The maximum size of the cached .bbl files in the output directory, beyond which the least recently used ones are evicted. */
+    static final long BBL_CACHE_BYTES = 8L << 20;
+
+    /**
+     * The log messages of LaTeX and packages asking for another pass, like
+     * "Rerun to get cross-references right", "Please rerun LaTeX" (biblatex) or
+     * "Rerun LaTeX" (longtable).
+     */
+    private static final Pattern RERUN = Pattern.compile("\\b(?:rerun to get|please rerun|rerun latex)\\b", Pattern.CASE_INSENSITIVE);
+
+    /** The output of the compiler if it cannot load the format, e.g. as it was dumped by another version. */
+    private static final Pattern FORMAT_ERROR = Pattern.compile("format file", Pattern.CASE_INSENSITIVE);
+
+    private final TexCompiler compiler;
+    private final String folder;
+    private final String fileName;
+    private final String jobName;
+    private final Path bibFile;
+    private final int maxPasses;
+    private final boolean adaptive;
+    private final boolean draft;
+    private final boolean needsAuxiliaryPasses;
+
+    private Path format;
+
+    /** The folder relative paths in the document are resolved against. */
+    private Path inputFolder;
+    private int passes;
+    private final List<String> diagnostics = new ArrayList<>();
+
+    /** The process currently run by the compilation, null if none got started yet. */
+    private volatile Process process;
+
+    /** Whether the compilation got cancelled. */
+    private volatile boolean cancelled;
+
+    /** The executor for the work after the processes exited, see {@link #runAsync(Executor)}. */
+    private Executor executor = Runnable::run;
+
+    /** The cached .bbl files. */
+    private CacheFolder bibliographies;
+
+    /** The hash of the .bcf file biber was last run on (or its result taken from the cache), null if none. */
+    private String bibliographyHash;
+
+    /**
+     * Constructor.
+     * 
+     * @param compiler             the compiler to use
+     * @param folder               the output directory
+     * @param fileName             the file name of the saved LaTeX document
+     * @param bibFile              the bib file, if biber should be run, else
+     *                             null
+     * @param maxPasses            the maximum number of compiler passes
+     * @param adaptive             whether to stop once further passes cannot
+     *                             change the output anymore
+     * @param draft                whether to skip writing the output in all but
+     *                             the final pass
+     * @param needsAuxiliaryPasses whether the document relies on information from
+     *                             previous passes, see
+     *                             {@link #needsAuxiliaryPasses(List)}
+     */
+    Compilation(TexCompiler compiler, String folder, String fileName, Path bibFile, int maxPasses,
+            boolean adaptive, boolean draft, boolean needsAuxiliaryPasses) {
+        this.compiler = Objects.requireNonNull(compiler);
+        this.folder = Objects.requireNonNull(folder);
+        this.fileName = Objects.requireNonNull(fileName);
+        this.bibFile = bibFile;
+        this.maxPasses = maxPasses;
+        this.adaptive = adaptive;
+        this.draft = draft;
+        this.needsAuxiliaryPasses = needsAuxiliaryPasses;
+
+        Path file = Path.of(fileName).toAbsolutePath();
+        this.inputFolder = file.getParent();
+        String name = file.getFileName().toString();
+        this.jobName = name.endsWith(".tex") ? name.substring(0, name.length() - 4) : name;
+        this.bibliographies = new CacheFolder(Path.of(folder, BBL_CACHE), BBL_CACHE_BYTES);
+    }
+
+    /**
+     * Sets the format to start the compiler from.
+     * 
+     * @param format the format file without its ".fmt" extension, or null to use
+     *               the default format of the compiler
+     * @return the compilation
+     * @see PreambleFormats
+     */
+    Compilation format(Path format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Sets the cache for the results of biber, {@link #BBL_CACHE} in the output
+     * directory by default.
+     * 
+     * @param cache the cache, e.g. the one of the {@link CompileCache#files()
+     *              compile cache}, so that documents in different folders share
+     *              the results
+     * @return the compilation
+     */
+    Compilation bibliographyCache(CacheFolder cache) {
+        this.bibliographies = Objects.requireNonNull(cache);
+        return this;
+    }
+
+    /**
+     * Sets the folder that relative paths in the document, like the ones of the
+     * sidecar data files of {@link PgfPlots#dataFolder(String) plots}, are
+     * resolved against. The compiler searches it before its default search path.
+     * 
+     * @param folder the folder, the folder of the document by default
+     * @return the compilation
+     */
+    Compilation inputFolder(Path folder) {
+        this.inputFolder = folder.toAbsolutePath();
+        return this;
+    }
+
+    /**
+     * Checks whether the given body uses features that rely on information from
+     * a previous pass, like references, citations, lists of contents or
+     * longtables.
+     * 
+     * @param body the body, containing strings and texables
+     * @return true if at least two passes are needed to get correct output
+     */
+    static boolean needsAuxiliaryPasses(List<?> body) {
+        for (Object o : body) {
+            // the code of lazily rendered texables is unknown until the document gets written
+            if (o instanceof Texable) return true;
+            if (o instanceof String line && line.indexOf('\\') >= 0 && AUXILIARY_FEATURES.matcher(line).find()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given log of a LaTeX run asks for another pass, like
+     * "Rerun to get cross-references right".
+     * 
+     * @param log the log file
+     * @return true if the log asks for another pass, false if it does not or if
+     *         it does not exist
+     */
+    static boolean requestsRerun(Path log) {
+        // TeX writes the log in the encoding of the input, which is not necessarily valid UTF-8
+        try (Stream<String> lines = Files.lines(log, StandardCharsets.ISO_8859_1)) {
+            // the banners of loaded packages, like "Package: rerunfilecheck ... Rerun checks for auxiliary files", are no requests
+            return lines.anyMatch(line -> !line.startsWith("Package:") && RERUN.matcher(line).find());
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs the compilation, blocking until it is complete. If the calling thread
+     * gets interrupted, the compilation is cancelled.
+     * 
+     * @return the error code, i.e. 0 if the execution terminated normally and &gt;1
+     *         if an error occurred
+     */
+    int run() {
+        CallingThreadExecutor executor = new CallingThreadExecutor();
+        CompletableFuture<Integer> run = runAsync(executor);
+        try {
+            return executor.join(run);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the compilation asynchronously. The work between the passes, like
+     * reading the output of the processes and comparing the auxiliary files, is
+     * done by the given executor.
+     * 
+     * @param executor the executor
+     * @return the error code, i.e. 0 if the execution terminated normally and
+     *         &gt;1 if an error occurred, completed exceptionally with a
+     *         {@link CancellationException} if the compilation got cancelled
+     */
+    CompletableFuture<Integer> runAsync(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+        diagnostics.clear();
+        passes = 0;
+        return CompletableFuture.supplyAsync(() -> adaptive ? auxiliaryHashes() : Map.<String, String>of(), executor)
+                .thenCompose(hashes -> pass(executor, hashes, 0, false))
+                .thenApply(errorCode -> {
+                    logger.log(Level.DEBUG, "Compiled {0} in {1} pass(es)", fileName, passes);
+                    diagnostics.addAll(logDiagnostics(Path.of(folder, jobName + ".log")));
+                    return errorCode;
+                });
+    }
+
+    /**
+     * Runs the next compiler pass, if needed, and all passes after it.
+     * 
+     * @param executor  the executor for the work between the passes
+     * @param hashes    the hashes of the auxiliary files before the pass
+     * @param errorCode the maximum error code of the previous passes
+     * @param converged whether the auxiliary files reached their fixed point
+     * @return the maximum error code of all passes
+     */
+    private CompletableFuture<Integer> pass(Executor executor, Map<String, String> hashes, int errorCode, boolean converged) {
+        if (passes >= maxPasses) return CompletableFuture.completedFuture(errorCode);
+
+        boolean output = !draft || converged || passes == maxPasses - 1 || (adaptive && !needsAuxiliaryPasses);
+        return runCompiler(!output).thenComposeAsync(passErrorCode -> {
+            passes++;
+            int maxErrorCode = Math.max(errorCode, passErrorCode);
+            CompletableFuture<Void> bibliography = bibFile == null ? CompletableFuture.completedFuture(null) : updateBibliography();
+            return bibliography.thenComposeAsync(v -> {
+                if (!adaptive) return pass(executor, hashes, maxErrorCode, converged);
+
+                // rerunning a failing document only repeats the failure
+                if (passErrorCode != 0) return CompletableFuture.completedFuture(maxErrorCode);
+
+                Map<String, String> currentHashes = auxiliaryHashes();
+                boolean fixedPoint = !needsAuxiliaryPasses || currentHashes.equals(hashes);
+                boolean nowConverged = fixedPoint && !requestsRerun(Path.of(folder, jobName + ".log"));
+
+                // a converged draft pass still needs a final pass that writes the output
+                if (nowConverged && output) return CompletableFuture.completedFuture(maxErrorCode);
+                return pass(executor, currentHashes, maxErrorCode, nowConverged);
+            }, executor);
+        }, executor);
+    }
+
+    /**
+     * Cancels the compilation, killing the running process and all processes it
+     * started, like the ones of shell escape. No further processes are started.
+     */
+    void cancel() {
+        cancelled = true;
+        Process running = process;
+        if (running != null) destroy(running);
+    }
+
+    /**
+     * Kills the given process and all processes it started.
+     * 
+     * @param process the process
+     */
+    private static void destroy(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * Gets the number of compiler passes of the last {@link #run()}.
+     * 
+     * @return the number of passes
+     */
+    int passes() {
+        return passes;
+    }
+
+    /**
+     * Gets the errors and warnings of the last {@link #run()}, i.e. the ones
+     * reported by biber and the ones in the log of the final compiler pass.
+     * 
+     * @return the errors and warnings
+     */
+    List<String> diagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Gets the generated document.
+     * 
+     * @return the document, or null if it does not exist
+     */
+    Path output() {
+        Path output = Path.of(folder, jobName + "." + compiler.outputExtension());
+        return Files.isRegularFile(output) ? output : null;
+    }
+
+    /**
+     * Gets the errors (lines starting with "!") and warnings (like "LaTeX
+     * Warning:" or "Package hyperref Warning:") from the given log of a LaTeX
+     * run.
+     * 
+     * @param log the log file
+     * @return the errors and warnings, empty if the log does not exist
+     */
+    static List<String> logDiagnostics(Path log) {
+        try (Stream<String> lines = Files.lines(log, StandardCharsets.ISO_8859_1)) {
+            return lines.filter(line -> line.startsWith("!") || line.contains("Warning:")).toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Calls the compiler once. If the compiler cannot load the format, the format
+     * gets discarded and the compiler gets called again without it.
+     * 
+     * @param draftPass whether to skip writing the output, if the compiler
+     *                  supports it
+     * @return the error code of the compiler
+     */
+    private CompletableFuture<Integer> runCompiler(boolean draftPass) {
+        List<String> command = new ArrayList<>();
+        command.add(compiler.executableName());
+        command.add("--output-directory=" + folder);
+        command.add("--enable-write18");
+        command.add("--interaction=nonstopmode");
+        command.add("-halt-on-error");
+        if (draftPass && compiler.draftOption() != null) command.add(compiler.draftOption());
+        if (format != null) command.add("-fmt=" + format);
+        command.add(fileName);
+        Path usedFormat = format;
+        return start(command, "Fatal error occurred").thenCompose(exit -> {
+            if (usedFormat != null && exit.code() != 0 && exit.output().stream().anyMatch(line -> FORMAT_ERROR.matcher(line).find())) {
+                logger.log(Level.WARNING, "Unable to load format {0}, compiling without it", usedFormat);
+                PreambleFormats.discard(usedFormat);
+                format = null;
+                return runCompiler(draftPass);
+            }
+            return CompletableFuture.completedFuture(exit.code());
+        });
+    }
+
+    /**
+     * The result of a process.
+     * 
+     * @param code   the exit code
+     * @param output the lines of the output, empty if the output was not captured
+     * 
+     * @author Udo Hoefel
+     */
+    private static record Exit(int code, List<String> output) {}
+
+    /**
+     * Starts the given command, unless the compilation got cancelled. The output
+     * is redirected to a temporary file, which is read once the process ended,
+     * and logged as error if any line contains the given marker.
+     * 
+     * @param command     the command
+     * @param errorMarker the marker of an error in the output
+     * @return the result of the process
+     */
+    private CompletableFuture<Exit> start(List<String> command, String errorMarker) {
+        if (cancelled) return CompletableFuture.failedFuture(new CancellationException("Compilation of " + fileName + " got cancelled"));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        // relative paths get resolved against the folder of the document, not the working directory
+        pb.environment().compute("TEXINPUTS", (k, v) -> inputFolder + File.pathSeparator + (v == null ? "" : v));
+        Path out = null;
+        try {
+            if (logger.isLoggable(Level.TRACE)) {
+                pb.inheritIO();
+            } else {
+                out = Files.createTempFile("jatex-", ".out");
+                pb.redirectErrorStream(true).redirectOutput(out.toFile());
+            }
+
+            Process started = pb.start();
+            process = started;
+            // cancelled while starting, so the cancellation did not see the process
+            if (cancelled) destroy(started);
+
+            Path output = out;
+            // not on the thread completing onExit(), which is shared by all processes
+            return started.onExit().thenApplyAsync(p -> new Exit(p.exitValue(), output == null ? List.of() : readOutput(output, errorMarker)), executor);
+        } catch (IOException e) {
+            delete(out);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads and deletes the given output of a process and logs the whole output
+     * as error if any line contains the given marker.
+     * 
+     * @param output      the file containing the output
+     * @param errorMarker the marker of an error in the output
+     * @return the lines of the output
+     */
+    private static List<String> readOutput(Path output, String errorMarker) {
+        List<String> lines;
+        try {
+            // decoded leniently, as the output is not necessarily valid in any encoding
+            lines = new String(Files.readAllBytes(output), Charset.defaultCharset()).lines().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            delete(output);
+        }
+
+        // make sure we don't have a fatal error in the stream and print if there was one
+        if (lines.stream().anyMatch(line -> line.contains(errorMarker))) {
+            logger.log(Level.ERROR, lines.stream().collect(Collectors.joining(System.lineSeparator())));
+        }
+        return lines;
+    }
+
+    /**
+     * Deletes the given temporary file.
+     * 
+     * @param file the file, may be null
+     */
+    private static void delete(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.DEBUG, () -> "Unable to delete %s, %s".formatted(file, e.getMessage()));
+        }
+    }
+
+    /**
+     * Brings the .bbl file up to date if the .bcf file written by biblatex
+     * changed since the last update. The .bbl file is taken from the cache if
+     * biber already processed the same .bcf and bib file, otherwise biber gets
+     * called and its result is added to the cache, evicting the least recently
+     * used results if the cache exceeds its maximum size.
+     * 
+     * @return completes once the .bbl file is up to date
+     */
+    CompletableFuture<Void> updateBibliography() {
+        Path bcf = Path.of(folder, jobName + ".bcf");
+        Path bbl = Path.of(folder, jobName + ".bbl");
+        Path cached;
+        try {
+            byte[] bcfContent;
+            try {
+                bcfContent = Files.readAllBytes(bcf);
+            } catch (NoSuchFileException e) {
+                logger.log(Level.DEBUG, "No {0} written, skipping biber", bcf);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            String bcfHash = sha256(bcfContent);
+            if (bcfHash.equals(bibliographyHash)) return CompletableFuture.completedFuture(null);
+            bibliographyHash = bcfHash;
+
+            cached = bibliographies.file(sha256(bcfHash.getBytes(StandardCharsets.US_ASCII), bibContent()), "bbl");
+            try {
+                Files.copy(cached, bbl, StandardCopyOption.REPLACE_EXISTING);
+                bibliographies.touch(cached);
+                logger.log(Level.DEBUG, "Reusing bibliography {0}", cached);
+                return CompletableFuture.completedFuture(null);
+            } catch (NoSuchFileException e) {
+                // not cached (anymore)
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return runBiber().thenAccept(exitCode -> {
+            if (exitCode != 0 || !Files.isRegularFile(bbl)) return;
+
+            try {
+                Files.createDirectories(bibliographies.folder());
+                Path tmp = Files.createTempFile(bibliographies.folder(), cached.getFileName().toString(), ".tmp");
+                try {
+                    Files.copy(bbl, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bibliographies.evict();
+        });
+    }
+
+    /**
+     * Gets the content of the bib file.
+     * 
+     * @return the content, empty if the file does not exist
+     * @throws IOException if reading the file fails
+     */
+    private byte[] bibContent() throws IOException {
+        try {
+            return Files.readAllBytes(bibFile);
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Calls biber once.
+     * 
+     * @return the error code of biber
+     */
+    private CompletableFuture<Integer> runBiber() {
+        return start(List.of("biber", "--output-directory=" + folder, jobName), "ERROR - ").thenApply(exit -> {
+            for (String line : exit.output()) {
+                if (line.contains("WARN - ") || line.contains("ERROR - ")) diagnostics.add(line);
+            }
+            return exit.code();
+        });
+    }
+
+    /**
+     * Gets the hashes of the existing auxiliary files.
+     * 
+     * @return the hashes, by file extension
+     */
+    private Map<String, String> auxiliaryHashes() {
+        Map<String, String> hashes = new HashMap<>();
+        for (String ext : AUXILIARY_EXTS) {
+            Path file = Path.of(folder, jobName + "." + ext);
+            try {
+                hashes.put(ext, sha256(Files.readAllBytes(file)));
+            } catch (NoSuchFileException e) {
+                // not (yet) written, which is a state of its own
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the given bytes.
+     * 
+     * @param bytes the bytes, hashed as if concatenated
+     * @return the hash, hex encoded
+     */
+    static String sha256(byte[]... bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] b : bytes) {
+                digest.update(b);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A persistent cache of compiled documents, so that documents that did not
+ * change since their last compilation do not need to be compiled again. The
+ * documents are stored in a local folder, named after the hash of the tex
+ * file, the settings relevant for the compilation and the content of the
+ * files the document depends on, i.e. the bib file and the images of
+ * {@link Figure figures}. Plot data written to sidecar data files does not
+ * need to be considered separately, as these files are named after the hash of
+ * their content already. The cache also keeps the results of biber, so that
+ * documents citing the same entries share them. If the cached files exceed
+ * the maximum size, the least recently used ones are evicted.
+ * <p>
+ * The same cache can be used by multiple LaTeX documents, also concurrently.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Latex#cache(CompileCache)
+ */
+public final class CompileCache {
+
+    private static final Logger logger = System.getLogger(CompileCache.class.getName());
+
+    /** The extensions tried for images given without extension, in the order of graphicx. */
+    private static final List<String> GRAPHICS_EXTS = List.of("pdf", "png", "jpg", "jpeg", "eps");
+
+    /** The size of the buffer for hashing files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final CacheFolder documents;
+
+    /**
+     * Creates a cache in the given folder.
+     * 
+     * @param folder   the folder to store the compiled documents in
+     * @param maxBytes the maximum size of all cached documents in bytes, at least
+     *                 0
+     */
+    public CompileCache(String folder, long maxBytes) {
+        this.documents = new CacheFolder(Paths.get(folder), maxBytes);
+    }
+
+    /**
+     * Gets the folder of the cached documents, which also keeps the
+     * bibliographies of the compilations using the cache, so that they are
+     * shared by all documents using the cache.
+     * 
+     * @return the folder of the cached documents
+     * @see Compilation#bibliographyCache(CacheFolder)
+     */
+    CacheFolder files() {
+        return documents;
+    }
+
+    /**
+     * Gets the number of compilations that got skipped as the document was
+     * cached.
+     * 
+     * @return the number of cache hits
+     */
+    public long hits() {
+        return documents.hits();
+    }
+
+    /**
+     * Gets the number of compilations that were necessary as the document was
+     * not cached.
+     * 
+     * @return the number of cache misses
+     */
+    public long misses() {
+        return documents.misses();
+    }
+
+    /**
+     * Gets the size of all cached documents.
+     * 
+     * @return the size in bytes
+     */
+    public long size() {
+        return documents.size();
+    }
+
+    /** Removes all cached documents. */
+    public void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Gets the key of a document.
+     * 
+     * @param settings the settings relevant for the compilation
+     * @param tex      the tex file
+     * @param inputs   the files the document depends on. Images may be given
+     *                 without extension, like for &#92;includegraphics.
+     *                 Relative files are resolved like by the compiler, see
+     *                 {@link #resolveInput(Path, Path)}.
+     * @param folder   the folder the compiler searches for inputs, i.e. the
+     *                 folder of the document
+     * @return the key, or null if any of the inputs does not exist, as the
+     *         document then cannot be keyed by its inputs
+     */
+    static String key(List<String> settings, Path tex, List<Path> inputs, Path folder) {
+        MessageDigest digest = sha256();
+        for (String setting : settings) {
+            update(digest, setting);
+        }
+        hash(digest, tex);
+        for (Path input : inputs) {
+            Path file = resolveInput(input, folder);
+            if (file == null) return null;
+            update(digest, input.toString());
+            hash(digest, file);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Gets the SHA-256 hash of the content of the given file. The file is read in
+     * chunks, so it does not need to fit into memory.
+     * 
+     * @param file the file
+     * @return the hash, hex encoded
+     * @throws UncheckedIOException if reading the file fails
+     */
+    static String sha256(Path file) {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            digest(digest, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * 
+     * @return the digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Updates the digest with the bytes of the given stream.
+     * 
+     * @param digest the digest
+     * @param in     the stream
+     * @throws IOException if reading the stream fails
+     */
+    private static void digest(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n; (n = in.read(buffer)) > 0;) {
+            digest.update(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Updates the digest with the given string, prefixed with its length so
+     * that consecutive strings cannot be confused.
+     * 
+     * @param digest the digest
+     * @param s      the string
+     */
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    /**
+     * Updates the digest with the content of the given file.
+     * 
+     * @param digest the digest
+     * @param file   the file
+     */
+    private static void hash(MessageDigest digest, Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            update(digest, Long.toString(Files.size(file)));
+            digest(digest, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Resolves the given input of a document like the compiler does, i.e. against
+     * the working directory first and against the given folder, which the
+     * compiler searches via TEXINPUTS, second.
+     * 
+     * @param file   the file, may be given without extension if it is an image
+     * @param folder the folder of the document, may be null
+     * @return the existing file, or null if there is none
+     */
+    static Path resolveInput(Path file, Path folder) {
+        Path resolved = resolveGraphic(file);
+        if (resolved == null && folder != null && !file.isAbsolute()) resolved = resolveGraphic(folder.resolve(file));
+        return resolved;
+    }
+
+    /**
+     * Resolves the given file, trying the image extensions known to graphicx if
+     * it does not exist as is.
+     * 
+     * @param file the file
+     * @return the existing file, or null if there is none
+     */
+    static Path resolveGraphic(Path file) {
+        if (Files.isRegularFile(file)) return file;
+        for (String ext : GRAPHICS_EXTS) {
+            Path candidate = file.resolveSibling(file.getFileName() + "." + ext);
+            if (Files.isRegularFile(candidate)) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Copies the cached document with the given key to the given file, if it is
+     * cached.
+     * 
+     * @param key    the key of the document
+     * @param ext    the extension of the document
+     * @param target the file to copy the document to
+     * @return true if the document was cached
+     */
+    boolean restore(String key, String ext, Path target) {
+        Path cached = documents.file(key, ext);
+        try {
+            Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            documents.miss();
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        logger.log(Level.DEBUG, "Reusing compiled document {0}", cached);
+        documents.hit(cached);
+        return true;
+    }
+
+    /**
+     * Adds the given compiled document to the cache and evicts the least
+     * recently used documents if the cache exceeds its maximum size.
+     * 
+     * @param key    the key of the document
+     * @param ext    the extension of the document
+     * @param source the compiled document
+     */
+    void store(String key, String ext, Path source) {
+        Path cached = documents.file(key, ext);
+        try {
+            Files.createDirectories(documents.folder());
+            Path tmp = Files.createTempFile(documents.folder(), cached.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        documents.evict();
+    }
+}
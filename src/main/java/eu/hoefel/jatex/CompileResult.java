@@ -0,0 +1,49 @@
+package eu.hoefel.jatex;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Record for describing the result of compiling a LaTeX document.
+ * 
+ * @param pdf         the generated document (a dvi file for
+ *                    {@link TexCompiler#LATEX}), or null if none got generated
+ * @param exitCode    the exit code, i.e. 0 if the execution terminated normally
+ *                    and &gt;1 if an error occurred
+ * @param passes      the number of compiler passes
+ * @param diagnostics the errors and warnings reported by the compiler and biber
+ * @param duration    the time it took to compile the document
+ * 
+ * @author Udo Hoefel
+ */
+public record CompileResult(Path pdf, int exitCode, int passes, List<String> diagnostics, Duration duration) {
+
+    /**
+     * Creates the result of compiling a LaTeX document.
+     * 
+     * @param pdf         the generated document (a dvi file for
+     *                    {@link TexCompiler#LATEX}), or null if none got generated
+     * @param exitCode    the exit code, i.e. 0 if the execution terminated
+     *                    normally and &gt;1 if an error occurred
+     * @param passes      the number of compiler passes
+     * @param diagnostics the errors and warnings reported by the compiler and
+     *                    biber, not null
+     * @param duration    the time it took to compile the document, not null
+     */
+    public CompileResult {
+        diagnostics = List.copyOf(diagnostics);
+        Objects.requireNonNull(duration);
+    }
+
+    /**
+     * Checks whether the compilation terminated normally and generated a
+     * document.
+     * 
+     * @return true if the compilation succeeded
+     */
+    public boolean isSuccess() {
+        return exitCode == 0 && pdf != null;
+    }
+}
@@ -0,0 +1,267 @@
+package eu.hoefel.jatex;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Record for describing how numbers, e.g. the coordinates of a plot, get
+ * formatted. Either the numbers are written such that they can be read back
+ * exactly (as by {@link Double#toString(double)}), or they get rounded to a
+ * fixed number of significant digits. The latter yields considerably shorter
+ * output, which is also faster to parse for pgfplots, and avoids exponents for
+ * moderately sized numbers. No intermediate objects are created while
+ * formatting into a {@link StringBuilder} or a {@link TexSink}.
+ * <p>
+ * Besides being used for the coordinates in {@link PgfPlots}, this can be used
+ * e.g. to format coordinates for {@link Tikz#draw(String, String...)}.
+ * 
+ * @param significantDigits the number of significant digits (1 to 15), or 0 to
+ *                          write the numbers such that they can be read back
+ *                          exactly
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see PgfPlots#precision(int)
+ */
+public record CoordinateFormat(int significantDigits) {
+
+    /** The maximum number of significant digits that can be rounded to reliably. */
+    private static final int MAX_DIGITS = 15;
+
+    /** The powers of ten that are exactly representable as double. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** The powers of ten as long, up to the maximum number of digits. */
+    private static final long[] LONG_POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        LONG_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < LONG_POWERS_OF_TEN.length; i++) {
+            LONG_POWERS_OF_TEN[i] = 10 * LONG_POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    /** The format that writes the numbers such that they can be read back exactly. */
+    private static final CoordinateFormat ROUND_TRIP = new CoordinateFormat(0);
+
+    /**
+     * Creates a new format.
+     * 
+     * @param significantDigits the number of significant digits (1 to 15), or 0 to
+     *                          write the numbers such that they can be read back
+     *                          exactly
+     * @throws IllegalArgumentException if the number of significant digits is
+     *                                  negative or larger than 15
+     */
+    public CoordinateFormat {
+        if (significantDigits < 0 || significantDigits > MAX_DIGITS) {
+            throw new IllegalArgumentException("The number of significant digits needs to be within 0 and %d, but got %d"
+                    .formatted(MAX_DIGITS, significantDigits));
+        }
+    }
+
+    /**
+     * Gets the format that writes the numbers such that they can be read back
+     * exactly, i.e. as by {@link Double#toString(double)}. This is the default.
+     * 
+     * @return the format
+     */
+    public static CoordinateFormat roundTrip() {
+        return ROUND_TRIP;
+    }
+
+    /**
+     * Gets the format that rounds the numbers to the given number of significant
+     * digits.
+     * 
+     * @param significantDigits the number of significant digits (1 to 15)
+     * @return the format
+     * @throws IllegalArgumentException if the number of significant digits is not
+     *                                  within 1 and 15
+     */
+    public static CoordinateFormat ofSignificantDigits(int significantDigits) {
+        if (significantDigits == 0) throw new IllegalArgumentException("At least 1 significant digit is needed");
+        return new CoordinateFormat(significantDigits);
+    }
+
+    /**
+     * Checks whether this format writes the numbers such that they can be read
+     * back exactly.
+     * 
+     * @return true if the numbers do not get rounded
+     */
+    public boolean isRoundTrip() {
+        return significantDigits == 0;
+    }
+
+    /**
+     * Formats the given number.
+     * 
+     * @param value the number
+     * @return the formatted number
+     */
+    public String format(double value) {
+        return format(value, new StringBuilder(24)).toString();
+    }
+
+    /**
+     * Formats the given number and appends it to the given StringBuilder.
+     * 
+     * @param value the number
+     * @param sb    the StringBuilder to append to
+     * @return the StringBuilder
+     */
+    public StringBuilder format(double value, StringBuilder sb) {
+        if (isRoundTrip()) return sb.append(value);
+        return appendRounded(value, sb);
+    }
+
+    /**
+     * Formats the given number and appends it to the given StringBuilder. In
+     * contrast to {@link #format(double, StringBuilder)}, floats are written as
+     * by {@link Float#toString(float)} if no rounding is requested.
+     * 
+     * @param value the number
+     * @param sb    the StringBuilder to append to
+     * @return the StringBuilder
+     */
+    public StringBuilder format(float value, StringBuilder sb) {
+        if (isRoundTrip()) return sb.append(value);
+        return appendRounded(value, sb);
+    }
+
+    /**
+     * Appends the given number rounded to the significant digits. Numbers whose
+     * decimal exponent is within -4 and the number of significant digits are
+     * written without exponent, others in scientific notation, e.g. "1.5e-7".
+     * Trailing zeros are omitted. The exact binary value of the number gets
+     * rounded half up, as by {@link BigDecimal}, so e.g. 0.705, which is actually
+     * stored as 0.70499999999999996..., gets rounded to "0.7" with 2 significant
+     * digits.
+     * 
+     * @param value the number
+     * @param sb    the StringBuilder to append to
+     * @return the StringBuilder
+     */
+    private StringBuilder appendRounded(double value, StringBuilder sb) {
+        // the notation pgfplots understands
+        if (Double.isNaN(value)) return sb.append("nan");
+        if (Double.isInfinite(value)) return sb.append(value > 0 ? "inf" : "-inf");
+        if (value == 0) return sb.append('0');
+
+        if (value < 0) sb.append('-');
+        double abs = Math.abs(value);
+
+        int digits = significantDigits;
+        int exponent = (int) Math.floor(Math.log10(abs));
+        long mantissa = round(abs, digits - 1 - exponent);
+        // log10 may be off by one close to powers of ten
+        if (mantissa < LONG_POWERS_OF_TEN[digits - 1]) {
+            exponent--;
+            mantissa = round(abs, digits - 1 - exponent);
+        }
+        if (mantissa >= LONG_POWERS_OF_TEN[digits]) {
+            exponent++;
+            mantissa = round(abs, digits - 1 - exponent);
+        }
+
+        while (digits > 1 && mantissa % 10 == 0) {
+            mantissa /= 10;
+            digits--;
+        }
+
+        if (exponent >= -4 && exponent < significantDigits) {
+            if (exponent < 0) {
+                sb.append("0.");
+                for (int i = -1; i > exponent; i--) sb.append('0');
+                appendDigits(mantissa, 0, digits, sb);
+            } else {
+                int integerDigits = exponent + 1;
+                appendDigits(mantissa, 0, Math.min(integerDigits, digits), sb);
+                for (int i = digits; i < integerDigits; i++) sb.append('0');
+                if (digits > integerDigits) {
+                    sb.append('.');
+                    appendDigits(mantissa, integerDigits, digits, sb);
+                }
+            }
+        } else {
+            appendDigits(mantissa, 0, 1, sb);
+            if (digits > 1) {
+                sb.append('.');
+                appendDigits(mantissa, 1, digits, sb);
+            }
+            sb.append('e').append(exponent);
+        }
+        return sb;
+    }
+
+    /**
+     * Rounds the given value multiplied by the given power of ten half up to an
+     * integer. The multiplication is done in binary floating point arithmetic,
+     * so values close to a tie are rounded via their exact decimal expansion
+     * instead, as the rounding error of the multiplication could tip them over.
+     * 
+     * @param value the non-negative value
+     * @param power the power of ten
+     * @return the rounded scaled value
+     */
+    private static long round(double value, int power) {
+        double scaled = scale(value, power);
+        double distanceToTie = Math.abs(scaled - Math.floor(scaled) - 0.5);
+        // every multiplication or division in scale() is off by at most half an ulp
+        if (distanceToTie > Math.ulp(scaled) * (2 + Math.abs(power) / 22)) return Math.round(scaled);
+
+        return new BigDecimal(value).scaleByPowerOfTen(power).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Multiplies the given value by the given power of ten. Exactly representable
+     * powers of ten are used where possible, and divisions for negative powers,
+     * to keep the rounding error small.
+     * 
+     * @param value the value
+     * @param power the power of ten
+     * @return the scaled value
+     */
+    private static double scale(double value, int power) {
+        while (power > 22) {
+            value *= 1e22;
+            power -= 22;
+        }
+        while (power < -22) {
+            value /= 1e22;
+            power += 22;
+        }
+        return power >= 0 ? value * POWERS_OF_TEN[power] : value / POWERS_OF_TEN[-power];
+    }
+
+    /**
+     * Appends some of the decimal digits of the given mantissa.
+     * 
+     * @param mantissa the mantissa
+     * @param from     the index of the first digit to append, counted from the
+     *                 most significant digit
+     * @param to       the index after the last digit to append
+     * @param sb       the StringBuilder to append to
+     */
+    private static void appendDigits(long mantissa, int from, int to, StringBuilder sb) {
+        int numDigits = numDigits(mantissa);
+        for (int i = from; i < to; i++) {
+            sb.append((char) ('0' + mantissa / LONG_POWERS_OF_TEN[numDigits - 1 - i] % 10));
+        }
+    }
+
+    /**
+     * Counts the decimal digits of the given positive number.
+     * 
+     * @param n the number
+     * @return the number of digits
+     */
+    private static int numDigits(long n) {
+        int digits = 1;
+        while (digits < LONG_POWERS_OF_TEN.length && n >= LONG_POWERS_OF_TEN[digits]) digits++;
+        return digits;
+    }
+}
@@ -0,0 +1,782 @@
+package eu.hoefel.jatex;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Coordinates of a 2D or 3D plot, stored column-wise. The coordinates are
+ * written as {@code (x,y)} or {@code (x,y,z)} directly to a {@link TexSink},
+ * i.e. for primitive data no boxing and no intermediate strings are involved.
+ * The numbers are formatted as by their wrapper's {@code toString}, unless
+ * floating point numbers are to be rounded, see {@link CoordinateFormat}.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see PgfPlots#plot(double[][], String, java.util.Map)
+ */
+final class Coordinates {
+
+    /** A column of values, i.e. all x, y or z values. */
+    private static sealed interface Column {
+
+        /**
+         * Gets the number of values.
+         * 
+         * @return the number of values
+         */
+        int length();
+
+        /**
+         * Appends the value at the given index to the sink.
+         * 
+         * @param sink   the sink
+         * @param i      the index
+         * @param format the format of floating point values
+         */
+        void append(TexSink sink, int i, CoordinateFormat format);
+
+        /**
+         * Counts the distinct values.
+         * 
+         * @return the number of distinct values
+         */
+        int distinctCount();
+
+        /**
+         * Gets the value at the given index as double.
+         * 
+         * @param i the index
+         * @return the value
+         * @throws ClassCastException if the values are not {@link #isNumeric()
+         *                            numeric}
+         */
+        double doubleValue(int i);
+
+        /**
+         * Creates a column containing only the values at the given indices.
+         * 
+         * @param indices the indices of the values to keep
+         * @return the new column
+         */
+        Column select(int[] indices);
+
+        /**
+         * Checks whether the values are numbers.
+         * 
+         * @return true if {@link #doubleValue(int)} can be used
+         */
+        boolean isNumeric();
+
+        /**
+         * Feeds the first values to the digest.
+         * 
+         * @param digest the digest
+         * @param buffer the buffer to collect the bytes in
+         * @param length the number of values
+         */
+        void digest(MessageDigest digest, ByteBuffer buffer, int length);
+    }
+
+    /** A column of primitive numbers, which are identified by their bits. */
+    private static sealed interface NumericColumn extends Column {
+
+        /**
+         * Gets the bits identifying the value at the given index, e.g.
+         * {@link Double#doubleToLongBits(double)} for doubles.
+         * 
+         * @param i the index
+         * @return the bits of the value
+         */
+        long bits(int i);
+
+        @Override
+        default boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        default void digest(MessageDigest digest, ByteBuffer buffer, int length) {
+            digest.update(getClass().getSimpleName().getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < length; i++) {
+                if (buffer.remaining() < Long.BYTES) flush(digest, buffer);
+                buffer.putLong(bits(i));
+            }
+            flush(digest, buffer);
+        }
+    }
+
+    /**
+     * Column of doubles.
+     * 
+     * @param values the values
+     */
+    private static record DoubleColumn(double[] values) implements NumericColumn {
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            sink.append(values[i], format);
+        }
+
+        @Override
+        public int distinctCount() {
+            return distinct(values.clone());
+        }
+
+        @Override
+        public long bits(int i) {
+            return Double.doubleToLongBits(values[i]);
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return values[i];
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            double[] selected = new double[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                selected[i] = values[indices[i]];
+            }
+            return new DoubleColumn(selected);
+        }
+    }
+
+    /**
+     * Column of floats.
+     * 
+     * @param values the values
+     */
+    private static record FloatColumn(float[] values) implements NumericColumn {
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            sink.append(values[i], format);
+        }
+
+        @Override
+        public int distinctCount() {
+            // the conversion to double is exact
+            double[] copy = new double[values.length];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = values[i];
+            }
+            return distinct(copy);
+        }
+
+        @Override
+        public long bits(int i) {
+            return Float.floatToIntBits(values[i]);
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return values[i];
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            float[] selected = new float[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                selected[i] = values[indices[i]];
+            }
+            return new FloatColumn(selected);
+        }
+    }
+
+    /**
+     * Column of integral numbers, i.e. ints or longs.
+     * 
+     * @param values the values
+     */
+    private static record LongColumn(long[] values) implements NumericColumn {
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            sink.append(values[i]);
+        }
+
+        @Override
+        public int distinctCount() {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int count = sorted.length == 0 ? 0 : 1;
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i] != sorted[i - 1]) count++;
+            }
+            return count;
+        }
+
+        @Override
+        public long bits(int i) {
+            return values[i];
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return values[i];
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            long[] selected = new long[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                selected[i] = values[indices[i]];
+            }
+            return new LongColumn(selected);
+        }
+    }
+
+    /**
+     * Column of doubles from a buffer holding the coordinates interleaved, i.e.
+     * x0, y0, x1, y1, ...
+     * 
+     * @param buffer the buffer
+     * @param offset the index of the first value of this column
+     * @param stride the distance between two values of this column
+     * @param length the number of values
+     */
+    private static record BufferColumn(DoubleBuffer buffer, int offset, int stride, int length) implements NumericColumn {
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            sink.append(buffer.get(offset + i * stride), format);
+        }
+
+        @Override
+        public int distinctCount() {
+            double[] copy = new double[length];
+            for (int i = 0; i < length; i++) {
+                copy[i] = buffer.get(offset + i * stride);
+            }
+            return distinct(copy);
+        }
+
+        @Override
+        public long bits(int i) {
+            return Double.doubleToLongBits(buffer.get(offset + i * stride));
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return buffer.get(offset + i * stride);
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            double[] selected = new double[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                selected[i] = doubleValue(indices[i]);
+            }
+            return new DoubleColumn(selected);
+        }
+    }
+
+    /**
+     * Column of doubles repeating the given values on a grid, i.e. the value at
+     * index {@code i} is {@code values[(i / divisor) % values.length]}. This
+     * allows to describe the x and y values of a grid without expanding them.
+     * 
+     * @param values  the values
+     * @param divisor the number of consecutive repetitions of each value
+     * @param length  the number of values
+     */
+    private static record GridColumn(double[] values, int divisor, int length) implements NumericColumn {
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            sink.append(doubleValue(i), format);
+        }
+
+        @Override
+        public int distinctCount() {
+            return distinct(values.clone());
+        }
+
+        @Override
+        public long bits(int i) {
+            return Double.doubleToLongBits(doubleValue(i));
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return values[(i / divisor) % values.length];
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            double[] selected = new double[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                selected[i] = doubleValue(indices[i]);
+            }
+            return new DoubleColumn(selected);
+        }
+    }
+
+    /**
+     * Column of arbitrary values, accessed via reflection. This is used for
+     * arrays of e.g. {@link Double} or {@link java.math.BigDecimal}.
+     * 
+     * @param values the array of values
+     */
+    private static record ObjectColumn(Object values) implements Column {
+        @Override
+        public int length() {
+            return Array.getLength(values);
+        }
+
+        @Override
+        public void append(TexSink sink, int i, CoordinateFormat format) {
+            Object value = Array.get(values, i);
+            if (value instanceof Double d) {
+                sink.append(d, format);
+            } else if (value instanceof Float f) {
+                sink.append(f, format);
+            } else {
+                sink.append(String.valueOf(value));
+            }
+        }
+
+        @Override
+        public int distinctCount() {
+            Set<Object> elems = new HashSet<>();
+            for (int i = 0; i < length(); i++) {
+                elems.add(Array.get(values, i));
+            }
+            return elems.size();
+        }
+
+        @Override
+        public double doubleValue(int i) {
+            return ((Number) Array.get(values, i)).doubleValue();
+        }
+
+        @Override
+        public Column select(int[] indices) {
+            Object selected = Array.newInstance(values.getClass().getComponentType(), indices.length);
+            for (int i = 0; i < indices.length; i++) {
+                Array.set(selected, i, Array.get(values, indices[i]));
+            }
+            return new ObjectColumn(selected);
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return Number.class.isAssignableFrom(values.getClass().getComponentType());
+        }
+
+        @Override
+        public void digest(MessageDigest digest, ByteBuffer buffer, int length) {
+            digest.update(values.getClass().getName().getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < length; i++) {
+                digest.update(String.valueOf(Array.get(values, i)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        }
+    }
+
+    private final Column[] columns;
+    private final int size;
+    private final CoordinateFormat format;
+
+    /**
+     * Constructor.
+     * 
+     * @param columns the columns, i.e. x, y and (optionally) z
+     * @throws IllegalArgumentException if not 2 or 3 columns are given or if the
+     *                                  y or z column is shorter than the x column
+     */
+    private Coordinates(Column... columns) {
+        this(CoordinateFormat.roundTrip(), columns);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param format  the format of floating point values
+     * @param columns the columns, i.e. x, y and (optionally) z
+     * @throws IllegalArgumentException if not 2 or 3 columns are given or if the
+     *                                  y or z column is shorter than the x column
+     */
+    private Coordinates(CoordinateFormat format, Column... columns) {
+        if (columns.length != 2 && columns.length != 3) {
+            throw new IllegalArgumentException("Only 2D and 3D arrays are supported");
+        }
+
+        this.format = Objects.requireNonNull(format);
+        this.columns = columns;
+        this.size = columns[0].length();
+        for (Column column : columns) {
+            if (column.length() < size) {
+                throw new IllegalArgumentException("All columns need at least %d values, but got only %d"
+                        .formatted(size, column.length()));
+            }
+        }
+    }
+
+    /**
+     * Counts the distinct values in the given array. Note that the array gets
+     * sorted.
+     * 
+     * @param values the values
+     * @return the number of distinct values
+     */
+    private static int distinct(double[] values) {
+        Arrays.sort(values);
+        int count = values.length == 0 ? 0 : 1;
+        for (int i = 1; i < values.length; i++) {
+            // same semantics as Double#equals
+            if (Double.doubleToLongBits(values[i]) != Double.doubleToLongBits(values[i - 1])) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Feeds the content of the buffer to the digest and clears the buffer.
+     * 
+     * @param digest the digest
+     * @param buffer the buffer
+     */
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        digest.update(buffer.flip());
+        buffer.clear();
+    }
+
+    /**
+     * Creates coordinates from the given columns, which get copied.
+     * 
+     * @param data the columns, i.e. x, y and (optionally) z
+     * @return the coordinates
+     */
+    static Coordinates of(double[][] data) {
+        Column[] columns = new Column[data.length];
+        for (int i = 0; i < data.length; i++) {
+            columns[i] = new DoubleColumn(data[i].clone());
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from the given columns, which get copied.
+     * 
+     * @param data the columns, i.e. x, y and (optionally) z
+     * @return the coordinates
+     */
+    static Coordinates of(float[][] data) {
+        Column[] columns = new Column[data.length];
+        for (int i = 0; i < data.length; i++) {
+            columns[i] = new FloatColumn(data[i].clone());
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from the given columns, which get copied.
+     * 
+     * @param data the columns, i.e. x, y and (optionally) z
+     * @return the coordinates
+     */
+    static Coordinates of(int[][] data) {
+        Column[] columns = new Column[data.length];
+        for (int i = 0; i < data.length; i++) {
+            columns[i] = new LongColumn(Arrays.stream(data[i]).asLongStream().toArray());
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from the given columns, which get copied.
+     * 
+     * @param data the columns, i.e. x, y and (optionally) z
+     * @return the coordinates
+     */
+    static Coordinates of(long[][] data) {
+        Column[] columns = new Column[data.length];
+        for (int i = 0; i < data.length; i++) {
+            columns[i] = new LongColumn(data[i].clone());
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from the remaining content of the given buffer, which
+     * holds the coordinates interleaved, i.e. x0, y0, x1, y1, ... for 2D data.
+     * The content is <em>not</em> copied.
+     * 
+     * @param data      the buffer
+     * @param dimension the dimension of the coordinates, i.e. 2 or 3
+     * @return the coordinates
+     * @throws IllegalArgumentException if the number of remaining values is not a
+     *                                  multiple of the dimension
+     */
+    static Coordinates of(DoubleBuffer data, int dimension) {
+        Objects.requireNonNull(data);
+        if (dimension != 2 && dimension != 3) {
+            throw new IllegalArgumentException("Only 2D and 3D arrays are supported");
+        } else if (data.remaining() % dimension != 0) {
+            throw new IllegalArgumentException("The number of values (%d) is not a multiple of the dimension (%d)"
+                    .formatted(data.remaining(), dimension));
+        }
+
+        DoubleBuffer view = data.slice();
+        int length = view.remaining() / dimension;
+        Column[] columns = new Column[dimension];
+        for (int i = 0; i < dimension; i++) {
+            columns[i] = new BufferColumn(view, i, dimension, length);
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from the given 2D array of arbitrary type, whose columns
+     * get copied. Primitive arrays are handled without reflection.
+     * 
+     * @param data the columns, i.e. x, y and (optionally) z
+     * @return the coordinates
+     */
+    static Coordinates ofArray(Object data) {
+        if (data instanceof double[][] d) return of(d);
+        if (data instanceof float[][] f) return of(f);
+        if (data instanceof int[][] i) return of(i);
+        if (data instanceof long[][] l) return of(l);
+
+        Column[] columns = new Column[Array.getLength(data)];
+        for (int i = 0; i < columns.length; i++) {
+            Object column = Array.get(data, i);
+            Object copy = Array.newInstance(column.getClass().getComponentType(), Array.getLength(column));
+            System.arraycopy(column, 0, copy, 0, Array.getLength(column));
+            columns[i] = new ObjectColumn(copy);
+        }
+        return new Coordinates(columns);
+    }
+
+    /**
+     * Creates coordinates from data on a rectangular grid, which get copied. The
+     * coordinates run over y first, i.e. (x0,y0), (x0,y1), ..., (x1,y0), ...
+     * 
+     * @param x the x values
+     * @param y the y values
+     * @param z the z values, with {@code z[i][j]} corresponding to {@code x[i]}
+     *          and {@code y[j]}
+     * @return the coordinates
+     * @throws IllegalArgumentException if z does not cover the grid
+     */
+    static Coordinates ofGrid(double[] x, double[] y, double[][] z) {
+        int length = x.length * y.length;
+        if (z.length < x.length) {
+            throw new IllegalArgumentException("Expected %d rows of z values, but got only %d".formatted(x.length, z.length));
+        }
+
+        double[] zFlat = new double[length];
+        for (int i = 0; i < x.length; i++) {
+            if (z[i].length < y.length) {
+                throw new IllegalArgumentException("Expected %d z values in row %d, but got only %d"
+                        .formatted(y.length, i, z[i].length));
+            }
+            System.arraycopy(z[i], 0, zFlat, i * y.length, y.length);
+        }
+        return new Coordinates(new GridColumn(x.clone(), y.length, length),
+                new GridColumn(y.clone(), 1, length),
+                new DoubleColumn(zFlat));
+    }
+
+    /**
+     * Creates coordinates from data on a rectangular grid. The x and y values get
+     * copied, whereas the z values are <em>not</em> copied. The coordinates run
+     * over y first, i.e. (x0,y0), (x0,y1), ..., (x1,y0), ...
+     * 
+     * @param x the x values
+     * @param y the y values
+     * @param z the remaining z values, row by row, i.e. the z value corresponding
+     *          to {@code x[i]} and {@code y[j]} is at the relative index
+     *          {@code i * y.length + j}
+     * @return the coordinates
+     * @throws IllegalArgumentException if the number of remaining z values does
+     *                                  not match the grid
+     */
+    static Coordinates ofGrid(double[] x, double[] y, DoubleBuffer z) {
+        int length = x.length * y.length;
+        if (z.remaining() != length) {
+            throw new IllegalArgumentException("Expected %d z values, but got %d".formatted(length, z.remaining()));
+        }
+
+        return new Coordinates(new GridColumn(x.clone(), y.length, length),
+                new GridColumn(y.clone(), 1, length),
+                new BufferColumn(z.slice(), 0, 1, length));
+    }
+
+    /**
+     * Creates coordinates with the same values, formatted according to the given
+     * format.
+     * 
+     * @param format the format of floating point values
+     * @return the coordinates
+     */
+    Coordinates withFormat(CoordinateFormat format) {
+        return format.equals(this.format) ? this : new Coordinates(format, columns);
+    }
+
+    /**
+     * Gets the dimension of the coordinates.
+     * 
+     * @return 2 or 3
+     */
+    int dimension() {
+        return columns.length;
+    }
+
+    /**
+     * Gets the number of coordinates.
+     * 
+     * @return the number of coordinates
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether all values are numbers.
+     * 
+     * @return true if {@link #x(int)} and {@link #y(int)} can be used
+     */
+    boolean isNumeric() {
+        for (Column column : columns) {
+            if (!column.isNumeric()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the x value at the given index.
+     * 
+     * @param i the index
+     * @return the x value
+     */
+    double x(int i) {
+        return columns[0].doubleValue(i);
+    }
+
+    /**
+     * Gets the y value at the given index.
+     * 
+     * @param i the index
+     * @return the y value
+     */
+    double y(int i) {
+        return columns[1].doubleValue(i);
+    }
+
+    /**
+     * Creates coordinates containing only the coordinates at the given indices.
+     * The values keep their type and therefore their formatting.
+     * 
+     * @param indices the indices of the coordinates to keep
+     * @return the new coordinates
+     */
+    Coordinates select(int[] indices) {
+        Column[] selected = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            selected[i] = columns[i].select(indices);
+        }
+        return new Coordinates(format, selected);
+    }
+
+    /**
+     * Counts the distinct x values, which corresponds to the number of columns of
+     * a mesh given row by row.
+     * 
+     * @return the number of distinct x values
+     */
+    int distinctX() {
+        return columns[0].distinctCount();
+    }
+
+    /**
+     * Computes a hash of the coordinates, which changes (with overwhelming
+     * probability) if any value or the way the values are formatted changes.
+     * 
+     * @param context additional text to include in the hash, e.g. a header, may
+     *                be null
+     * @return the hash as hex string
+     */
+    String contentHash(String context) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(String.valueOf(context).getBytes(StandardCharsets.UTF_8));
+        digest.update(format.toString().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (Column column : columns) {
+            column.digest(digest, buffer, size);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Writes the coordinates, one per line, as {@code (x,y)} or {@code (x,y,z)}.
+     * 
+     * @param sink        the sink to write to
+     * @param indentLevel the indentation level of the lines
+     */
+    void render(TexSink sink, int indentLevel) {
+        for (int i = 0; i < size; i++) {
+            sink.indent(indentLevel).append('(');
+            appendRow(sink, i, ',');
+            sink.append(')').endLine();
+        }
+    }
+
+    /**
+     * Writes the coordinates as table, one per line, with the values separated
+     * by spaces.
+     * 
+     * @param sink        the sink to write to
+     * @param indentLevel the indentation level of the lines
+     */
+    void renderTable(TexSink sink, int indentLevel) {
+        for (int i = 0; i < size; i++) {
+            sink.indent(indentLevel);
+            appendRow(sink, i, ' ');
+            sink.endLine();
+        }
+    }
+
+    /**
+     * Appends the values of the coordinate with the given index.
+     * 
+     * @param sink      the sink to append to
+     * @param i         the index
+     * @param separator the separator between the values
+     */
+    private void appendRow(TexSink sink, int i, char separator) {
+        columns[0].append(sink, i, format);
+        for (int j = 1; j < columns.length; j++) {
+            sink.append(separator);
+            columns[j].append(sink, i, format);
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Class for loading the columns of (potentially very large) CSV or TSV files,
+ * to be used in {@link Table tables} or {@link PgfPlots plots}. The file gets
+ * memory-mapped instead of being read into memory, and numeric columns are
+ * parsed directly from the bytes of the file, i.e. without creating a String
+ * for every field. Large files are split at line boundaries into chunks that
+ * get parsed in parallel.
+ * <p>
+ * The first line of the file is expected to contain the names of the columns.
+ * The file is expected to be UTF-8 encoded. Fields may be enclosed in double
+ * quotes to contain the delimiter, with double quotes within the field given
+ * as two double quotes, but they may not contain line breaks.
+ * <p>
+ * For example, to plot the "voltage" over the "time" column:
+ * 
+ * <pre>
+ * Csv csv = Csv.of(Path.of("measurement.csv"));
+ * PgfPlots plot = new PgfPlots().plot(csv.doubles("time", "voltage"), "voltage", Map.of());
+ * </pre>
+ * 
+ * @author Udo Hoefel
+ */
+public final class Csv {
+
+    private static final Logger logger = System.getLogger(Csv.class.getName());
+
+    /** The minimum size of the chunks that get parsed in parallel. */
+    private static final int MIN_CHUNK_SIZE = 1 << 22;
+
+    /** The maximum size of a chunk, which needs to fit into a single mapping. */
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    /** The size of the buffer used to find the line boundaries. */
+    private static final int BOUNDARY_BUFFER_SIZE = 1 << 13;
+
+    /** The largest long that is exactly representable as double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** The powers of ten that are exactly representable as double. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final Path file;
+    private byte delimiter;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int minChunkSize = MIN_CHUNK_SIZE;
+
+    /** The names of the columns, null until read. */
+    private List<String> header;
+
+    /** The offset of the first line after the header. */
+    private long dataStart;
+
+    /**
+     * Constructor.
+     * 
+     * @param file      the file
+     * @param delimiter the delimiter
+     */
+    private Csv(Path file, char delimiter) {
+        this.file = Objects.requireNonNull(file);
+        delimiter(delimiter);
+    }
+
+    /**
+     * Creates a loader for the given file. Files ending in ".tsv" or ".tab" are
+     * expected to be tab separated, all other files comma separated, see
+     * {@link #delimiter(char)}.
+     * 
+     * @param file the file
+     * @return the loader for the file
+     */
+    public static Csv of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return new Csv(file, name.endsWith(".tsv") || name.endsWith(".tab") ? '\t' : ',');
+    }
+
+    /**
+     * Sets the delimiter of the fields.
+     * 
+     * @param delimiter the delimiter, e.g. ',', ';' or '\t'
+     * @return this Csv object
+     * @throws IllegalArgumentException if the delimiter is not an ASCII character
+     *                                  or is a quote or a line break
+     */
+    public Csv delimiter(char delimiter) {
+        if (delimiter > 127 || delimiter == '"' || delimiter == '\n' || delimiter == '\r') {
+            throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+        }
+        this.delimiter = (byte) delimiter;
+        header = null;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of chunks that get parsed in parallel. By default,
+     * this is the number of available processors.
+     * 
+     * @param parallelism the number of chunks, 1 to parse the file sequentially
+     * @return this Csv object
+     * @throws IllegalArgumentException if the parallelism is not positive
+     */
+    public Csv parallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("The parallelism needs to be positive, but got " + parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the minimum size of the chunks that get parsed in parallel.
+     * 
+     * @param minChunkSize the minimum size in bytes
+     * @return this Csv object
+     */
+    Csv minChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
+
+    /**
+     * Gets the names of the columns, as given in the first line of the file.
+     * 
+     * @return the names of the columns
+     * @throws UncheckedIOException if reading the file fails
+     */
+    public List<String> header() {
+        if (header == null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long end = lineEnd(channel, 0);
+                if (end > MAX_CHUNK_SIZE) throw new IllegalArgumentException("The header of %s is too long".formatted(file));
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+
+                List<String> names = new ArrayList<>();
+                Fields fields = new Fields(buf, delimiter);
+                fields.line(0, (int) end);
+                while (fields.next()) names.add(fields.string().strip());
+                // some programs start UTF-8 files with a byte order mark
+                if (names.get(0).startsWith("\uFEFF")) names.set(0, names.get(0).substring(1));
+
+                header = List.copyOf(names);
+                dataStart = Math.min(size, end + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Gets the index of the column with the given name.
+     * 
+     * @param column the name of the column
+     * @return the index of the column
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int column(String column) {
+        int index = header().indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column '%s', available are %s".formatted(column, header()));
+        }
+        return index;
+    }
+
+    /**
+     * Gets the numeric values of the given columns. Empty fields are returned as
+     * NaN, as are "nan", and "inf" and "-inf" as the infinities (as written by
+     * pgfplots). The returned array can be passed directly to e.g.
+     * {@link PgfPlots#plot(double[][], String, java.util.Map)}.
+     * 
+     * @param columns the names of the columns
+     * @return the values, with the first index selecting the column in the order
+     *         given and the second index the line
+     * @throws IllegalArgumentException if a column does not exist or a field is
+     *                                  not a number
+     * @throws UncheckedIOException     if reading the file fails
+     */
+    public double[][] doubles(String... columns) {
+        int[] indices = indices(columns);
+        List<Chunk> chunks = parse(indices, true);
+
+        int numLines = chunks.stream().mapToInt(c -> c.numLines).sum();
+        double[][] ret = new double[indices.length][numLines];
+        int pos = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < indices.length; i++) {
+                System.arraycopy(chunk.numbers[i], 0, ret[i], pos, chunk.numLines);
+            }
+            pos += chunk.numLines;
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the fields of the given columns as Strings.
+     * 
+     * @param columns the names of the columns
+     * @return the fields, with the first index selecting the column in the order
+     *         given and the second index the line
+     * @throws IllegalArgumentException if a column does not exist
+     * @throws UncheckedIOException     if reading the file fails
+     */
+    public String[][] strings(String... columns) {
+        int[] indices = indices(columns);
+        List<Chunk> chunks = parse(indices, false);
+
+        int numLines = chunks.stream().mapToInt(c -> c.numLines).sum();
+        String[][] ret = new String[indices.length][numLines];
+        int pos = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < indices.length; i++) {
+                System.arraycopy(chunk.strings[i], 0, ret[i], pos, chunk.numLines);
+            }
+            pos += chunk.numLines;
+        }
+        return ret;
+    }
+
+    /**
+     * Creates a table from the given columns. The first row contains the names of
+     * the columns, separated by a midrule from the values. All columns are left
+     * aligned, which can be changed via {@link Table#format(String...)}. Note
+     * that the fields are used as they are, i.e. they need to be valid LaTeX.
+     * 
+     * @param columns the names of the columns
+     * @return the table
+     * @throws IllegalArgumentException if a column does not exist
+     * @throws UncheckedIOException     if reading the file fails
+     */
+    public Table table(String... columns) {
+        String[][] values = strings(columns);
+        String[] formats = new String[columns.length];
+        Arrays.fill(formats, "l");
+
+        Table table = new Table().format(formats).row(0, columns).midrule(0);
+        for (int i = 0; i < values.length; i++) {
+            table.column(i, 1, values[i]);
+        }
+        return table;
+    }
+
+    /**
+     * Gets the indices of the given columns.
+     * 
+     * @param columns the names of the columns
+     * @return the indices
+     * @throws IllegalArgumentException if there are no columns given or a column
+     *                                  does not exist
+     */
+    private int[] indices(String... columns) {
+        if (columns.length == 0) throw new IllegalArgumentException("At least one column is needed");
+        int[] indices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indices[i] = column(columns[i]);
+        }
+        return indices;
+    }
+
+    /**
+     * Parses the file in chunks, in parallel if the file is large enough.
+     * 
+     * @param indices the indices of the columns to parse
+     * @param numeric true to parse the fields as numbers, false to keep them as
+     *                Strings
+     * @return the parsed chunks, in order
+     * @throws UncheckedIOException if reading the file fails
+     */
+    private List<Chunk> parse(int[] indices, boolean numeric) {
+        header();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            logger.log(Level.DEBUG, () -> "Parsing %s in %d chunk(s)".formatted(file, bounds.length - 1));
+
+            IntStream chunkIndices = IntStream.range(0, bounds.length - 1);
+            if (bounds.length > 2) chunkIndices = chunkIndices.parallel();
+            return chunkIndices.mapToObj(i -> {
+                try {
+                    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                    return new Chunk(buf, delimiter, indices, numeric, header);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Splits the data lines of the file into chunks, at line boundaries.
+     * 
+     * @param channel the channel of the file
+     * @return the offsets of the chunks, i.e. chunk i spans from element i to
+     *         element i+1
+     * @throws IOException if reading the file fails
+     */
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long dataSize = size - dataStart;
+        long numChunks = Math.max(1, Math.min(parallelism, dataSize / minChunkSize));
+        numChunks = Math.max(numChunks, (dataSize + MAX_CHUNK_SIZE / 2 - 1) / (MAX_CHUNK_SIZE / 2));
+
+        long[] bounds = new long[(int) numChunks + 1];
+        bounds[0] = dataStart;
+        for (int i = 1; i < numChunks; i++) {
+            long target = Math.max(bounds[i - 1], dataStart + i * dataSize / numChunks);
+            bounds[i] = Math.min(size, lineEnd(channel, target) + 1);
+        }
+        bounds[bounds.length - 1] = size;
+        return bounds;
+    }
+
+    /**
+     * Finds the end of the line containing the given position.
+     * 
+     * @param channel the channel of the file
+     * @param from    the position
+     * @return the position of the line break, or the size of the file if the line
+     *         is the last one
+     * @throws IOException if reading the file fails
+     */
+    private static long lineEnd(FileChannel channel, long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BOUNDARY_BUFFER_SIZE);
+        long pos = from;
+        while (true) {
+            buf.clear();
+            int read = channel.read(buf, pos);
+            if (read <= 0) return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (buf.get(i) == '\n') return pos + i;
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Parses the given number without creating a String, if possible. If the
+     * number can be computed exactly from its decimal digits via double
+     * arithmetic, i.e. it has at most 15 significant digits and a small exponent
+     * (as is the case for most measurement data), this is done directly. Other
+     * numbers get parsed via {@link Double#parseDouble(String)}.
+     * 
+     * @param buf  the buffer containing the number
+     * @param from the index of the first character
+     * @param to   the index after the last character
+     * @return the number
+     * @throws NumberFormatException if the field does not contain a number
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to) {
+        while (from < to && buf.get(from) == ' ') from++;
+        while (to > from && buf.get(to - 1) == ' ') to--;
+        if (from == to) return Double.NaN;
+
+        int i = from;
+        boolean negative = buf.get(i) == '-';
+        if (negative || buf.get(i) == '+') i++;
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean anyDigit = false;
+        boolean exact = true;
+        boolean inFraction = false;
+        for (; i < to; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    if (inFraction) exponent--;
+                    continue;
+                }
+                if (++digits > 18) {
+                    exact = false;
+                    break;
+                }
+                mantissa = 10 * mantissa + (b - '0');
+                if (inFraction) exponent--;
+            } else if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (exact && anyDigit && i < to && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = i < to && buf.get(i) == '-';
+            if (i < to && (negativeExponent || buf.get(i) == '+')) i++;
+            int explicitExponent = 0;
+            int exponentStart = i;
+            for (; i < to && buf.get(i) >= '0' && buf.get(i) <= '9' && explicitExponent < 10_000; i++) {
+                explicitExponent = 10 * explicitExponent + (buf.get(i) - '0');
+            }
+            if (i == exponentStart) exact = false;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (exact && anyDigit && i == to && mantissa <= MAX_EXACT_MANTISSA) {
+            double value = mantissa;
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                value *= POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value /= POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+        }
+
+        // slow path for long or special numbers
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        return switch (s.toLowerCase(Locale.ENGLISH)) {
+            case "nan" -> Double.NaN;
+            case "inf", "+inf" -> Double.POSITIVE_INFINITY;
+            case "-inf" -> Double.NEGATIVE_INFINITY;
+            default -> Double.parseDouble(s);
+        };
+    }
+
+    /**
+     * Iterates over the fields of a line.
+     * 
+     * @author Udo Hoefel
+     */
+    private static final class Fields {
+        private final ByteBuffer buf;
+        private final byte delimiter;
+        private int pos;
+        private int end;
+        private boolean done;
+
+        /** The range of the current field, without surrounding quotes. */
+        private int from;
+        private int to;
+
+        /** Whether the current field is quoted and contains escaped quotes. */
+        private boolean escapedQuotes;
+
+        /**
+         * Constructor.
+         * 
+         * @param buf       the buffer to parse
+         * @param delimiter the delimiter of the fields
+         */
+        private Fields(ByteBuffer buf, byte delimiter) {
+            this.buf = buf;
+            this.delimiter = delimiter;
+        }
+
+        /**
+         * Starts parsing the given line.
+         * 
+         * @param start the index of the first character of the line
+         * @param end   the index of the line break, or the end of the buffer
+         */
+        private void line(int start, int end) {
+            pos = start;
+            // also handle Windows line breaks
+            this.end = end > start && buf.get(end - 1) == '\r' ? end - 1 : end;
+            done = false;
+        }
+
+        /**
+         * Moves to the next field.
+         * 
+         * @return true if there was another field in the line
+         */
+        private boolean next() {
+            if (done) return false;
+
+            escapedQuotes = false;
+            // allow spaces in front of quoted fields
+            int quote = pos;
+            while (quote < end && buf.get(quote) == ' ') quote++;
+            if (quote < end && buf.get(quote) == '"') {
+                from = quote + 1;
+                int i = from;
+                while (i < end) {
+                    if (buf.get(i) == '"') {
+                        if (i + 1 < end && buf.get(i + 1) == '"') {
+                            escapedQuotes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                to = i;
+                // skip anything up to the delimiter
+                while (i < end && buf.get(i) != delimiter) i++;
+                pos = i;
+            } else {
+                from = pos;
+                int i = pos;
+                while (i < end && buf.get(i) != delimiter) i++;
+                to = i;
+                pos = i;
+            }
+
+            if (pos < end) {
+                pos++;
+            } else {
+                done = true;
+            }
+            return true;
+        }
+
+        /**
+         * Gets the current field as String.
+         * 
+         * @return the field
+         */
+        private String string() {
+            byte[] bytes = new byte[to - from];
+            buf.get(from, bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            return escapedQuotes ? s.replace("\"\"", "\"") : s;
+        }
+
+        /**
+         * Gets the current field as number.
+         * 
+         * @return the number
+         */
+        private double number() {
+            return parseDouble(buf, from, to);
+        }
+    }
+
+    /**
+     * The values of the selected columns within a chunk of lines.
+     * 
+     * @author Udo Hoefel
+     */
+    private static final class Chunk {
+        private int numLines;
+        private double[][] numbers;
+        private String[][] strings;
+
+        /**
+         * Parses the given chunk of lines.
+         * 
+         * @param buf       the buffer containing complete lines
+         * @param delimiter the delimiter of the fields
+         * @param indices   the indices of the columns to keep
+         * @param numeric   true to parse the fields as numbers
+         * @param header    the names of the columns, for error messages
+         * @throws IllegalArgumentException if a field is not a number
+         */
+        private Chunk(ByteBuffer buf, byte delimiter, int[] indices, boolean numeric, List<String> header) {
+            int capacity = 1024;
+            if (numeric) {
+                numbers = new double[indices.length][capacity];
+            } else {
+                strings = new String[indices.length][capacity];
+            }
+
+            // the position of the selected columns in the output, by column index
+            int maxIndex = Arrays.stream(indices).max().orElseThrow();
+            int[][] targets = new int[maxIndex + 1][];
+            for (int i = 0; i < indices.length; i++) {
+                int[] t = targets[indices[i]];
+                t = t == null ? new int[1] : Arrays.copyOf(t, t.length + 1);
+                t[t.length - 1] = i;
+                targets[indices[i]] = t;
+            }
+
+            Fields fields = new Fields(buf, delimiter);
+            int limit = buf.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buf.get(end) != '\n') end++;
+
+                // skip empty lines
+                if (end > start && !(end == start + 1 && buf.get(start) == '\r')) {
+                    if (numLines == capacity) {
+                        capacity += capacity >> 1;
+                        grow(capacity);
+                    }
+                    if (numeric) {
+                        for (double[] column : numbers) column[numLines] = Double.NaN;
+                    }
+
+                    fields.line(start, end);
+                    for (int col = 0; col <= maxIndex && fields.next(); col++) {
+                        if (targets[col] == null) continue;
+                        for (int target : targets[col]) {
+                            if (numeric) {
+                                try {
+                                    numbers[target][numLines] = fields.number();
+                                } catch (NumberFormatException e) {
+                                    throw new IllegalArgumentException("Cannot parse '%s' in column '%s' as number"
+                                            .formatted(fields.string(), header.get(col)), e);
+                                }
+                            } else {
+                                strings[target][numLines] = fields.string();
+                            }
+                        }
+                    }
+                    numLines++;
+                }
+                start = end + 1;
+            }
+
+            if (!numeric) {
+                for (String[] column : strings) {
+                    for (int i = 0; i < numLines; i++) {
+                        if (column[i] == null) column[i] = "";
+                    }
+                }
+            }
+        }
+
+        /**
+         * Grows the arrays holding the values to the given capacity.
+         * 
+         * @param capacity the new capacity
+         */
+        private void grow(int capacity) {
+            if (numbers != null) {
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = Arrays.copyOf(numbers[i], capacity);
+                }
+            } else {
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = Arrays.copyOf(strings[i], capacity);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package eu.hoefel.jatex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The sidecar files written along with one document, like the data files read
+ * by pgfplots via {@code \addplot table {file}}. The files are named after the
+ * hash of their content, so identical data gets written only once, and they
+ * are written in the background, so that writing the data can overlap with
+ * writing the document. The document waits for its own files only, see
+ * {@link #await()}.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see TexSink#sidecar(Path, Consumer)
+ * @see PgfPlots#dataFolder(String)
+ */
+final class DataFiles {
+
+    private static final Logger logger = System.getLogger(DataFiles.class.getName());
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /** The threads writing the files of all documents, as the writes block on file I/O. */
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread t = new Thread(r, "jatex-data-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The size of the buffer in front of the file channel. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path folder;
+
+    /** The writes of the document, by file. */
+    private final Map<Path, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     * 
+     * @param folder the folder of the document, against which relative files are
+     *               resolved
+     */
+    DataFiles(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Gets the folder of the document.
+     * 
+     * @return the folder
+     */
+    Path folder() {
+        return folder;
+    }
+
+    /**
+     * Writes the file with the given content, in the background. If the file
+     * already exists or is already written for the document, it is not written
+     * again.
+     * 
+     * @param file    the file to write to, named after the hash of its content
+     * @param content writes the content to the sink given to it
+     */
+    void write(Path file, Consumer<TexSink> content) {
+        Path target = folder.resolve(file).toAbsolutePath().normalize();
+        writes.computeIfAbsent(target, f -> CompletableFuture.runAsync(() -> writeNow(f, content), WRITERS));
+    }
+
+    /**
+     * Writes the file with the given content, unless the file exists already. The
+     * content is written to a temporary file first and moved afterwards, so that
+     * there are never any incomplete files with the final name.
+     * 
+     * @param file    the file to write to
+     * @param content writes the content to the sink given to it
+     * @throws UncheckedIOException if writing fails
+     */
+    private static void writeNow(Path file, Consumer<TexSink> content) {
+        if (Files.isRegularFile(file)) {
+            logger.log(Level.DEBUG, () -> "Reusing data file %s".formatted(file));
+            return;
+        }
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                        Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                    content.accept(TexSink.of(writer));
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            logger.log(Level.DEBUG, () -> "Wrote data file %s".formatted(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits until all files of the document are completely written.
+     * 
+     * @throws UncheckedIOException if writing any of the files failed
+     */
+    void await() {
+        RuntimeException failure = null;
+        for (CompletableFuture<Void> write : writes.values()) {
+            try {
+                write.join();
+            } catch (CompletionException e) {
+                // wait for the other files anyway, so that none are written afterwards
+                if (failure == null) failure = e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        writes.clear();
+        if (failure != null) throw failure;
+    }
+}
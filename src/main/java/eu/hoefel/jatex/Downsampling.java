@@ -0,0 +1,248 @@
+package eu.hoefel.jatex;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Record for describing how to reduce the number of points of large 2D data
+ * series before they get plotted. Series with millions of points take pgfplots
+ * a long time to draw (or exceed the TeX memory), although most of the points
+ * end up in the same pixels. The x values are expected to be in order, as is
+ * typical for e.g. time series.
+ * 
+ * @param method    the method to select the points to keep
+ * @param maxPoints the maximum number of points to keep, or 0 to derive it from
+ *                  the width of the axis, see {@link #targetPoints(String)}
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see PgfPlots#downsampling(Downsampling)
+ */
+public record Downsampling(Method method, int maxPoints) {
+
+    /** The methods to select the points to keep. */
+    public enum Method {
+        /**
+         * Largest-triangle-three-buckets, i.e. keeps the point per bucket that spans
+         * the largest triangle with the points kept in the neighbouring buckets.
+         * This preserves the visual shape of the series well.
+         */
+        LTTB,
+
+        /**
+         * Keeps the points with the minimum and the maximum y value per bucket. This
+         * preserves all extrema, e.g. spikes in noisy data.
+         */
+        MIN_MAX;
+    }
+
+    /** The resolution assumed for deriving the number of points from the axis width. */
+    private static final double DOTS_PER_INCH = 300;
+
+    /** The default width of a pgfplots axis, in pt. */
+    private static final double DEFAULT_WIDTH_PT = 240;
+
+    /** The width assumed if the axis width cannot be converted to pt, e.g. for \textwidth. */
+    private static final double FALLBACK_WIDTH_PT = 6.5 * 72.27;
+
+    /** Matches widths given as number with a unit, e.g. "8cm". */
+    private static final Pattern WIDTH = Pattern.compile("\\s*(\\d*\\.?\\d+)\\s*(pt|bp|mm|cm|in)\\s*");
+
+    /**
+     * Creates a new downsampling description.
+     * 
+     * @param method    the method to select the points to keep, not {@code null}
+     * @param maxPoints the maximum number of points to keep (at least 4), or 0 to
+     *                  derive it from the width of the axis
+     * @throws IllegalArgumentException if maxPoints is neither 0 nor at least 4
+     */
+    public Downsampling {
+        Objects.requireNonNull(method);
+        if (maxPoints != 0 && maxPoints < 4) {
+            throw new IllegalArgumentException("At least 4 points need to be kept, but got " + maxPoints);
+        }
+    }
+
+    /**
+     * Downsampling via {@link Method#LTTB}, keeping as many points as there are
+     * pixels across the axis.
+     * 
+     * @return the downsampling description
+     */
+    public static Downsampling lttb() {
+        return new Downsampling(Method.LTTB, 0);
+    }
+
+    /**
+     * Downsampling via {@link Method#LTTB}.
+     * 
+     * @param maxPoints the maximum number of points to keep
+     * @return the downsampling description
+     */
+    public static Downsampling lttb(int maxPoints) {
+        return new Downsampling(Method.LTTB, maxPoints);
+    }
+
+    /**
+     * Downsampling via {@link Method#MIN_MAX}, keeping two points per pixel across
+     * the axis.
+     * 
+     * @return the downsampling description
+     */
+    public static Downsampling minMax() {
+        return new Downsampling(Method.MIN_MAX, 0);
+    }
+
+    /**
+     * Downsampling via {@link Method#MIN_MAX}.
+     * 
+     * @param maxPoints the maximum number of points to keep
+     * @return the downsampling description
+     */
+    public static Downsampling minMax(int maxPoints) {
+        return new Downsampling(Method.MIN_MAX, maxPoints);
+    }
+
+    /**
+     * Gets the number of points to keep. If no maximum number of points is given,
+     * it is derived from the width of the axis, assuming 300 dpi: {@link Method#LTTB}
+     * keeps one point per pixel and {@link Method#MIN_MAX} keeps two.
+     * 
+     * @param axisWidth the width of the axis, e.g. "8cm", or null for the pgfplots
+     *                  default of 240pt. Widths that cannot be converted, e.g.
+     *                  "\textwidth", are assumed to be 6.5in.
+     * @return the maximum number of points to keep
+     */
+    public int targetPoints(String axisWidth) {
+        if (maxPoints != 0) return maxPoints;
+
+        double widthInPt = FALLBACK_WIDTH_PT;
+        if (axisWidth == null) {
+            widthInPt = DEFAULT_WIDTH_PT;
+        } else {
+            Matcher m = WIDTH.matcher(axisWidth);
+            if (m.matches()) {
+                double value = Double.parseDouble(m.group(1));
+                widthInPt = switch (m.group(2)) {
+                    case "pt" -> value;
+                    case "bp" -> value * 72.27 / 72;
+                    case "mm" -> value * 72.27 / 25.4;
+                    case "cm" -> value * 72.27 / 2.54;
+                    case "in" -> value * 72.27;
+                    default -> throw new IllegalStateException("Unexpected unit: " + m.group(2));
+                };
+            }
+        }
+
+        int pixels = (int) Math.ceil(widthInPt / 72.27 * DOTS_PER_INCH);
+        return Math.max(4, method == Method.LTTB ? pixels : 2 * pixels);
+    }
+
+    /**
+     * Downsamples the given coordinates, if they are 2D, numeric and exceed the
+     * target number of points.
+     * 
+     * @param coordinates the coordinates
+     * @param axisWidth   the width of the axis, see {@link #targetPoints(String)}
+     * @return the downsampled coordinates, or the given coordinates if nothing
+     *         needs to be dropped
+     */
+    Coordinates apply(Coordinates coordinates, String axisWidth) {
+        int target = targetPoints(axisWidth);
+        if (coordinates.dimension() != 2 || coordinates.size() <= target || !coordinates.isNumeric()) {
+            return coordinates;
+        }
+
+        return coordinates.select(switch (method) {
+            case LTTB -> lttb(coordinates, target);
+            case MIN_MAX -> minMax(coordinates, target);
+        });
+    }
+
+    /**
+     * Selects the points to keep via largest-triangle-three-buckets. The first and
+     * the last point are always kept, the remaining points are split into buckets
+     * and from each bucket the point is kept that spans the largest triangle with
+     * the previously kept point and the average of the next bucket.
+     * 
+     * @param c      the coordinates
+     * @param target the number of points to keep, smaller than the number of
+     *               coordinates
+     * @return the indices of the points to keep, in ascending order
+     */
+    private static int[] lttb(Coordinates c, int target) {
+        int n = c.size();
+        int[] kept = new int[target];
+        double bucketSize = (double) (n - 2) / (target - 2);
+
+        int a = 0;
+        for (int bucket = 0; bucket < target - 2; bucket++) {
+            // the average of the next bucket (or the last point)
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += c.x(i);
+                avgY += c.y(i);
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double ax = c.x(a);
+            double ay = c.y(a);
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int i = start; i < end; i++) {
+                // twice the area, which is fine for comparing
+                double area = Math.abs((ax - avgX) * (c.y(i) - ay) - (ax - c.x(i)) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            kept[bucket + 1] = maxIndex;
+            a = maxIndex;
+        }
+        kept[target - 1] = n - 1;
+        return kept;
+    }
+
+    /**
+     * Selects the points to keep via the minimum and maximum y value per bucket.
+     * The first and the last point are always kept.
+     * 
+     * @param c      the coordinates
+     * @param target the maximum number of points to keep, smaller than the number
+     *               of coordinates
+     * @return the indices of the points to keep, in ascending order
+     */
+    private static int[] minMax(Coordinates c, int target) {
+        int n = c.size();
+        int buckets = (target - 2) / 2;
+        double bucketSize = (double) (n - 2) / buckets;
+
+        int[] kept = new int[2 * buckets + 2];
+        int k = 0;
+        kept[k++] = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = Math.min((int) ((bucket + 1) * bucketSize) + 1, n - 1);
+            int min = start;
+            int max = start;
+            for (int i = start + 1; i < end; i++) {
+                double y = c.y(i);
+                if (y < c.y(min)) min = i;
+                if (y > c.y(max)) max = i;
+            }
+            kept[k++] = Math.min(min, max);
+            if (min != max) kept[k++] = Math.max(min, max);
+        }
+        kept[k++] = n - 1;
+        return Arrays.copyOf(kept, k);
+    }
+}
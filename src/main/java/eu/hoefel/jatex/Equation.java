@@ -497,6 +497,13 @@ public final class Equation implements Texable {
 
     @Override
     public List<String> latexCode() {
+        List<String> ret = new ArrayList<>();
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    @Override
+    public void render(TexSink sink, int indentLevel) {
         // to make sure the user didn't put garbage in (starred environments where they
         // cannot exist)
         environment(env, isStarred);
@@ -507,17 +514,18 @@ public final class Equation implements Texable {
         }
         // ======
 
-        List<String> ret = new ArrayList<>();
         int n = 1;
         if (useSubequations && outermost) {
-            ret.add(Latex.indent(n) + "\\begin{subequations}"
-                    + (label != null ? "\\label{" + LABEL_NAMESPACE + label + "}" : ""));
+            sink.indent(indentLevel + n).append("\\begin{subequations}");
+            if (label != null) sink.append("\\label{").append(LABEL_NAMESPACE).append(label).append("}");
+            sink.endLine();
             n++;
         }
 
         if ((env.mathModeOnly() && !outermost) || outermost) {
-            ret.add(Latex.indent(n) + "\\begin{" + env.toString() + (isStarred ? "*" : "") + "}"
-                    + (env.hasEquationColumns() ? "{" + equationColumns + "}" : "") + "%");
+            sink.indent(indentLevel + n).append("\\begin{").append(env.toString()).append(isStarred ? "*" : "").append("}");
+            if (env.hasEquationColumns()) sink.append("{" + equationColumns + "}");
+            sink.append("%").endLine();
         }
 
         // ======
@@ -528,7 +536,7 @@ public final class Equation implements Texable {
             if (obj instanceof Equation) {
                 spaces.add(0);
             } else if (obj instanceof String s) {
-                spaces.add((Latex.indent(n + 1) + s).length());
+                spaces.add(Latex.indent(n + 1).length() + s.length());
             }
         }
         int correctLength = 0;
@@ -559,11 +567,9 @@ public final class Equation implements Texable {
                 packages.addAll(eq.neededPackages());
                 preambleExtras.addAll(eq.preambleExtras());
 
-                for (String line : eq.latexCode()) {
-                    ret.add(Latex.indent(n) + line);
-                }
+                eq.render(sink, indentLevel + n);
                 if (useLabel) {
-                    ret.add(Latex.indent(n + 1) + currLabel);
+                    sink.line(indentLevel + n + 1, currLabel);
                     labelIndex++;
                 }
             } else if (obj instanceof String s) {
@@ -573,20 +579,18 @@ public final class Equation implements Texable {
                     endLines.set(i, false);
                 }
 
-                ret.add(Latex.indent(n + 1) 
-                        + s
-                        + spaceCorrection.get(i)
-                        + (useLabel ? currLabel : "") 
-                        + (Boolean.TRUE.equals(endLines.get(i)) && i != input.size() - 1 ? "\\\\%" : ""));
+                sink.indent(indentLevel + n + 1).append(s).append(spaceCorrection.get(i));
+                if (useLabel) sink.append(currLabel);
+                if (Boolean.TRUE.equals(endLines.get(i)) && i != input.size() - 1) sink.append("\\\\%");
+                sink.endLine();
 
                 if (useLabel) labelIndex++;
             }
         }
 
         if ((env.mathModeOnly() && !outermost) || outermost) {
-            ret.add(Latex.indent(n) + "\\end{" + env.toString() + (isStarred ? "*" : "") + "}%");
+            sink.indent(indentLevel + n).append("\\end{").append(env.toString()).append(isStarred ? "*" : "").append("}%").endLine();
         }
-        if (useSubequations && outermost) ret.add(Latex.indent(n - 1) + "\\end{subequations}");
-        return ret;
+        if (useSubequations && outermost) sink.line(indentLevel + n - 1, "\\end{subequations}");
     }
 }
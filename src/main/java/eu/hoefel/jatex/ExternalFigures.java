@@ -0,0 +1,455 @@
+package eu.hoefel.jatex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Externalizes the tikzpictures of a saved LaTeX document without the tikz
+ * external library. Each tikzpicture is extracted into its own document, with
+ * the parts of the preamble a picture can depend on (the document class,
+ * packages, libraries, settings and definitions, but not e.g. the bibliography
+ * or the metadata of the PDF) and the preview package cropping the page to the
+ * picture, and these documents are compiled concurrently. The tikzpictures in the main
+ * document are then replaced by &#92;includegraphics of the results, so that
+ * the main document does not need to call the compiler for every picture.
+ * <p>
+ * The graphics are named after the hash of the compiler and the document of
+ * the tikzpicture, so pictures that did not change since a previous
+ * compilation (also of another document) are not compiled again. Files read
+ * by the tikzpicture, like the sidecar data files of plots, are considered by
+ * their content rather than by their path, so that the same figure gets the
+ * same name in every document. With a {@link FigureCache}, the graphics are
+ * additionally shared by all documents using the cache.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Latex#externalizeConcurrently(String, int)
+ */
+final class ExternalFigures {
+
+    private static final Logger logger = System.getLogger(ExternalFigures.class.getName());
+
+    private static final String BEGIN = "\\begin{tikzpicture}";
+    private static final String END = "\\end{tikzpicture}";
+    private static final String BEGIN_DOCUMENT = "\\begin{document}";
+
+    /** Matches the arguments in braces, which may be files read by the tikzpicture. */
+    private static final Pattern ARGUMENT = Pattern.compile("\\{([^{}]+)\\}");
+
+    /** Matches the preamble entries the tikzpictures may depend on. */
+    private static final Pattern PICTURE_PREAMBLE = Pattern.compile("^\\\\(?:documentclass|usepackage|RequirePackage"
+            + "|use(?:tikz|pgfplots|pgf|gd)library|pgfplotsset|tikzset|pgfkeys|sisetup|definecolor|colorlet"
+            + "|(?:re)?newcommand|providecommand|def|let|DeclareMathOperator|set(?:main|sans|mono|math)font|newfontfamily)\\b");
+
+    /** Matches the options of hyperref setting the metadata of the PDF. */
+    private static final Pattern PDF_METADATA = Pattern.compile("(?<=[\\[,])pdf(?:title|author|subject|keywords|creator|producer)=(?:\\{[^{}]*\\}|[^,\\]{}]*),?");
+
+    /** No instances needed. */
+    private ExternalFigures() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * A tikzpicture in the body of a document.
+     * 
+     * @param from   the index of the first line, possibly setting the file name
+     *               for the tikz external library
+     * @param begin  the index of the line beginning the tikzpicture
+     * @param end    the index of the line ending the tikzpicture
+     * @param name   the name of the graphic, i.e. the hash of its document
+     * @param source the document of the tikzpicture
+     * 
+     * @author Udo Hoefel
+     */
+    static record Picture(int from, int begin, int end, String name, String source) {}
+
+    /**
+     * Externalizes the tikzpictures of the given document.
+     * 
+     * @param tex         the saved document
+     * @param compiler    the compiler
+     * @param folder      the folder of the graphics
+     * @param parallelism the maximum number of pictures compiled at the same time
+     * @param cache       the cache shared with other documents, may be null
+     */
+    static void externalize(Path tex, TexCompiler compiler, Path folder, int parallelism, FigureCache cache) {
+        try {
+            Path document = tex.toAbsolutePath().getParent();
+            List<Picture> pictures;
+            try (Stream<String> lines = Files.lines(tex, StandardCharsets.UTF_8)) {
+                pictures = pictures(lines.iterator(), compiler, document);
+            }
+            if (pictures.isEmpty()) return;
+
+            // identical pictures need to be compiled only once
+            Map<String, Picture> missing = new LinkedHashMap<>();
+            for (Picture picture : pictures) {
+                if (!Files.isRegularFile(graphic(folder, picture, compiler))) missing.putIfAbsent(picture.name(), picture);
+            }
+            logger.log(Level.DEBUG, "Externalizing {0} of {1} tikzpictures", missing.size(), pictures.size());
+
+            List<String> failed = missing.isEmpty() ? List.of() : compile(missing.values(), compiler, document, folder, parallelism, cache);
+            replace(tex, pictures, folder, failed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the tikzpictures in the given document.
+     * 
+     * @param lines    the lines of the document
+     * @param compiler the compiler
+     * @param document the folder of the document, against which relative paths
+     *                 are resolved, may be null
+     * @return the tikzpictures that are not nested in other tikzpictures
+     */
+    static List<Picture> pictures(List<String> lines, TexCompiler compiler, Path document) {
+        return pictures(lines.iterator(), compiler, document);
+    }
+
+    /**
+     * Finds the tikzpictures in the given document. Only the preamble and the
+     * tikzpictures are kept in memory.
+     * 
+     * @param lines    the lines of the document
+     * @param compiler the compiler
+     * @param document the folder of the document, against which relative paths
+     *                 are resolved, may be null
+     * @return the tikzpictures that are not nested in other tikzpictures
+     */
+    private static List<Picture> pictures(Iterator<String> lines, TexCompiler compiler, Path document) {
+        List<String> head = new ArrayList<>();
+        int index = -1;
+        boolean inBody = false;
+        while (!inBody && lines.hasNext()) {
+            String line = lines.next();
+            index++;
+            if (line.strip().equals(BEGIN_DOCUMENT)) {
+                inBody = true;
+            } else {
+                head.add(line);
+            }
+        }
+        if (!inBody) return List.of();
+
+        StringBuilder preamble = picturePreamble(head);
+        preamble.append("\\usepackage[active,tightpage]{preview}").append(Latex.LINE_BREAK);
+        preamble.append("\\PreviewEnvironment{tikzpicture}").append(Latex.LINE_BREAK);
+        preamble.append(BEGIN_DOCUMENT).append(Latex.LINE_BREAK);
+
+        // files read by multiple pictures are hashed only once
+        Map<Path, String> hashes = new HashMap<>();
+        List<Picture> pictures = new ArrayList<>();
+        StringBuilder source = null;
+        String previous = null;
+        int depth = 0;
+        int from = -1;
+        int begin = -1;
+        while (lines.hasNext()) {
+            String line = lines.next();
+            index++;
+            String stripped = line.strip();
+            boolean opens = stripped.startsWith(BEGIN);
+            if (opens && depth++ == 0) {
+                begin = index;
+                boolean named = previous != null && previous.strip().startsWith("\\tikzsetnextfilename{");
+                from = named ? index - 1 : index;
+                source = new StringBuilder(preamble);
+            }
+            if (depth > 0) source.append(line).append(Latex.LINE_BREAK);
+            if (!opens && stripped.startsWith(END) && depth > 0 && --depth == 0) {
+                source.append("\\end{document}").append(Latex.LINE_BREAK);
+                String name = Compilation.sha256((compiler.name() + '\n' + withFileHashes(source, document, hashes)).getBytes(StandardCharsets.UTF_8)).substring(0, 32);
+                pictures.add(new Picture(from, begin, index, name, source.toString()));
+                source = null;
+            }
+            previous = line;
+        }
+        return pictures;
+    }
+
+    /**
+     * Gets the entries of the given preamble the tikzpictures may depend on, so
+     * that e.g. the title of the document does not change the names of the
+     * graphics. Entries spanning multiple lines are kept or dropped as a whole.
+     * 
+     * @param lines the lines of the preamble
+     * @return the preamble of the tikzpictures
+     */
+    private static StringBuilder picturePreamble(List<String> lines) {
+        StringBuilder preamble = new StringBuilder();
+        boolean keep = false;
+        int depth = 0;
+        for (String line : lines) {
+            String stripped = line.strip();
+            if (depth == 0) {
+                // the pictures should not get externalized again by the tikz external library
+                keep = PICTURE_PREAMBLE.matcher(stripped).find() && !stripped.startsWith("\\tikzset{external/");
+            }
+            depth = Math.max(0, depth + braceDepth(stripped));
+            if (!keep) continue;
+
+            String entry = line;
+            if (stripped.startsWith("\\usepackage[")) {
+                entry = PDF_METADATA.matcher(line).replaceAll("").replace(",]", "]").replace("[]", "");
+            }
+            preamble.append(entry).append(Latex.LINE_BREAK);
+        }
+        return preamble;
+    }
+
+    /**
+     * Gets the difference of opening and closing braces in the given line,
+     * ignoring escaped braces and comments.
+     * 
+     * @param line the line
+     * @return the number of braces left open, negative if more got closed
+     */
+    private static int braceDepth(String line) {
+        int depth = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '%') {
+                break;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Replaces the paths of existing files in the given document by the hash of
+     * their content, so that the hash of the document does not depend on where
+     * the files are, but still changes if they change.
+     * 
+     * @param source   the document
+     * @param document the folder of the document, against which relative paths
+     *                 are resolved, may be null
+     * @param hashes   the hashes of the files hashed so far, by file
+     * @return the document with the hashes of the files instead of their paths
+     */
+    private static String withFileHashes(CharSequence source, Path document, Map<Path, String> hashes) {
+        Matcher matcher = ARGUMENT.matcher(source);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            String argument = matcher.group(1).strip();
+            Path file;
+            if (argument.startsWith("/") || argument.matches("[A-Za-z]:/.*")) {
+                file = CompileCache.resolveGraphic(Path.of(argument));
+            } else {
+                file = document == null ? null : relativeFile(document, argument);
+            }
+            if (file == null) continue;
+
+            // the files might be huge data sets, so they are not read into memory
+            String hash = hashes.computeIfAbsent(file, CompileCache::sha256);
+            matcher.appendReplacement(sb, Matcher.quoteReplacement("{" + hash + "}"));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Resolves the given argument of a command against the folder of the
+     * document.
+     * 
+     * @param document the folder of the document
+     * @param argument the argument, possibly a relative path
+     * @return the existing file, or null if there is none
+     */
+    private static Path relativeFile(Path document, String argument) {
+        try {
+            return CompileCache.resolveGraphic(document.resolve(argument));
+        } catch (InvalidPathException e) {
+            // not a path at all
+            return null;
+        }
+    }
+
+    /**
+     * Gets the graphic of the given picture.
+     * 
+     * @param folder   the folder of the graphics
+     * @param picture  the picture
+     * @param compiler the compiler
+     * @return the graphic
+     */
+    private static Path graphic(Path folder, Picture picture, TexCompiler compiler) {
+        return folder.resolve(picture.name() + "." + compiler.outputExtension());
+    }
+
+    /**
+     * Compiles the given pictures concurrently, each in its own temporary
+     * folder, and moves the results to the folder of the graphics.
+     * 
+     * @param pictures    the pictures to compile
+     * @param compiler    the compiler
+     * @param document    the folder of the document
+     * @param folder      the folder of the graphics
+     * @param parallelism the maximum number of pictures compiled at the same time
+     * @param cache       the cache shared with other documents, may be null
+     * @return the names of the pictures that failed to compile
+     */
+    private static List<String> compile(Iterable<Picture> pictures, TexCompiler compiler, Path document, Path folder,
+            int parallelism, FigureCache cache) {
+        List<String> failed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            Map<Picture, Future<Boolean>> results = new LinkedHashMap<>();
+            for (Picture picture : pictures) {
+                Path graphic = graphic(folder, picture, compiler);
+                results.put(picture, executor.submit(() -> cache == null ? compile(picture, compiler, document, graphic)
+                        : cache.restore(picture.name(), compiler.outputExtension(), graphic, target -> compile(picture, compiler, document, target))));
+            }
+            for (var result : results.entrySet()) {
+                if (!Boolean.TRUE.equals(result.getValue().get())) failed.add(result.getKey().name());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * Compiles the given picture in a temporary folder and moves the result to
+     * the given graphic. The result is moved to a temporary file next to the
+     * graphic first, so that the graphic appears atomically even if it is on
+     * another file system.
+     * 
+     * @param picture  the picture to compile
+     * @param compiler the compiler
+     * @param document the folder of the document
+     * @param graphic  the graphic to create
+     * @return true if the picture got compiled
+     * @throws UncheckedIOException if reading or writing any of the files fails
+     */
+    private static boolean compile(Picture picture, TexCompiler compiler, Path document, Path graphic) {
+        try {
+            Path workspace = Files.createTempDirectory("jatex-tikz-");
+            try {
+                return compile(picture, compiler, document, workspace, graphic);
+            } finally {
+                try (Stream<Path> files = Files.walk(workspace)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compiles the given picture in the given workspace and moves the result to
+     * the given graphic.
+     * 
+     * @param picture   the picture to compile
+     * @param compiler  the compiler
+     * @param document  the folder of the document, against which relative paths
+     *                  are resolved
+     * @param workspace the temporary folder to compile in
+     * @param graphic   the graphic to create
+     * @return true if the picture got compiled
+     * @throws IOException if reading or writing any of the files fails
+     */
+    private static boolean compile(Picture picture, TexCompiler compiler, Path document, Path workspace, Path graphic) throws IOException {
+        Path tex = Files.writeString(workspace.resolve(picture.name() + ".tex"), picture.source(), StandardCharsets.UTF_8);
+        Compilation compilation = new Compilation(compiler, workspace.toString().replace("\\", "/") + "/",
+                tex.toString(), null, 1, false, false, false).inputFolder(document);
+        Path output;
+        if (compilation.run() != 0 || (output = compilation.output()) == null) {
+            logger.log(Level.WARNING, "Unable to externalize tikzpicture {0}, keeping it inline:{1}{2}", picture.name(),
+                    System.lineSeparator(), String.join(System.lineSeparator(), compilation.diagnostics()));
+            return false;
+        }
+
+        Files.createDirectories(graphic.getParent());
+        Path tmp = Files.createTempFile(graphic.getParent(), graphic.getFileName().toString(), ".tmp");
+        try {
+            Files.move(output, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, graphic, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the compiled tikzpictures in the given document by the graphics.
+     * The document is rewritten line by line to a temporary file, which replaces
+     * the document afterwards, so it is never held in memory as a whole.
+     * 
+     * @param tex      the document
+     * @param pictures the tikzpictures in the document
+     * @param folder   the folder of the graphics
+     * @param failed   the names of the pictures that failed to compile, which
+     *                 are kept as they are
+     * @throws IOException if rewriting the document fails
+     */
+    private static void replace(Path tex, List<Picture> pictures, Path folder, List<String> failed) throws IOException {
+        Iterator<Picture> remaining = pictures.stream().filter(picture -> !failed.contains(picture.name())).iterator();
+        Picture next = remaining.hasNext() ? remaining.next() : null;
+
+        Path tmp = Files.createTempFile(tex.toAbsolutePath().getParent(), tex.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(tex, StandardCharsets.UTF_8);
+                    BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                int index = 0;
+                for (String line; (line = reader.readLine()) != null; index++) {
+                    if (next == null || index < next.from()) {
+                        writer.write(line);
+                        writer.write(Latex.LINE_BREAK);
+                        continue;
+                    }
+
+                    if (index == next.begin()) {
+                        String indent = line.substring(0, line.length() - line.stripLeading().length());
+                        String graphic = folder.toAbsolutePath().resolve(next.name()).toString().replace("\\", "/");
+                        writer.write(indent + "\\includegraphics{" + graphic + "}" + (line.strip().endsWith("%") ? "%" : ""));
+                        writer.write(Latex.LINE_BREAK);
+                    }
+                    if (index == next.end()) next = remaining.hasNext() ? remaining.next() : null;
+                }
+            }
+            Files.move(tmp, tex, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -538,10 +538,17 @@ public final class Figure implements Texable {
     @Override
     public List<String> latexCode() {
         List<String> ret = new ArrayList<>();
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    @Override
+    public void render(TexSink sink, int indentLevel) {
         int n = 1;
         if (getIndentation() != null) {
             n = getIndentation();
         }
+        int outer = indentLevel + n;
 
         switch (mode) {
             case FIGURE -> {
@@ -550,19 +557,19 @@ public final class Figure implements Texable {
                     pos += "[" + getPosition() + "]";
                 }
                 if (isSubfigure()) {
-                    ret.add(Latex.indent(n) + "\\begin{subfigure}" + pos + "{" + getBreadth() + "}" + "%");
+                    sink.indent(outer).append("\\begin{subfigure}").append(pos).append("{").append(getBreadth()).append("}%").endLine();
                 } else {
-                    ret.add(Latex.indent(n) + "\\begin{figure}" + pos + "%");
+                    sink.indent(outer).append("\\begin{figure}").append(pos).append("%").endLine();
                 }
             }
             case WRAPFIGURE -> {
                 packages.add(new LatexPackage("wrapfig"));
-                ret.add(Latex.indent(n) + "\\begin{wrapfigure}{" + getPosition() + "}{" + getBreadth() + "}%");
+                sink.indent(outer).append("\\begin{wrapfigure}{").append(getPosition()).append("}{").append(getBreadth()).append("}%").endLine();
             }
         }
 
         if (isCentering()) {
-            ret.add(Latex.indent(n + 1) + "\\centering%");
+            sink.line(outer + 1, "\\centering%");
         }
 
         Figure[] subFigs = getSubfigures();
@@ -581,48 +588,37 @@ public final class Figure implements Texable {
                     subFigs[i].label(getLabel() + "-" + i);
                 }
 
-                ret.addAll(subFigs[i].latexCode());
+                subFigs[i].render(sink, indentLevel);
                 if (i != subFigs.length - 1 && i < postSubfigCodes.size()) {
-                    ret.add(Latex.indent(n + 1) + postSubfigCodes.get(i) + "%");
+                    sink.indent(outer + 1).append(postSubfigCodes.get(i)).append("%").endLine();
                 }
             }
         } else {
             switch (content) {
-                case INCLUDEGRAPHICS -> ret.add(Latex.indent(n + 1) + "\\includegraphics" + getSize() + "{" + getPath() + "}%");
+                case INCLUDEGRAPHICS -> sink.indent(outer + 1).append("\\includegraphics").append(getSize()).append("{").append(getPath()).append("}%").endLine();
                 case TIKZPICTURE -> {
                     packages.addAll(getTikz().neededPackages());
                     preambleExtras.addAll( getTikz().preambleExtras());
-                    List<String> code = getTikz().latexCode();
-                    if (code != null) {
-                        for (int i = 0; i < code.size(); i++) {
-                            if (i == 0 || i == code.size() - 1) {
-                                ret.add(Latex.indent(n + 1) + code.get(i) + "%");
-                            } else {
-                                ret.add(Latex.indent(n + 2) + code.get(i) + "%");
-                            }
-                        }
-                    }
+                    getTikz().render(sink, outer + 1, outer + 2, "%");
                 }
             }
         }
 
-        String fullCaption = Latex.indent(n + 1) + "\\caption";
-        if (!getCaptionShort().equals("")) {
-            fullCaption += "[" + getCaptionShort() + "]";
-        }
         if (!getCaption().equals("")) {
-            fullCaption += "{" + getCaption() + "}";
-            ret.add(fullCaption + "%");
+            sink.indent(outer + 1).append("\\caption");
+            if (!getCaptionShort().equals("")) {
+                sink.append("[").append(getCaptionShort()).append("]");
+            }
+            sink.append("{").append(getCaption()).append("}%").endLine();
         }
 
         if (getLabel() != null) {
-            ret.add(Latex.indent(n + 1) + "\\label{" + LABEL_NAMESPACE + getLabel() + "}%");
+            sink.indent(outer + 1).append("\\label{").append(LABEL_NAMESPACE).append(getLabel()).append("}%").endLine();
         }
 
         switch (mode) {
-            case FIGURE     -> ret.add(Latex.indent(n) + "\\end{" + (isSubfigure() ? "sub" : "") + "figure}%");
-            case WRAPFIGURE -> ret.add(Latex.indent(n) + "\\end{wrapfigure}%");
+            case FIGURE     -> sink.indent(outer).append("\\end{").append(isSubfigure() ? "sub" : "").append("figure}%").endLine();
+            case WRAPFIGURE -> sink.line(outer, "\\end{wrapfigure}%");
         }
-        return ret;
     }
 }
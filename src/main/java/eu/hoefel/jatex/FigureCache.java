@@ -0,0 +1,167 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+/**
+ * A persistent cache of externalized graphics, shared by all documents (and
+ * all JVMs on the host) using the same folder. The graphics are named after
+ * the hash of the compiler, the code of the tikzpicture including the preamble
+ * and the content of the files it reads, like the sidecar data files of
+ * {@link PgfPlots plots}, so that the same figure in different documents is
+ * compiled only once. Each graphic is compiled under a file lock, so that
+ * concurrent compilations of the same figure, also from other processes, wait
+ * for the first one instead of compiling it again. If the cached graphics
+ * exceed the maximum size, the least recently used ones are evicted.
+ * <p>
+ * The cached graphics are copied to the graphics folder of the documents, so
+ * evicting them never affects documents being compiled.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Latex#figureCache(FigureCache)
+ */
+public final class FigureCache {
+
+    private static final Logger logger = System.getLogger(FigureCache.class.getName());
+
+    /** The locks of the graphics being compiled in this JVM, by lock file, as file locks are held per JVM. */
+    private static final PathLocks LOCKS = new PathLocks();
+
+    private final CacheFolder graphics;
+
+    /**
+     * Creates a cache in the given folder.
+     * 
+     * @param folder   the folder to store the graphics in, e.g. a folder in the
+     *                 temporary directory to share the graphics between all
+     *                 users of the host
+     * @param maxBytes the maximum size of all cached graphics in bytes, at least
+     *                 0
+     */
+    public FigureCache(String folder, long maxBytes) {
+        this.graphics = new CacheFolder(Paths.get(folder).toAbsolutePath(), maxBytes);
+    }
+
+    /**
+     * Gets the number of graphics that were taken from the cache.
+     * 
+     * @return the number of cache hits
+     */
+    public long hits() {
+        return graphics.hits();
+    }
+
+    /**
+     * Gets the number of graphics that needed to be compiled.
+     * 
+     * @return the number of cache misses
+     */
+    public long misses() {
+        return graphics.misses();
+    }
+
+    /**
+     * Gets the size of all cached graphics.
+     * 
+     * @return the size in bytes
+     */
+    public long size() {
+        return graphics.size();
+    }
+
+    /** Removes all cached graphics. */
+    public void clear() {
+        graphics.clear();
+        graphics.deleteUnusedLocks(LOCKS);
+    }
+
+    /**
+     * Copies the cached graphic with the given key to the given file, compiling
+     * it first if it is not cached yet. Only one thread (of any process) compiles
+     * a graphic at a time; others wait and take the result from the cache.
+     * 
+     * @param key      the key of the graphic
+     * @param ext      the extension of the graphic
+     * @param target   the file to copy the graphic to
+     * @param populate compiles the graphic, moving it atomically to the file
+     *                 given to it, and returns whether that succeeded
+     * @return true if the graphic got copied, false if it could not be compiled
+     */
+    boolean restore(String key, String ext, Path target, Predicate<Path> populate) {
+        Path cached = graphics.file(key, ext);
+        if (copy(cached, target)) {
+            graphics.hit(cached);
+            return true;
+        }
+
+        Path lock = graphics.file(key, "lock");
+        LOCKS.lock(lock);
+        try {
+            Files.createDirectories(graphics.folder());
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released by closing the channel
+                channel.lock();
+
+                // compiled by another thread or process while waiting
+                if (copy(cached, target)) {
+                    graphics.hit(cached);
+                    return true;
+                }
+
+                graphics.miss();
+                if (!populate.test(cached) || !copy(cached, target)) return false;
+                logger.log(Level.DEBUG, "Cached graphic {0}", cached);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            LOCKS.unlock(lock);
+        }
+        graphics.evict();
+        graphics.deleteUnusedLocks(LOCKS);
+        return true;
+    }
+
+    /**
+     * Copies the given cached graphic to the given file. The graphic is copied
+     * to a temporary file first and moved afterwards, so that documents never
+     * include incomplete graphics.
+     * 
+     * @param cached the cached graphic
+     * @param target the file to copy to
+     * @return true if the graphic was cached
+     */
+    private static boolean copy(Path cached, Path target) {
+        if (!Files.isRegularFile(cached)) return false;
+
+        try {
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(cached, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // evicted concurrently
+                return false;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        logger.log(Level.DEBUG, "Reusing graphic {0}", cached);
+        return true;
+    }
+}
@@ -1,15 +1,19 @@
 package eu.hoefel.jatex;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -20,9 +24,14 @@ import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import eu.hoefel.jatex.Equation.EquationEnvironment;
@@ -42,7 +51,12 @@ public final class Latex {
     public static final String LABEL_NAMESPACE = "sec:";
 
     /** Indicates a line break. */
-    private static final String LINE_BREAK = "\n";
+    static final String LINE_BREAK = "\n";
+
+    /** The precomputed indentation strings for the most common levels. */
+    private static final String[] INDENTATIONS = IntStream.range(0, 16)
+                                                         .mapToObj(i -> " ".repeat(4 * i))
+                                                         .toArray(String[]::new);
 
     /**
      * This preamble entry represents an empty line (i.e., the command to write is
@@ -61,12 +75,13 @@ public final class Latex {
 
     private TexCompiler compiler = TexCompiler.LUALATEX;
 
-    private List<LatexPackage> requiredPackages = new ArrayList<>();
+    private final PackageRegistry requiredPackages = new PackageRegistry();
     private String documentclass;
     private NavigableMap<String, String> documentclassOptions = new TreeMap<>();
-    private List<LatexPackage> packages = new ArrayList<>();
-    private List<LatexPreambleEntry> preambleEntries = new ArrayList<>();
-    private List<String> body = new ArrayList<>();
+    private final PackageRegistry packages = new PackageRegistry();
+    private final PreambleRegistry preambleEntries = new PreambleRegistry();
+    /** the body lines, or texables and code that are only rendered when writing the document */
+    private List<Object> body = new ArrayList<>();
 
     private boolean clean;
 
@@ -78,15 +93,48 @@ public final class Latex {
     private String folder = "";
     private String name = null;
     private int numRepeat = 3;
-    private StringBuilder str = new StringBuilder();
+    private boolean adaptive;
+    private boolean draftPasses;
+    private CompileCache cache;
+    private String formatFolder;
+    private String externalFolder;
+    private int externalParallelism;
+    private FigureCache figureCache;
+
+    /** the files the document depends on besides the tex file and the bib file, like images */
+    private final List<String> inputs = new ArrayList<>();
     private boolean bibliography;
     private String bibfile = null;
     private List<String> envs = new ArrayList<>();
 
+    /** the rendered preamble including the start of the body, null if outdated */
+    private String renderedHead;
+
+    /** the last document rendered via toString(), null if outdated */
+    private String renderedDocument;
+
+    /** the number of body lines contained in the last rendered document */
+    private int renderedBodyLines;
+
+    /** the length of the last rendered document without the end of the document */
+    private int renderedBodyEnd;
+
+    /** the number of body entries checked for texables and deferred code */
+    private int checkedBodyLines;
+
+    /** true if the body holds texables or deferred code, which may render differently every time */
+    private boolean lazyBody;
+
     private boolean compilerSet = false;
     private boolean folderSet = false;
     private boolean nameSet = false;
     private boolean repeatSet = false;
+    private boolean adaptiveSet = false;
+    private boolean draftPassesSet = false;
+    private boolean cacheSet = false;
+    private boolean formatFolderSet = false;
+    private boolean externalFolderSet = false;
+    private boolean figureCacheSet = false;
     private boolean documentclassSet = false;
     private boolean cleanSet = false;
     private boolean colorSet = false;
@@ -144,6 +192,7 @@ public final class Latex {
      * @return n times the indentation string
      */
     public static final String indent(int n) {
+        if (n >= 0 && n < INDENTATIONS.length) return INDENTATIONS[n];
         return " ".repeat(4 * n);
     }
 
@@ -204,6 +253,7 @@ public final class Latex {
         tex.compiler(TexCompiler.LUALATEX);
         tex.folder(System.getProperty("user.dir") + "/LaTeX/");
         tex.repeat(3);
+        tex.adaptive(true);
 
         tex.colorScheme("red!31.372549019!black", "green!31.372549019!black");
         tex.leftFooter(null, "\\pagemark");
@@ -391,6 +441,7 @@ public final class Latex {
             colorScheme = new String[] { color1, color2 };
             colorSet = true;
         }
+        preambleChanged();
         return this;
     }
 
@@ -402,9 +453,20 @@ public final class Latex {
      * @return the file name to which the LaTeX document got saved
      */
     public String save(Level showPathLevel) {
-        Objects.requireNonNull(showPathLevel);
+        return save(folder, showPathLevel);
+    }
 
-        build();
+    /**
+     * Saves the LaTeX document to the given folder <em>without executing
+     * it</em>.
+     * 
+     * @param folder        the folder to save to, ending in "/"
+     * @param showPathLevel the logger level with which to log the file path, not
+     *                      {@code null}
+     * @return the file name to which the LaTeX document got saved
+     */
+    private String save(String folder, Level showPathLevel) {
+        Objects.requireNonNull(showPathLevel);
 
         String fileName = null;
         IOs.mkdir(folder);
@@ -425,7 +487,13 @@ public final class Latex {
                     + "Most likely a temporary file could not be generated.");
         }
 
-        IOs.writeToFile(new File(fileName), str.toString());
+        Path file = Paths.get(fileName).toAbsolutePath();
+        IOs.mkdir(file.getParent().toString());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer, file.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
         logger.log(showPathLevel, "File saved to: {0}", fileName);
         return fileName;
@@ -442,8 +510,99 @@ public final class Latex {
 
     @Override
     public String toString() {
-        build();
-        return str.toString();
+        sanityChecks();
+
+        int numBodyLines = body.size();
+        if (hasLazyBody()) {
+            // the state rendered by texables and deferred code may have changed
+            renderedDocument = null;
+        } else if (renderedDocument != null && renderedBodyLines == numBodyLines) {
+            return renderedDocument;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            int from = 0;
+            if (renderedDocument != null && renderedBodyLines > 0 && renderedBodyLines < numBodyLines) {
+                // only the body lines added since the last call need to be rendered
+                sb.append(renderedDocument, 0, renderedBodyEnd);
+                from = renderedBodyLines;
+            } else {
+                sb.append(head());
+            }
+            buildBody(sb, from, null);
+            renderedBodyEnd = sb.length();
+            createDocumentEnd(sb);
+        } catch (IOException e) {
+            // cannot happen for a StringBuilder
+            throw new UncheckedIOException(e);
+        }
+
+        String document = sb.toString();
+        if (!lazyBody) {
+            renderedDocument = document;
+            renderedBodyLines = numBodyLines;
+        }
+        return document;
+    }
+
+    /**
+     * Checks whether the body holds texables or deferred code, which render
+     * their current state, like the rows of a {@link StreamingTable} or the data
+     * of a plot, whenever the document is written. Documents with such a body
+     * cannot reuse the document rendered previously. As the body only grows,
+     * only the entries added since the last check need to be checked.
+     * 
+     * @return true if the body holds texables or deferred code
+     */
+    private boolean hasLazyBody() {
+        for (; !lazyBody && checkedBodyLines < body.size(); checkedBodyLines++) {
+            lazyBody = !(body.get(checkedBodyLines) instanceof String);
+        }
+        return lazyBody;
+    }
+
+    /**
+     * Writes the LaTeX document to the given sink. The preamble, each line of the
+     * body and the end of the document are appended one after another, i.e. the
+     * document is never assembled in memory as a whole. Note that the sink does
+     * not get flushed or closed. Sidecar data files of plots get written relative
+     * to the {@link #folder(String) folder} of the document.
+     * 
+     * @param out the sink to write the document to, not {@code null}
+     * @return the LaTeX object
+     * @throws UncheckedIOException if writing to the sink fails
+     */
+    public Latex writeTo(Appendable out) {
+        Objects.requireNonNull(out);
+        try {
+            write(out, Paths.get(folder));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the LaTeX document UTF-8 encoded to the given channel. The document
+     * gets encoded via a small, fixed-size buffer, i.e. the memory needed does not
+     * depend on the size of the document. The channel gets flushed, but not closed.
+     * 
+     * @param channel the channel to write the document to, not {@code null}
+     * @return the LaTeX object
+     * @throws UncheckedIOException if writing to the channel fails
+     */
+    public Latex writeTo(WritableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        // do not close the writer, as this would close the channel as well
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+        try {
+            write(writer, Paths.get(folder));
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
     }
 
     /** Prints the current state of the LaTeX document to the logger. */
@@ -518,6 +677,111 @@ public final class Latex {
      *         if an error occurred
      */
     public int exec() {
+        return compile(folder).exitCode();
+    }
+
+    /**
+     * Compiles the LaTeX document asynchronously. The document is saved (and its
+     * graphics externalized and its preamble dumped, if requested) by the given
+     * executor, while the compiler passes are chained via
+     * {@link Process#onExit()}, so no thread waits while the compiler is
+     * running. Cancelling the returned future kills the running compiler
+     * including all processes it started, and no further passes are started.
+     * The document must not be changed until the returned future completes.
+     * 
+     * @param executor the executor for saving the document and for the work
+     *                 between the compiler passes
+     * @return the result of the compilation
+     */
+    public CompletableFuture<CompileResult> execAsync(Executor executor) {
+        return compileAsync(folder, executor);
+    }
+
+    /**
+     * Compiles the LaTeX document in the given folder, which is used instead of
+     * the {@link #folder(String) folder} of the document for the tex file, the
+     * auxiliary files and the output. If the calling thread gets interrupted, the
+     * compilation is cancelled.
+     * 
+     * @param folder the folder to compile in, ending in "/"
+     * @return the result of the compilation
+     */
+    CompileResult compile(String folder) {
+        // the work between the passes is done by the calling thread
+        CallingThreadExecutor executor = new CallingThreadExecutor();
+        CompletableFuture<CompileResult> result = compileAsync(folder, executor);
+        try {
+            return executor.join(result);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Compiles the LaTeX document asynchronously in the given folder, which is
+     * used instead of the {@link #folder(String) folder} of the document for the
+     * tex file, the auxiliary files and the output.
+     * 
+     * @param folder   the folder to compile in, ending in "/"
+     * @param executor the executor for saving the document and for the work
+     *                 between the compiler passes
+     * @return the result of the compilation
+     * @see #execAsync(Executor)
+     */
+    CompletableFuture<CompileResult> compileAsync(String folder, Executor executor) {
+        Objects.requireNonNull(executor);
+        long start = System.nanoTime();
+        CompletableFuture<CompileResult> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> prepare(folder, start), executor)
+                .thenCompose(prepared -> {
+                    if (prepared.compilation() == null) return CompletableFuture.completedFuture(prepared.cached());
+
+                    Compilation compilation = prepared.compilation();
+                    result.whenComplete((r, e) -> {
+                        if (result.isCancelled()) compilation.cancel();
+                    });
+                    return compilation.runAsync(executor)
+                            .thenApplyAsync(errorCode -> finish(prepared, errorCode, start), executor);
+                })
+                .whenComplete((r, e) -> {
+                    if (e == null) {
+                        result.complete(r);
+                    } else {
+                        result.completeExceptionally(e instanceof CompletionException ce && ce.getCause() != null ? ce.getCause() : e);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * A document ready for compilation.
+     * 
+     * @param fileName    the file name of the saved document
+     * @param compilation the compilation, or null if the document got restored
+     *                    from the cache
+     * @param cacheKey    the key of the document in the cache, or null if no
+     *                    cache is used
+     * @param cached      the result of restoring the document from the cache, or
+     *                    null if it needs to be compiled
+     * 
+     * @author Udo Hoefel
+     */
+    private static record Prepared(String fileName, Compilation compilation, String cacheKey, CompileResult cached) {}
+
+    /**
+     * Saves the document in the given folder and prepares its compilation.
+     * 
+     * @param folder the folder to compile in, ending in "/"
+     * @param start  the start of the compilation, see {@link System#nanoTime()}
+     * @return the prepared compilation
+     */
+    private Prepared prepare(String folder, long start) {
         if (compiler == TexCompiler.LUALATEX) {
             if (!hasPackage("fontspec")) {
                 logger.log(Level.DEBUG, "You are using lualatex without the fontspec package. "
@@ -529,67 +793,73 @@ public final class Latex {
             }
         }
 
-        String fileName = save(Level.ALL);
-
-        int errorCode = 0;
-        for (int i = 0; i < numRepeat; i++) {
-            ProcessBuilder texpb = new ProcessBuilder(
-                    compiler.executableName(), 
-                    "--output-directory=" + folder, 
-                    "--enable-write18", 
-                    "--interaction=nonstopmode", 
-                    "-halt-on-error",
-                    fileName
-                    );
-
-            if (logger.isLoggable(Level.TRACE)) texpb.inheritIO();
+        String fileName = save(folder, Level.ALL);
 
-            try {
-                Process texp = texpb.start();
-                if (!logger.isLoggable(Level.TRACE)) {
-                    // make sure we don't have a fatal error in the stream and print if there was one
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(texp.getInputStream()))) {
-                        List<String> lines = br.lines().toList();
-                        for (String line : lines) {
-                            if (line != null && line.contains("Fatal error occurred")) {
-                                logger.log(Level.ERROR, lines.stream().filter(Objects::nonNull).collect(Collectors.joining(System.lineSeparator())));
-                                break;
-                            }
-                        }
-                    }
+        Path bibFile = null;
+        if (bibliography && bibfile != null) {
+            bibFile = Paths.get(this.folder).resolve(bibfile + ".bib");
+            if (!Files.isRegularFile(bibFile)) {
+                bibFile = Paths.get(bibfile + ".bib");
+            } else if (!folder.equals(this.folder)) {
+                // biber looks for the bib file in the output directory and the working directory
+                try {
+                    Path copy = Paths.get(folder).resolve(bibfile + ".bib");
+                    Files.createDirectories(copy.getParent());
+                    bibFile = Files.copy(bibFile, copy, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                errorCode = Math.max(errorCode, texp.waitFor());
-            } catch (IOException ioe) {
-                throw new IllegalStateException(ioe);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                throw new IllegalStateException(ie);
             }
+        }
 
-            if (bibliography && bibfile != null) {
-                String file = name;
-                if (name.endsWith(".tex")) file = file.substring(0, name.length() - 4);
-
-                ProcessBuilder bibpb = new ProcessBuilder("biber", "--output-directory=" + folder, file);
+        String cacheKey = null;
+        Path output = Paths.get(fileName.endsWith(".tex") ? fileName.substring(0, fileName.length() - 4) + "." + compiler.outputExtension()
+                                                          : fileName + "." + compiler.outputExtension());
+        if (cache != null) {
+            List<Path> files = new ArrayList<>();
+            if (bibFile != null) files.add(bibFile);
+            for (String input : inputs) {
+                files.add(Paths.get(input));
+            }
+            Path file = Paths.get(fileName).toAbsolutePath();
+            cacheKey = CompileCache.key(List.of(compiler.name(), Integer.toString(numRepeat), Boolean.toString(adaptive)),
+                    file, files, file.getParent());
+            if (cacheKey == null) {
+                logger.log(Level.DEBUG, "Not caching {0}, as some of its inputs do not exist", fileName);
+            } else if (cache.restore(cacheKey, compiler.outputExtension(), output)) {
+                return new Prepared(fileName, null, cacheKey, new CompileResult(output, 0, 0, List.of(), Duration.ofNanos(System.nanoTime() - start)));
+            }
+        }
 
-                if (logger.isLoggable(Level.TRACE)) bibpb.inheritIO();
+        // only after the cache lookup, as the key covers the document with its tikzpictures
+        if (externalFolder != null) {
+            ExternalFigures.externalize(Paths.get(fileName), compiler, Paths.get(this.folder).resolve(externalFolder), externalParallelism, figureCache);
+        }
 
-                try {
-                    Process bibp = bibpb.start();
-                    if (!logger.isLoggable(Level.TRACE)) {
-                        bibp.getInputStream().close();
-                        bibp.getErrorStream().close();
-                    }
-                    bibp.waitFor();
-                } catch (IOException ioe) {
-                    throw new IllegalStateException(ioe);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new IllegalStateException(ie);
-                }
+        Compilation compilation = new Compilation(compiler, folder, fileName, bibFile,
+                numRepeat, adaptive, isDraftPasses(), adaptive && (bibliography || Compilation.needsAuxiliaryPasses(body)));
+        if (cache != null) compilation.bibliographyCache(cache.files());
+        if (formatFolder != null) {
+            try {
+                compilation.format(PreambleFormats.of(compiler, head(), fileName, Paths.get(formatFolder)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
+        return new Prepared(fileName, compilation, cacheKey, null);
+    }
 
+    /**
+     * Cleans up after the given compilation and adds its result to the cache.
+     * 
+     * @param prepared  the compilation
+     * @param errorCode the error code of the compilation
+     * @param start     the start of the compilation, see {@link System#nanoTime()}
+     * @return the result of the compilation
+     */
+    private CompileResult finish(Prepared prepared, int errorCode, long start) {
+        String fileName = prepared.fileName();
+        Compilation compilation = prepared.compilation();
         if (clean) {
             String fileNameWithoutExt;
             if (fileName.endsWith(".tex")) {
@@ -611,7 +881,11 @@ public final class Latex {
                 }
             }
         }
-        return errorCode;
+        if (prepared.cacheKey() != null && errorCode == 0 && compilation.output() != null) {
+            cache.store(prepared.cacheKey(), compiler.outputExtension(), compilation.output());
+        }
+        return new CompileResult(compilation.output(), errorCode, compilation.passes(), compilation.diagnostics(),
+                Duration.ofNanos(System.nanoTime() - start));
     }
 
     /**
@@ -654,13 +928,51 @@ public final class Latex {
         return this;
     }
 
-    /** Builds the String to be written to the LaTeX document. */
-    private void build() {
+    /**
+     * Writes the LaTeX document to the given sink and waits until its sidecar
+     * files are complete.
+     * 
+     * @param out    the sink to write to
+     * @param folder the folder of the document, against which relative paths of
+     *               sidecar files are resolved
+     * @throws IOException if writing to the sink fails
+     */
+    private void write(Appendable out, Path folder) throws IOException {
         sanityChecks();
-        str = new StringBuilder();
-        buildPreamble();
-        buildBody();
-        createDocumentEnd();
+        DataFiles files = new DataFiles(folder);
+        out.append(head());
+        buildBody(out, 0, files);
+        createDocumentEnd(out);
+
+        // sidecar data files of plots might still be written in the background
+        files.await();
+    }
+
+    /**
+     * Gets the rendered preamble including the start of the body. The preamble
+     * gets only rendered if it changed since the last call.
+     * 
+     * @return the rendered preamble
+     * @throws IOException if writing the preamble fails
+     */
+    private String head() throws IOException {
+        if (renderedHead == null) {
+            StringBuilder sb = new StringBuilder();
+            buildPreamble(sb);
+            buildTitlepage(sb);
+            renderedHead = sb.toString();
+        }
+        return renderedHead;
+    }
+
+    /**
+     * Marks the preamble as changed, i.e. it (and the whole document) gets
+     * rendered anew on the next output. Needs to be called by all methods that
+     * change something that shows up in the preamble.
+     */
+    private void preambleChanged() {
+        renderedHead = null;
+        renderedDocument = null;
     }
 
     /** Does some sanity checks prior to building the tex file. */
@@ -676,8 +988,10 @@ public final class Latex {
         // class or a standard class extended with scrextend
         if (!List.of("scrbook", "scrreprt", "scrartcl").contains(getDocumentclass())) {
             if (List.of("article", "book", "report", "letter").contains(getDocumentclass())) {
-                usePackageWithOptions("scrextend", Map.of("extendedfeature", "title"));
-            } else {
+                LatexPackage scrextend = packages.get("scrextend");
+                boolean hasTitleFeature = scrextend != null && "title".equals(scrextend.options().get("extendedfeature"));
+                if (!hasTitleFeature) usePackageWithOptions("scrextend", Map.of("extendedfeature", "title"));
+            } else if (maketitle || !maketitleSet) {
                 maketitle(false);
             }
         }
@@ -691,6 +1005,7 @@ public final class Latex {
      */
     public Latex compiler(TexCompiler compiler) {
         this.compiler = compiler;
+        preambleChanged();
         return this;
     }
 
@@ -715,8 +1030,9 @@ public final class Latex {
      */
     public Latex usePackages(String... packages) {
         for (String pckg : packages) {
-            this.packages.add(new LatexPackage(pckg));
+            this.packages.add(new LatexPackage(pckg), false);
         }
+        preambleChanged();
         return this;
     }
 
@@ -727,8 +1043,10 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex removePackages(String... packages) {
-        List<String> packageNamesToBeRemoved = List.of(packages);
-        this.packages.removeIf(p -> packageNamesToBeRemoved.contains(p.name()));
+        for (String pckg : packages) {
+            this.packages.remove(pckg);
+        }
+        preambleChanged();
         return this;
     }
 
@@ -739,7 +1057,7 @@ public final class Latex {
      * @return the LaTeX object
      */
     private boolean hasPackage(String name) {
-        return packages.stream().anyMatch(p -> p.name().equals(name));
+        return packages.contains(name);
     }
 
     /**
@@ -749,14 +1067,15 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex usePackages(LatexPackage... packages) {
-        this.packages.addAll(List.of(packages));
-        LatexPackage.cleanup(this.packages);
+        this.packages.addAll(List.of(packages), false);
+        preambleChanged();
         return this;
     }
 
     /**
      * The number of times the compiler is called on the LaTeX document. By default
-     * 3.
+     * 3. In {@link #adaptive(boolean) adaptive} mode, this is the maximum number of
+     * compiler calls.
      * 
      * @param numRepeat the number of compiler calls
      * @return the LaTeX object
@@ -767,6 +1086,79 @@ public final class Latex {
         return this;
     }
 
+    /**
+     * If {@code true}, the compiler is only called as often as needed, with the
+     * number set via {@link #repeat(int)} as upper bound. A document without
+     * references, citations, lists of contents or longtables is compiled only
+     * once, unless the log asks for a rerun. Otherwise, the compiler is called
+     * until the auxiliary files (like {@code .aux}, {@code .toc} and
+     * {@code .bbl}) do not change anymore and the log does not ask for a rerun.
+     * By default {@code false}, i.e. the compiler is always called the number of
+     * times set via {@link #repeat(int)}.
+     * 
+     * @param adaptive {@code true} if the number of compiler calls should be
+     *                 determined adaptively
+     * @return the LaTeX object
+     */
+    public Latex adaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        adaptiveSet = true;
+        return this;
+    }
+
+    /**
+     * If {@code true}, all but the final compiler call skip writing the output
+     * (via {@code -draftmode} for pdflatex and lualatex and via {@code -no-pdf}
+     * for xetex), so that fonts and images are only embedded once. By default
+     * this follows {@link #adaptive(boolean)}.
+     * 
+     * @param draftPasses {@code true} if intermediate compiler calls should not
+     *                    write the output
+     * @return the LaTeX object
+     */
+    public Latex draftPasses(boolean draftPasses) {
+        this.draftPasses = draftPasses;
+        draftPassesSet = true;
+        return this;
+    }
+
+    /**
+     * Sets the cache for the compiled document. If the tex file, the bib file and
+     * the images of the figures did not change since a previous compilation with
+     * the same settings, the document is taken from the cache instead of
+     * compiling it again. The cache also keeps the results of biber, so that
+     * documents compiled in different folders, like the temporary workspaces of
+     * the {@link LatexBatchCompiler}, share them. By default no cache is used.
+     * 
+     * @param cache the cache, or null to not use a cache
+     * @return the LaTeX object
+     */
+    public Latex cache(CompileCache cache) {
+        this.cache = cache;
+        cacheSet = true;
+        return this;
+    }
+
+    /**
+     * Sets the folder for precompiled preambles. If set, the package loading part
+     * of the preamble gets dumped into a format file (via the mylatexformat
+     * package) on the first compilation, and subsequent compilations with the
+     * same preamble and compiler start from that format instead of loading the
+     * packages again. Packages that cannot be dumped, like fontspec or hyperref,
+     * and all packages after them are still loaded in every compilation, so the
+     * more packages come before them, the larger the gain. By default no
+     * preamble format is used.
+     * 
+     * @param folder the folder of the format files, or null to not use formats
+     * @return the LaTeX object
+     */
+    public Latex preambleFormat(String folder) {
+        this.formatFolder = folder;
+        formatFolderSet = true;
+        preambleChanged();
+        return this;
+    }
+
     /**
      * Adds options to a package.
      * 
@@ -775,7 +1167,8 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex usePackageWithOptions(String packageName, Map<String, String> options) {
-        packages.add(new LatexPackage(packageName, options));
+        packages.add(new LatexPackage(packageName, options), false);
+        preambleChanged();
         return this;
     }
 
@@ -787,7 +1180,8 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex usePackageWithOption(String packageName, String option) {
-        packages.add(new LatexPackage(packageName, option));
+        packages.add(new LatexPackage(packageName, option), false);
+        preambleChanged();
         return this;
     }
 
@@ -798,7 +1192,8 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex requirePackage(String packageName) {
-        requiredPackages.add(new LatexPackage(packageName));
+        requiredPackages.add(new LatexPackage(packageName), false);
+        preambleChanged();
         return this;
     }
 
@@ -822,7 +1217,8 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex requirePackageWithOptions(String packageName, Map<String, String> options) {
-        requiredPackages.add(new LatexPackage(packageName, options));
+        requiredPackages.add(new LatexPackage(packageName, options), false);
+        preambleChanged();
         return this;
     }
 
@@ -835,6 +1231,7 @@ public final class Latex {
     public Latex documentclass(String documentclass) {
         this.documentclass = documentclass;
         documentclassSet = true;
+        preambleChanged();
         return this;
     }
 
@@ -848,6 +1245,7 @@ public final class Latex {
     public Latex documentclassWithOptions(String documentclass, Map<String, String> options) {
         documentclass(documentclass);
         documentclassOptions.putAll(options);
+        preambleChanged();
         return this;
     }
 
@@ -861,6 +1259,7 @@ public final class Latex {
      */
     public Latex addToPreamble(String line) {
         if (line != null) preambleEntries.add(new LatexPreambleEntry(line, true));
+        preambleChanged();
         return this;
     }
 
@@ -872,6 +1271,7 @@ public final class Latex {
      */
     public Latex addToPreamble(LatexPreambleEntry... entries) {
         preambleEntries.addAll(List.of(entries));
+        preambleChanged();
         return this;
     }
 
@@ -886,7 +1286,8 @@ public final class Latex {
      * @return the LaTeX object
      */
     public Latex removeFromPreamble(String line) {
-        preambleEntries.removeIf(entry -> entry.cmd().equals(line));
+        preambleEntries.remove(line);
+        preambleChanged();
         return this;
     }
 
@@ -898,9 +1299,7 @@ public final class Latex {
      * @return the LaTeX object
      */
     private boolean hasPreambleEntry(String line) {
-        return line != null && preambleEntries.stream()
-                                                .map(LatexPreambleEntry::cmd)
-                                                .anyMatch(line::equals);
+        return line != null && preambleEntries.contains(line);
     }
 
     /**
@@ -914,9 +1313,14 @@ public final class Latex {
         return this;
     }
 
-    /** Ends the LaTeX document. */
-    private void createDocumentEnd() {
-        str.append("\\end{document}" + LINE_BREAK);
+    /**
+     * Ends the LaTeX document.
+     * 
+     * @param out the sink to write to
+     * @throws IOException if writing to the sink fails
+     */
+    private static void createDocumentEnd(Appendable out) throws IOException {
+        out.append("\\end{document}").append(LINE_BREAK);
     }
 
     /**
@@ -931,16 +1335,29 @@ public final class Latex {
         return sb;
     }
 
+    /**
+     * Appends the given strings to the specified sink.
+     * 
+     * @param out  the sink that gets appended to
+     * @param strs the strings to append
+     * @throws IOException if writing to the sink fails
+     */
+    private static final void append(Appendable out, String... strs) throws IOException {
+        for (String string : strs) out.append(string);
+    }
+
     /**
      * Creates the whole preamble of the LaTeX document, including documentclass,
      * package loading and user settings/defs.
+     * 
+     * @param out the sink to write to
+     * @throws IOException if writing to the sink fails
      */
-    private void buildPreamble() {
+    private void buildPreamble(Appendable out) throws IOException {
         StringBuilder requirePackage = append(new StringBuilder(), MAJOR_SEPARATOR.cmd(), LINE_BREAK);
         append(requirePackage, "% Required packages", LINE_BREAK, MAJOR_SEPARATOR.cmd(), LINE_BREAK);
 
-        requiredPackages = LatexPackage.cleanup(requiredPackages);
-        for (LatexPackage p : requiredPackages) {
+        for (LatexPackage p : requiredPackages.packages()) {
             requirePackage.append("\\RequirePackage");
             if (!p.options().isEmpty()) {
                 requirePackage.append(toOptions(p.options()));
@@ -958,70 +1375,87 @@ public final class Latex {
         StringBuilder packageImports = append(new StringBuilder(), MAJOR_SEPARATOR.cmd(), LINE_BREAK);
         append(packageImports, "% packages", LINE_BREAK, MAJOR_SEPARATOR.cmd(), LINE_BREAK);
 
-        packages = LatexPackage.cleanup(packages);
-        for (LatexPackage p : packages) {
+        // the preamble can only be dumped into a format if the documentclass is part of it
+        boolean endOfDump = formatFolder == null
+                || requiredPackages.packages().stream().map(LatexPackage::name).anyMatch(PreambleFormats.UNDUMPABLE_PACKAGES::contains);
+        for (LatexPackage p : packages.packages()) {
+            if (!endOfDump && PreambleFormats.UNDUMPABLE_PACKAGES.contains(p.name())) {
+                endOfDump = true;
+                append(packageImports, PreambleFormats.END_OF_DUMP, LINE_BREAK);
+            }
             packageImports.append("\\usepackage");
             if (!p.options().isEmpty()) {
                 packageImports.append(toOptions(p.options()));
             }
             append(packageImports, "{", p.name(), "}", LINE_BREAK);
         }
+        if (!endOfDump) append(packageImports, PreambleFormats.END_OF_DUMP, LINE_BREAK);
         append(packageImports, MAJOR_SEPARATOR.cmd(), LINE_BREAK.repeat(2));
 
-        append(str, "% !TEX program = ", compiler.toString().toLowerCase(), LINE_BREAK);
-        if (bibliography) append(str, "% !BIB program = biber", LINE_BREAK);
-        append(str, "% !TEX encoding = UTF-8 Unicode", LINE_BREAK.repeat(2));
+        append(out, "% !TEX program = ", compiler.toString().toLowerCase(), LINE_BREAK);
+        if (bibliography) append(out, "% !BIB program = biber", LINE_BREAK);
+        append(out, "% !TEX encoding = UTF-8 Unicode", LINE_BREAK.repeat(2));
 
-        if (!requiredPackages.isEmpty()) str.append(requirePackage.toString());
-        str.append(documentclassLine.toString());
-        if (!packages.isEmpty()) str.append(packageImports.toString());
-        if (!preambleEntries.isEmpty()) str.append(buildUserSettingsAndDefs());
+        if (!requiredPackages.isEmpty()) out.append(requirePackage.toString());
+        out.append(documentclassLine.toString());
+        if (!packages.isEmpty() || !endOfDump) out.append(packageImports.toString());
+        if (!preambleEntries.isEmpty()) buildUserSettingsAndDefs(out);
 
         if (maketitle) {
             // titlepage
-            append(str, MAJOR_SEPARATOR.cmd(), "% titlepage", LINE_BREAK, MAJOR_SEPARATOR.cmd(), LINE_BREAK);
-            if (titlehead != null)      append(str,"\\titlehead{", titlehead, "}", LINE_BREAK);
-            if (subject != null)        append(str, "\\subject{", subject, "}", LINE_BREAK);
-            if (title != null)          append(str, "\\title{\\color{", getColor1(), "}", title, "}", LINE_BREAK);
-            if (subtitle != null)       append(str, "\\subtitle{\\color{", getColor1(), "}", subtitle, "}", LINE_BREAK);
-            if (author != null)         append(str, "\\author{", author, "}", LINE_BREAK);
-            if (date != null)           append(str, "\\date{", date, "}", LINE_BREAK);
-            if (publisher != null)      append(str, "\\publishers{", publisher, "}", LINE_BREAK);
-            if (extratitle != null)     append(str, "\\extratitle{", extratitle, "}", LINE_BREAK);
-            if (uppertitleback != null) append(str, "\\uppertitleback{", uppertitleback, "}", LINE_BREAK);
-            if (lowertitleback != null) append(str, "\\lowertitleback{", lowertitleback, "}", LINE_BREAK);
-            if (dedication != null)     append(str, "\\dedication{", dedication, "}", LINE_BREAK);
-            append(str, MAJOR_SEPARATOR.cmd(), LINE_BREAK.repeat(2));
+            append(out, MAJOR_SEPARATOR.cmd(), "% titlepage", LINE_BREAK, MAJOR_SEPARATOR.cmd(), LINE_BREAK);
+            if (titlehead != null)      append(out,"\\titlehead{", titlehead, "}", LINE_BREAK);
+            if (subject != null)        append(out, "\\subject{", subject, "}", LINE_BREAK);
+            if (title != null)          append(out, "\\title{\\color{", getColor1(), "}", title, "}", LINE_BREAK);
+            if (subtitle != null)       append(out, "\\subtitle{\\color{", getColor1(), "}", subtitle, "}", LINE_BREAK);
+            if (author != null)         append(out, "\\author{", author, "}", LINE_BREAK);
+            if (date != null)           append(out, "\\date{", date, "}", LINE_BREAK);
+            if (publisher != null)      append(out, "\\publishers{", publisher, "}", LINE_BREAK);
+            if (extratitle != null)     append(out, "\\extratitle{", extratitle, "}", LINE_BREAK);
+            if (uppertitleback != null) append(out, "\\uppertitleback{", uppertitleback, "}", LINE_BREAK);
+            if (lowertitleback != null) append(out, "\\lowertitleback{", lowertitleback, "}", LINE_BREAK);
+            if (dedication != null)     append(out, "\\dedication{", dedication, "}", LINE_BREAK);
+            append(out, MAJOR_SEPARATOR.cmd(), LINE_BREAK.repeat(2));
         }
-        append(str, "\\begin{document}", LINE_BREAK);
+        append(out, "\\begin{document}", LINE_BREAK);
     }
 
     /**
      * Builds the part of the preamble that handles the non-LaTeX-standard
      * settings/definitions.
      * 
-     * @return the user settings/definitions
+     * @param out the sink to write to
+     * @throws IOException if writing to the sink fails
      */
-    private String buildUserSettingsAndDefs() {
-        addDefaultPreambleEntries();
-        LatexPreambleEntry.cleanup(preambleEntries);
+    private void buildUserSettingsAndDefs(Appendable out) throws IOException {
+        // work on a copy, so that rendering the preamble multiple times does not
+        // accumulate the defaults and separators
+        List<String> lines = new ArrayList<>();
+        for (LatexPreambleEntry entry : defaultPreambleEntries()) {
+            lines.add(entry.preambleLine());
+        }
+        lines.addAll(preambleEntries.lines());
 
         // these come at the very end
-        preambleEntries.add(MAJOR_SEPARATOR);
-        preambleEntries.add(EMPTY_LINE);
+        lines.add(MAJOR_SEPARATOR.preambleLine());
+        lines.add(EMPTY_LINE.preambleLine());
 
-        // we have another empty line here, as the building of the return stream below
-        // collects the preamble entries via a joining collector, i.e. the last preamble
-        // entry does not get a linebreak at the end
-        preambleEntries.add(EMPTY_LINE);
+        // we have another empty line here, as the entries below get separated by
+        // linebreaks, i.e. the last preamble entry does not get a linebreak at the end
+        lines.add(EMPTY_LINE.preambleLine());
 
-        return preambleEntries.stream()
-                                .map(LatexPreambleEntry::preambleLine)
-                                .collect(Collectors.joining(LINE_BREAK));
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) out.append(LINE_BREAK);
+            out.append(lines.get(i));
+        }
     }
 
-    /** Prepends default settings to the preamble entries. */
-    private void addDefaultPreambleEntries() {
+    /**
+     * Gets the default settings that precede the user given preamble entries.
+     * 
+     * @return the default preamble entries
+     */
+    private List<LatexPreambleEntry> defaultPreambleEntries() {
         List<LatexPreambleEntry> nspe = new ArrayList<>();
 
         // this adds the settings/user def info above
@@ -1030,7 +1464,7 @@ public final class Latex {
         nspe.add(MAJOR_SEPARATOR);
 
         // put bib file at the very top
-        boolean addBibResource = packages.stream().anyMatch(p -> p.name().equals("biblatex")) && bibfile != null;
+        boolean addBibResource = packages.contains("biblatex") && bibfile != null;
         if (addBibResource) {
             nspe.add(new LatexPreambleEntry("\\addbibresource", Map.of(bibfile + ".bib", ""), false));
             nspe.add(EMPTY_LINE);
@@ -1038,16 +1472,16 @@ public final class Latex {
 
         // tikz/pgf imports come pretty much at the top
         boolean tikzLibraryLoaded = false;
-        if (preambleEntries.stream().map(LatexPreambleEntry::cmd).anyMatch("usegdlibrary"::equals)) {
+        if (preambleEntries.contains("usegdlibrary")) {
             tikzLibraryLoaded = nspe.add(new LatexPreambleEntry("usegdlibrary", false));
         }
-        if (preambleEntries.stream().map(LatexPreambleEntry::cmd).anyMatch("usepgfplotslibrary"::equals)) {
+        if (preambleEntries.contains("usepgfplotslibrary")) {
             tikzLibraryLoaded = nspe.add(new LatexPreambleEntry("usepgfplotslibrary", false));
         }
-        if (preambleEntries.stream().map(LatexPreambleEntry::cmd).anyMatch("usepgflibrary"::equals)) {
+        if (preambleEntries.contains("usepgflibrary")) {
             tikzLibraryLoaded = nspe.add(new LatexPreambleEntry("usepgflibrary", false));
         }
-        if (preambleEntries.stream().map(LatexPreambleEntry::cmd).anyMatch("usetikzlibrary"::equals)) {
+        if (preambleEntries.contains("usetikzlibrary")) {
             tikzLibraryLoaded = nspe.add(new LatexPreambleEntry("usetikzlibrary", false));
         }
         if (tikzLibraryLoaded) {
@@ -1151,7 +1585,7 @@ public final class Latex {
             }
         }
 
-        preambleEntries.addAll(0, nspe);
+        return nspe;
     }
 
     /**
@@ -1257,56 +1691,92 @@ public final class Latex {
     }
 
     /**
-     * Escapes LaTeX chars.
+     * Escapes LaTeX chars. Only the ASCII characters with a special meaning in
+     * LaTeX get escaped, see {@link TexEscaper}.
      * 
      * @param input the String
      * @return the String with escaped chars
      */
     public static final String escapeAllChars(String input) {
-        return input.replace("\\", "\\textbackslash ")
-                    .replace("#", "\\#")
-                    .replace("$", "\\$")
-                    .replace("%", "\\%")
-                    .replace("_", "\\_")
-                    .replace("&", "\\&")
-                    .replace("{", "\\{")
-                    .replace("}", "\\}")
-                    .replace("~", "\\textasciitilde ")
-                    .replace("^", "\\textasciicircum ");
+        return escapeAllChars(input, TexCompiler.LUALATEX);
+    }
+
+    /**
+     * Escapes LaTeX chars as needed for the given compiler, see
+     * {@link TexEscaper}.
+     * 
+     * @param input    the String
+     * @param compiler the compiler the String is meant for
+     * @return the String with escaped chars
+     */
+    public static final String escapeAllChars(String input, TexCompiler compiler) {
+        return TexEscaper.of(compiler).escape(input);
     }
 
     /**
      * Escapes LaTeX chars if no inline math mode is detected. This could be made
-     * more fancy, but should work pretty well in most cases.
+     * more fancy, but should work pretty well in most cases. Only the ASCII
+     * characters with a special meaning in LaTeX get escaped, see
+     * {@link TexEscaper}.
      * 
      * @param input the String
      * @return the String with escaped chars
      */
     public static final String escapeChars(String input) {
-        // we try to figure out if we are in (inline) math mode
-        StringBuilder ret = new StringBuilder();
-        boolean mathmodeActive = false;
-        for (int i = 0; i < input.length(); i++) {
-            char str = input.charAt(i);
-            if (mathmodeActive) {
-                ret.append(str);
-                if (str == '$') mathmodeActive ^= true;
-            } else {
-                if (str == '$') mathmodeActive ^= true;
-                ret.append(mathmodeActive ? str : escapeAllChars(Character.toString(str)));
-            }
-        }
-        return ret.toString();
+        return escapeChars(input, TexCompiler.LUALATEX);
+    }
+
+    /**
+     * Escapes LaTeX chars as needed for the given compiler if no inline math mode
+     * is detected, see {@link TexEscaper}.
+     * 
+     * @param input    the String
+     * @param compiler the compiler the String is meant for
+     * @return the String with escaped chars
+     */
+    public static final String escapeChars(String input, TexCompiler compiler) {
+        return TexEscaper.of(compiler).escapeOutsideMath(input);
     }
 
-    /** Creates the body of the LaTeX document. */
-    private void buildBody() {
+    /**
+     * Creates the title page commands at the start of the body of the LaTeX
+     * document.
+     * 
+     * @param out the sink to write to
+     * @throws IOException if writing to the sink fails
+     */
+    private void buildTitlepage(Appendable out) throws IOException {
         if (hasPackage("scrlayer-scrpage") && maketitle) {
-            append(str, indent(1), "\\pagestyle{empty}", LINE_BREAK);
-            append(str, indent(1), "\\maketitle[-1]", LINE_BREAK);
-            append(str, indent(1), "\\pagestyle{scrheadings}", LINE_BREAK.repeat(2));
+            append(out, indent(1), "\\pagestyle{empty}", LINE_BREAK);
+            append(out, indent(1), "\\maketitle[-1]", LINE_BREAK);
+            append(out, indent(1), "\\pagestyle{scrheadings}", LINE_BREAK.repeat(2));
+        }
+    }
+
+    /**
+     * Creates the body of the LaTeX document.
+     * 
+     * @param out    the sink to write to
+     * @param from   the index of the first body line to write
+     * @param files  the sidecar files of the document, or null if it does not get
+     *               saved
+     * @throws IOException if writing to the sink fails
+     */
+    private void buildBody(Appendable out, int from, DataFiles files) throws IOException {
+        // an empty body still gets its linebreak
+        if (body.isEmpty()) out.append(LINE_BREAK);
+        for (int i = from; i < body.size(); i++) {
+            if (files == null && body.get(i) instanceof StreamingTable table) {
+                // rows that can be taken only once are left for saving the document
+                table.preview(new AppendableTexSink(out), 0);
+            } else if (body.get(i) instanceof Texable tex) {
+                tex.render(new AppendableTexSink(out, files), 0);
+            } else if (body.get(i) instanceof ListTexSink.Deferred deferred) {
+                deferred.code().accept(new AppendableTexSink(out, files));
+            } else {
+                out.append((String) body.get(i)).append(LINE_BREAK);
+            }
         }
-        str.append(String.join(LINE_BREAK, body) + LINE_BREAK);
     }
 
     /**
@@ -1322,6 +1792,12 @@ public final class Latex {
             if (tex.folderSet) folder(tex.getFolder());
             if (tex.nameSet) filename(tex.getFilename());
             if (tex.repeatSet) repeat(tex.getRepeat());
+            if (tex.adaptiveSet) adaptive(tex.isAdaptive());
+            if (tex.draftPassesSet) draftPasses(tex.draftPasses);
+            if (tex.cacheSet) cache(tex.getCache());
+            if (tex.formatFolderSet) preambleFormat(tex.getPreambleFormat());
+            if (tex.externalFolderSet) externalizeConcurrently(tex.externalFolder, tex.externalParallelism);
+            if (tex.figureCacheSet) figureCache(tex.getFigureCache());
             if (tex.cleanSet) clean(tex.clean, tex.exts.toArray(String[]::new));
             if (tex.colorSet) colorScheme(tex.getColor1(), tex.getColor2());
             if (tex.headerSet) {
@@ -1349,21 +1825,20 @@ public final class Latex {
             if (tex.bibliographySet) bib(tex.bibliography);
             if (tex.bibfileSet) bibfile(tex.bibfile);
 
-            requiredPackages.addAll(tex.packages());
+            requiredPackages.addAll(tex.packages(), false);
 
             if (tex.documentclassSet) {
                 documentclass(tex.getDocumentclass());
             }
 
             documentclassOptions.putAll(tex.documentclassOptions());
-            packages.addAll(tex.packages());
-            preambleEntries.addAll(LatexPreambleEntry.cleanup(tex.preambleEntries));
+            packages.addAll(tex.packages(), false);
+            preambleEntries.addAll(tex.preambleEntries.entries());
             body.addAll(tex.body);
+            inputs.addAll(tex.inputs);
         }
 
-        LatexPackage.cleanup(requiredPackages);
-        LatexPackage.cleanup(packages);
-        LatexPreambleEntry.cleanup(preambleEntries);
+        preambleChanged();
         return this;
     }
 
@@ -1382,7 +1857,7 @@ public final class Latex {
      * @return the packages
      */
     private List<LatexPackage> packages() {
-        return List.copyOf(LatexPackage.cleanup(packages));
+        return packages.packages();
     }
 
     /**
@@ -1421,6 +1896,56 @@ public final class Latex {
         return numRepeat;
     }
 
+    /**
+     * Checks whether the number of compiler calls is determined adaptively.
+     * 
+     * @return true if the number of compiler calls is determined adaptively
+     * @see #adaptive(boolean)
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Checks whether intermediate compiler calls skip writing the output.
+     * 
+     * @return true if intermediate compiler calls do not write the output
+     * @see #draftPasses(boolean)
+     */
+    public boolean isDraftPasses() {
+        return draftPassesSet ? draftPasses : adaptive;
+    }
+
+    /**
+     * Gets the cache for the compiled document.
+     * 
+     * @return the cache, or null if no cache is used
+     * @see #cache(CompileCache)
+     */
+    public CompileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Gets the cache for the externalized graphics.
+     * 
+     * @return the cache, or null if no cache is used
+     * @see #figureCache(FigureCache)
+     */
+    public FigureCache getFigureCache() {
+        return figureCache;
+    }
+
+    /**
+     * Gets the folder for precompiled preambles.
+     * 
+     * @return the folder, or null if no preamble format is used
+     * @see #preambleFormat(String)
+     */
+    public String getPreambleFormat() {
+        return formatFolder;
+    }
+
     /**
      * Gets the current documentclass.
      * 
@@ -1473,23 +1998,40 @@ public final class Latex {
      */
     public Latex add(Texable... texable) {
         for (Texable tex : texable) {
-            // we start with the code to make sure all packages are loaded
-            body.addAll(tex.latexCode());
+            if (tex instanceof Figure fig) addInputs(fig);
+
+            if (tex.isRenderedLazily()) {
+                body.add(tex);
+            } else {
+                // we start with the code to make sure all packages are loaded,
+                // while large data sets are only generated when writing the document
+                tex.render(ListTexSink.deferring(body), 0);
+            }
 
-            packages.addAll(tex.neededPackages());
+            // options of packages requested earlier take precedence
+            packages.addAll(tex.neededPackages(), true);
             preambleEntries.addAll(tex.preambleExtras());
         }
-        requiredPackages = LatexPackage.cleanup(requiredPackages, true);
-        packages = LatexPackage.cleanup(packages, true);
 
-        List<LatexPackage> allPackagesToLoad = new ArrayList<>(packages);
-        allPackagesToLoad.addAll(requiredPackages);
-        LatexPackage.checkForIncompatiblePackages(requiredPackages);
-
-        preambleEntries = LatexPreambleEntry.cleanup(preambleEntries);
+        preambleChanged();
         return this;
     }
 
+    /**
+     * Adds the images of the given figure and its subfigures to the files the
+     * document depends on.
+     * 
+     * @param fig the figure
+     */
+    private void addInputs(Figure fig) {
+        if (fig.getPath() != null && !fig.getPath().isBlank()) inputs.add(fig.getPath());
+        if (fig.getSubfigures() != null) {
+            for (Figure subfig : fig.getSubfigures()) {
+                addInputs(subfig);
+            }
+        }
+    }
+
     /**
      * Adds the given tikzlibraries.
      * 
@@ -1584,6 +2126,61 @@ public final class Latex {
         return this;
     }
 
+    /**
+     * Externalizes the tikz/pgf graphics without the tikz external library. On
+     * execution, every tikzpicture gets compiled as a document of its own, with
+     * the same preamble, and up to {@code parallelism} of these documents are
+     * compiled at the same time. The main document then includes the resulting
+     * graphics instead of the tikzpictures. The graphics are named after the hash
+     * of their documents, so unchanged tikzpictures are only compiled once, also
+     * across documents using the same folder. In contrast to
+     * {@link #externalize(String)}, this requires neither shell escape nor one
+     * compiler call per graphic from within the main document.
+     * 
+     * @param folder      the folder to save the created graphics to, relative to
+     *                    the {@link #folder(String) folder} of the document if not
+     *                    absolute, or null to not externalize concurrently
+     * @param parallelism the maximum number of graphics compiled at the same time
+     * @return the LaTeX object
+     */
+    public Latex externalizeConcurrently(String folder, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1, but got " + parallelism);
+        this.externalFolder = folder;
+        this.externalParallelism = parallelism;
+        externalFolderSet = true;
+        return this;
+    }
+
+    /**
+     * Externalizes the tikz/pgf graphics without the tikz external library, with
+     * as many graphics compiled at the same time as there are processors.
+     * 
+     * @param folder the folder to save the created graphics to, relative to the
+     *               {@link #folder(String) folder} of the document if not
+     *               absolute, or null to not externalize concurrently
+     * @return the LaTeX object
+     * @see #externalizeConcurrently(String, int)
+     */
+    public Latex externalizeConcurrently(String folder) {
+        return externalizeConcurrently(folder, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Sets the cache for the graphics externalized via
+     * {@link #externalizeConcurrently(String, int)}. Tikzpictures (including
+     * plots) that were compiled already for any document using the same cache
+     * are then copied from the cache instead of compiling them again. By default
+     * no cache is used.
+     * 
+     * @param figureCache the cache, or null to not use a cache
+     * @return the LaTeX object
+     */
+    public Latex figureCache(FigureCache figureCache) {
+        this.figureCache = figureCache;
+        figureCacheSet = true;
+        return this;
+    }
+
     /**
      * Use the automatic externalization of tikz/pgf graphics, and save the
      * corresponding files in a default folder.
@@ -1608,6 +2205,21 @@ public final class Latex {
         return plotData(PgfPlots.of(data, legend, options), caption);
     }
 
+    /**
+     * Plots the given data, with 2D data getting downsampled.
+     * 
+     * @param              <T> the data type
+     * @param caption      the caption of the plot
+     * @param data         the data to plot
+     * @param legend       the legend corresponding to the data
+     * @param options      the options for the plot (not the axis environment!)
+     * @param downsampling the downsampling, or null to keep all points
+     * @return the LaTeX object
+     */
+    public <T> Latex plotData(String caption, T data, String legend, Map<String, String> options, Downsampling downsampling) {
+        return plotData(PgfPlots.of(data, legend, options, downsampling), caption);
+    }
+
     /**
      * Adds the given Plot.
      * 
@@ -1689,6 +2301,7 @@ public final class Latex {
         }
         this.bibliography = bibliography;
         bibliographySet = true;
+        preambleChanged();
         return this;
     }
 
@@ -1816,6 +2429,7 @@ public final class Latex {
     public Latex maketitle(boolean maketitle) {
         this.maketitle = maketitle;
         maketitleSet = true;
+        preambleChanged();
         return this;
     }
 
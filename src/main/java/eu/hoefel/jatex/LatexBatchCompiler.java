@@ -0,0 +1,337 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many LaTeX documents concurrently. Each document gets compiled in
+ * its own temporary workspace, so that documents sharing a
+ * {@link Latex#folder(String) folder} do not overwrite each other's auxiliary
+ * files or delete them via {@link Latex#clean(boolean, String...)} while
+ * another document still needs them. After the compilation, the generated
+ * document is moved to the folder of the LaTeX document, i.e. to the same
+ * place {@link Latex#exec()} would have put it, and the workspace gets
+ * deleted.
+ * <p>
+ * The number of documents compiled at the same time is bounded overall (see
+ * {@link #parallelism(int)}) and optionally per compiler (see
+ * {@link #limit(TexCompiler, int)}). Documents waiting for a compiler that
+ * reached its limit do not block documents using other compilers.
+ * <p>
+ * Example usage:
+ * 
+ * <pre>
+ * try (LatexBatchCompiler compiler = new LatexBatchCompiler().parallelism(8).limit(TexCompiler.LUALATEX, 4)) {
+ *     compiler.compile(documents).forEach(job -&gt; System.out.println(job.result().pdf()));
+ * }
+ * </pre>
+ * 
+ * @author Udo Hoefel
+ */
+public final class LatexBatchCompiler implements AutoCloseable {
+
+    private static final Logger logger = System.getLogger(LatexBatchCompiler.class.getName());
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private final Map<TexCompiler, Integer> limits = new EnumMap<>(TexCompiler.class);
+    private Path workspace;
+    private boolean keepWorkspaces;
+
+    /** The waiting documents, by compiler. */
+    private final Map<TexCompiler, Deque<Pending>> queued = new EnumMap<>(TexCompiler.class);
+
+    /** The number of documents being compiled, by compiler. */
+    private final Map<TexCompiler, Integer> running = new EnumMap<>(TexCompiler.class);
+
+    private int runningTotal;
+    private boolean closed;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /** The threads compiling, created on first use. */
+    private ExecutorService executor;
+
+    /**
+     * A compiled LaTeX document.
+     * 
+     * @param tex    the LaTeX document
+     * @param result the result of the compilation
+     * 
+     * @author Udo Hoefel
+     */
+    public static record Job(Latex tex, CompileResult result) {}
+
+    /**
+     * A document waiting to be compiled.
+     * 
+     * @param order  the order of submission
+     * @param tex    the LaTeX document
+     * @param future the future to complete with the result
+     * 
+     * @author Udo Hoefel
+     */
+    private static record Pending(long order, Latex tex, CompletableFuture<Job> future) {}
+
+    /**
+     * Constructor that uses the defaults, i.e. as many concurrent compilations as
+     * there are processors, no limits per compiler and workspaces in the
+     * temporary-file directory that get deleted after the compilation.
+     */
+    public LatexBatchCompiler() {
+        // everything else is configured via the setters
+    }
+
+    /**
+     * Sets the maximum number of documents compiled at the same time. By default
+     * the number of available processors.
+     * 
+     * @param parallelism the maximum number of concurrent compilations, at least 1
+     * @return the batch compiler
+     */
+    public synchronized LatexBatchCompiler parallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1, but got " + parallelism);
+        this.parallelism = parallelism;
+        dispatch();
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of documents compiled at the same time with the
+     * given compiler. By default only the {@link #parallelism(int) overall limit}
+     * applies.
+     * 
+     * @param compiler the compiler
+     * @param limit    the maximum number of concurrent compilations with the
+     *                 compiler, at least 1
+     * @return the batch compiler
+     */
+    public synchronized LatexBatchCompiler limit(TexCompiler compiler, int limit) {
+        Objects.requireNonNull(compiler);
+        if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1, but got " + limit);
+        limits.put(compiler, limit);
+        dispatch();
+        return this;
+    }
+
+    /**
+     * Sets the folder in which the temporary workspaces get created. By default
+     * the temporary-file directory of the system.
+     * 
+     * @param folder the folder for the workspaces, or null for the default
+     * @return the batch compiler
+     */
+    public synchronized LatexBatchCompiler workspace(String folder) {
+        workspace = folder == null ? null : Paths.get(folder);
+        return this;
+    }
+
+    /**
+     * If {@code true}, the workspaces are kept after the compilation, e.g. to
+     * inspect the log files. By default {@code false}.
+     * 
+     * @param keepWorkspaces {@code true} if the workspaces should be kept
+     * @return the batch compiler
+     */
+    public synchronized LatexBatchCompiler keepWorkspaces(boolean keepWorkspaces) {
+        this.keepWorkspaces = keepWorkspaces;
+        return this;
+    }
+
+    /**
+     * Submits the given document for compilation. The document must not be
+     * changed until the compilation completed. Failures (like a missing
+     * compiler) do not complete the future exceptionally, but result in an exit
+     * code of -1, with the failure as diagnostic. Only errors, like an
+     * {@link OutOfMemoryError}, complete the future exceptionally.
+     * 
+     * @param tex the LaTeX document
+     * @return the future completing once the document is compiled
+     */
+    public CompletableFuture<Job> submit(Latex tex) {
+        Objects.requireNonNull(tex);
+        CompletableFuture<Job> future = new CompletableFuture<>();
+        Pending pending = new Pending(submitted.getAndIncrement(), tex, future);
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("The batch compiler is closed");
+            queued.computeIfAbsent(tex.getCompiler(), c -> new ArrayDeque<>()).add(pending);
+            dispatch();
+        }
+        return future;
+    }
+
+    /**
+     * Compiles the given documents.
+     * 
+     * @param texs the LaTeX documents
+     * @return the compiled documents, in the order in which they complete,
+     *         including the ones whose compilation failed with an error or got
+     *         cancelled, with an exit code of -1
+     * @see #submit(Latex)
+     */
+    public Stream<Job> compile(Collection<Latex> texs) {
+        List<Latex> documents = List.copyOf(texs);
+        BlockingQueue<Job> completed = new LinkedBlockingQueue<>();
+        for (Latex tex : documents) {
+            // every document needs to be taken from the queue, even if its compilation failed
+            submit(tex).whenComplete((job, e) -> completed.add(e == null ? job : failed(tex, e)));
+        }
+
+        return IntStream.range(0, documents.size()).mapToObj(i -> {
+            try {
+                return completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Creates the job of a document whose compilation completed exceptionally.
+     * 
+     * @param tex the LaTeX document
+     * @param e   the cause of the failure
+     * @return the job with an exit code of -1
+     */
+    private static Job failed(Latex tex, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return new Job(tex, new CompileResult(null, -1, 0, List.of(cause.toString()), Duration.ZERO));
+    }
+
+    /**
+     * Starts compiling waiting documents, in the order of their submission, as
+     * long as neither the overall limit nor the limits of their compilers are
+     * reached.
+     */
+    private synchronized void dispatch() {
+        while (runningTotal < parallelism) {
+            Deque<Pending> next = queued.entrySet().stream()
+                    .filter(e -> !e.getValue().isEmpty())
+                    .filter(e -> running.getOrDefault(e.getKey(), 0) < limits.getOrDefault(e.getKey(), Integer.MAX_VALUE))
+                    .map(Map.Entry::getValue)
+                    .min(Comparator.comparingLong(queue -> queue.peek().order()))
+                    .orElse(null);
+            if (next == null) return;
+
+            Pending pending = next.poll();
+            TexCompiler compiler = pending.tex().getCompiler();
+            running.merge(compiler, 1, Integer::sum);
+            runningTotal++;
+
+            if (executor == null) {
+                executor = Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "jatex-batch-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            executor.execute(() -> {
+                try {
+                    pending.future().complete(new Job(pending.tex(), compileInWorkspace(pending.tex())));
+                } catch (Throwable e) {
+                    // otherwise the future would never complete
+                    pending.future().completeExceptionally(e);
+                    throw e;
+                } finally {
+                    finished(compiler);
+                }
+            });
+        }
+    }
+
+    /**
+     * Frees the slot of a completed compilation.
+     * 
+     * @param compiler the compiler used for the completed compilation
+     */
+    private synchronized void finished(TexCompiler compiler) {
+        running.merge(compiler, -1, Integer::sum);
+        runningTotal--;
+        dispatch();
+        shutdownIfIdle();
+    }
+
+    /** Stops the threads if the batch compiler is closed and all documents are compiled. */
+    private synchronized void shutdownIfIdle() {
+        if (closed && runningTotal == 0 && executor != null) executor.shutdown();
+    }
+
+    /**
+     * Compiles the given document in a temporary workspace and moves the
+     * generated document to the folder of the LaTeX document.
+     * 
+     * @param tex the LaTeX document
+     * @return the result of the compilation
+     */
+    private CompileResult compileInWorkspace(Latex tex) {
+        long start = System.nanoTime();
+        Path dir = null;
+        try {
+            dir = workspace == null ? Files.createTempDirectory("jatex-") : Files.createTempDirectory(Files.createDirectories(workspace), "jatex-");
+            CompileResult result = tex.compile(dir.toString().replace("\\", "/") + "/");
+
+            Path pdf = result.pdf();
+            if (pdf != null) {
+                Path target = Paths.get(tex.getFolder()).resolve(pdf.getFileName());
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                pdf = Files.move(pdf, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new CompileResult(pdf, result.exitCode(), result.passes(), result.diagnostics(), result.duration());
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.ERROR, "Compiling the document failed", e);
+            return new CompileResult(null, -1, 0, List.of(e.toString()), Duration.ofNanos(System.nanoTime() - start));
+        } finally {
+            if (dir != null && !keepWorkspaces) delete(dir);
+        }
+    }
+
+    /**
+     * Deletes the given folder with all its content.
+     * 
+     * @param dir the folder to delete
+     */
+    private static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.log(Level.WARNING, () -> "Unable to delete workspace %s, %s".formatted(dir, e.getMessage()));
+        }
+    }
+
+    /**
+     * Stops accepting new documents. Documents already submitted still get
+     * compiled.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        shutdownIfIdle();
+    }
+}
@@ -133,13 +133,7 @@ public record LatexPackage(String name, Map<String, String> options, Map<String,
         for (LatexPackage pckg : packages) {
             for (LatexPackage p : packages) {
                 if (pckg.incompatiblePackages().containsKey(p.name())) {
-                    logger.log(Level.WARNING, () -> String.format(Locale.ENGLISH,
-                            "Probably incompatible packages found. "
-                                    + "You used these classes: %s, which need the %s package, "
-                                    + "which is (probably) incompatible with the %s package "
-                                    + "that is used in your main document. I'll try to continue, "
-                                    + "but this may very well break.",
-                            pckg.incompatiblePackages().get(p.name()), p.name(), pckg.name()));
+                    warnIncompatible(pckg.incompatiblePackages().get(p.name()), p.name(), pckg.name());
                     probablyIncompatible = true;
                 }
             }
@@ -147,6 +141,24 @@ public record LatexPackage(String name, Map<String, String> options, Map<String,
         return probablyIncompatible;
     }
 
+    /**
+     * Warns about probably incompatible packages.
+     * 
+     * @param classes             the classes that need the incompatible package
+     * @param incompatiblePackage the name of the incompatible package
+     * @param pckg                the name of the package that is incompatible
+     *                            with it
+     */
+    static final void warnIncompatible(Set<Class<?>> classes, String incompatiblePackage, String pckg) {
+        logger.log(Level.WARNING, () -> String.format(Locale.ENGLISH,
+                "Probably incompatible packages found. "
+                        + "You used these classes: %s, which need the %s package, "
+                        + "which is (probably) incompatible with the %s package "
+                        + "that is used in your main document. I'll try to continue, "
+                        + "but this may very well break.",
+                classes, incompatiblePackage, pckg));
+    }
+
     /**
      * Cleans up the package list by merging duplicates. Override previously set
      * options.
@@ -2,12 +2,10 @@ package eu.hoefel.jatex;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.function.Consumer;
 
 /**
  * Record for describing a LaTeX preamble entry that may or may not be
@@ -131,35 +129,8 @@ public record LatexPreambleEntry(String cmd, Map<String, String> options, boolea
      * @return the list of preamble entries with no non-standalone duplicates.
      */
     public static final List<LatexPreambleEntry> cleanup(List<LatexPreambleEntry> entries) {
-        List<LatexPreambleEntry> cleanedEntries = new ArrayList<>();
-        for (LatexPreambleEntry entry : entries) {
-            if (entry.standalone()) {
-                cleanedEntries.add(entry);
-            } else {
-                // go through all entries and try to find one that matches and is not standalone
-                cleanedEntries.stream()
-                              .filter(e -> e.cmd().equals(entry.cmd()) && !e.standalone())
-                              .findFirst()
-                              .ifPresentOrElse(updateEntry(cleanedEntries, entry), () -> cleanedEntries.add(entry));
-            }
-        }
-        return cleanedEntries;
-    }
-
-    /**
-     * Updates the specified entry in the list of entries.
-     * 
-     * @param entries         the list of entries
-     * @param additionalEntry the entry to update
-     * @return the consumer that updates the specified package in given list of
-     *         packages
-     */
-    private static final Consumer<LatexPreambleEntry> updateEntry(List<LatexPreambleEntry> entries, LatexPreambleEntry additionalEntry) {
-        return e -> {
-            Map<String, String> m = new HashMap<>();
-            m.putAll(e.options());
-            m.putAll(additionalEntry.options());
-            entries.set(entries.indexOf(e), new LatexPreambleEntry(e.cmd(), Map.copyOf(m), e.standalone()));
-        };
+        PreambleRegistry cleanedEntries = new PreambleRegistry();
+        cleanedEntries.addAll(entries);
+        return new ArrayList<>(cleanedEntries.entries());
     }
 }
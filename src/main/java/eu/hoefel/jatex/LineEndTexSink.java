@@ -0,0 +1,98 @@
+package eu.hoefel.jatex;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Sink that appends a fixed string to every line before passing it on to
+ * another sink, e.g. a "%" to suppress spurious whitespace.
+ * 
+ * @author Udo Hoefel
+ */
+final class LineEndTexSink implements TexSink {
+
+    private final TexSink sink;
+    private final String lineEnd;
+
+    /**
+     * Constructor.
+     * 
+     * @param sink    the sink to pass the lines on to, not {@code null}
+     * @param lineEnd the string to append to every line, not {@code null}
+     */
+    LineEndTexSink(TexSink sink, String lineEnd) {
+        this.sink = Objects.requireNonNull(sink);
+        this.lineEnd = Objects.requireNonNull(lineEnd);
+    }
+
+    @Override
+    public TexSink indent(int level) {
+        sink.indent(level);
+        return this;
+    }
+
+    @Override
+    public TexSink append(CharSequence code) {
+        sink.append(code);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value) {
+        sink.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value) {
+        sink.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(long value) {
+        sink.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value, CoordinateFormat format) {
+        sink.append(value, format);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value, CoordinateFormat format) {
+        sink.append(value, format);
+        return this;
+    }
+
+    @Override
+    public TexSink append(char c) {
+        sink.append(c);
+        return this;
+    }
+
+    @Override
+    public TexSink endLine() {
+        sink.append(lineEnd).endLine();
+        return this;
+    }
+
+    @Override
+    public Path folder() {
+        return sink.folder();
+    }
+
+    @Override
+    public boolean sidecar(Path file, Consumer<TexSink> content) {
+        return sink.sidecar(file, content);
+    }
+
+    @Override
+    public TexSink defer(Consumer<TexSink> code) {
+        sink.defer(s -> code.accept(new LineEndTexSink(s, lineEnd)));
+        return this;
+    }
+}
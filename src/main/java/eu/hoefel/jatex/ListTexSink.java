@@ -0,0 +1,128 @@
+package eu.hoefel.jatex;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Sink that collects the lines of LaTeX code in a list.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see TexSink#of(List)
+ */
+final class ListTexSink implements TexSink {
+
+    private final List<? super String> lines;
+    private final StringBuilder line = new StringBuilder();
+
+    /** The list to add the deferred code to, or null to generate it immediately. */
+    private final List<Object> deferred;
+
+    /**
+     * Code whose lines get generated only when writing, see
+     * {@link TexSink#defer(Consumer)}.
+     * 
+     * @param code writes the lines to the sink given to it
+     * 
+     * @author Udo Hoefel
+     */
+    static record Deferred(Consumer<TexSink> code) {}
+
+    /**
+     * Constructor.
+     * 
+     * @param lines the list to add the lines to, not {@code null}
+     */
+    ListTexSink(List<? super String> lines) {
+        this.lines = Objects.requireNonNull(lines);
+        this.deferred = null;
+    }
+
+    /**
+     * Constructor for a sink that adds deferred code as {@link Deferred} to the
+     * list instead of generating its lines.
+     * 
+     * @param lines the list to add the lines and the deferred code to, not
+     *              {@code null}
+     * @return the sink
+     */
+    static ListTexSink deferring(List<Object> lines) {
+        return new ListTexSink(lines, lines);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param lines    the list to add the lines to, not {@code null}
+     * @param deferred the list to add the deferred code to, or null to generate
+     *                 it immediately
+     */
+    private ListTexSink(List<? super String> lines, List<Object> deferred) {
+        this.lines = Objects.requireNonNull(lines);
+        this.deferred = deferred;
+    }
+
+    @Override
+    public TexSink indent(int level) {
+        line.append(Latex.indent(level));
+        return this;
+    }
+
+    @Override
+    public TexSink append(CharSequence code) {
+        line.append(code);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(long value) {
+        line.append(value);
+        return this;
+    }
+
+    @Override
+    public TexSink append(double value, CoordinateFormat format) {
+        format.format(value, line);
+        return this;
+    }
+
+    @Override
+    public TexSink append(float value, CoordinateFormat format) {
+        format.format(value, line);
+        return this;
+    }
+
+    @Override
+    public TexSink append(char c) {
+        line.append(c);
+        return this;
+    }
+
+    @Override
+    public TexSink endLine() {
+        lines.add(line.toString());
+        line.setLength(0);
+        return this;
+    }
+
+    @Override
+    public TexSink defer(Consumer<TexSink> code) {
+        if (deferred == null) return TexSink.super.defer(code);
+
+        deferred.add(new Deferred(Objects.requireNonNull(code)));
+        return this;
+    }
+}
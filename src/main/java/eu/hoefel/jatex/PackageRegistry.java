@@ -0,0 +1,201 @@
+package eu.hoefel.jatex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps the packages to be loaded, with the options of multiple occurrences of
+ * the same package merged on insertion. In contrast to collecting the packages
+ * in a list and calling {@link LatexPackage#cleanup(List, boolean)}, adding a
+ * package only costs time proportional to its own options and
+ * incompatibilities, not to the number of packages already registered.
+ * Incompatible packages are detected on insertion via an index of the
+ * packages the registered packages are incompatible with.
+ * 
+ * @author Udo Hoefel
+ */
+final class PackageRegistry {
+
+    /** The packages in the order of their first occurrence, by name. */
+    private final Map<String, Entry> packages = new LinkedHashMap<>();
+
+    /** The names of the registered packages that are incompatible with a package, by its name. */
+    private final Map<String, Set<String>> incompatibleWith = new HashMap<>();
+
+    /** The registered packages, null if outdated. */
+    private List<LatexPackage> snapshot;
+
+    /**
+     * The merged information of all occurrences of a package.
+     * 
+     * @author Udo Hoefel
+     */
+    private static final class Entry {
+        private final String name;
+        private final Map<String, String> options = new HashMap<>();
+        private final Map<String, Set<Class<?>>> incompatiblePackages = new HashMap<>();
+
+        /** The merged package, null if outdated. */
+        private LatexPackage merged;
+
+        /**
+         * Constructor.
+         * 
+         * @param name the name of the package
+         */
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the merged package.
+         * 
+         * @return the package
+         */
+        private LatexPackage merged() {
+            if (merged == null) merged = new LatexPackage(name, options, incompatiblePackages);
+            return merged;
+        }
+    }
+
+    /**
+     * Adds the given package, merging its options with the ones of previous
+     * occurrences of the same package.
+     * 
+     * @param pckg           the package to add
+     * @param firstDominates if true, do not override options from previous
+     *                       occurrences of the same package, but append where
+     *                       possible. If false, override previously set options.
+     * @return true if probably incompatible packages have been found
+     * @see LatexPackage#cleanup(List, boolean)
+     */
+    boolean add(LatexPackage pckg, boolean firstDominates) {
+        Objects.requireNonNull(pckg);
+        boolean probablyIncompatible = false;
+
+        Entry entry = packages.get(pckg.name());
+        if (entry == null) {
+            entry = new Entry(pckg.name());
+            packages.put(pckg.name(), entry);
+            snapshot = null;
+
+            // check the packages already registered that are incompatible with the new one
+            for (String other : incompatibleWith.getOrDefault(pckg.name(), Set.of())) {
+                LatexPackage.warnIncompatible(packages.get(other).incompatiblePackages.get(pckg.name()), pckg.name(), other);
+                probablyIncompatible = true;
+            }
+        }
+
+        boolean changed = false;
+        for (var option : pckg.options().entrySet()) {
+            String previous = firstDominates
+                    ? entry.options.putIfAbsent(option.getKey(), option.getValue())
+                    : entry.options.put(option.getKey(), option.getValue());
+            changed |= previous == null || (!firstDominates && !previous.equals(option.getValue()));
+        }
+
+        for (var ip : pckg.incompatiblePackages().entrySet()) {
+            Set<Class<?>> classes = entry.incompatiblePackages.computeIfAbsent(ip.getKey(), s -> new HashSet<>());
+            changed |= classes.addAll(ip.getValue());
+            if (incompatibleWith.computeIfAbsent(ip.getKey(), s -> new HashSet<>()).add(entry.name)
+                    && packages.containsKey(ip.getKey())) {
+                LatexPackage.warnIncompatible(classes, ip.getKey(), entry.name);
+                probablyIncompatible = true;
+            }
+        }
+
+        if (changed) {
+            entry.merged = null;
+            snapshot = null;
+        }
+        return probablyIncompatible;
+    }
+
+    /**
+     * Adds the given packages.
+     * 
+     * @param pckgs          the packages to add
+     * @param firstDominates if true, do not override options from previous
+     *                       occurrences of the same package, but append where
+     *                       possible. If false, override previously set options.
+     * @return true if probably incompatible packages have been found
+     * @see #add(LatexPackage, boolean)
+     */
+    boolean addAll(Collection<LatexPackage> pckgs, boolean firstDominates) {
+        boolean probablyIncompatible = false;
+        for (LatexPackage pckg : pckgs) {
+            probablyIncompatible |= add(pckg, firstDominates);
+        }
+        return probablyIncompatible;
+    }
+
+    /**
+     * Removes the given package and all its options.
+     * 
+     * @param name the name of the package
+     */
+    void remove(String name) {
+        Entry entry = packages.remove(name);
+        if (entry == null) return;
+
+        for (String ip : entry.incompatiblePackages.keySet()) {
+            Set<String> names = incompatibleWith.get(ip);
+            names.remove(name);
+            if (names.isEmpty()) incompatibleWith.remove(ip);
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Checks whether the given package is registered.
+     * 
+     * @param name the name of the package
+     * @return true if the package is registered
+     */
+    boolean contains(String name) {
+        return packages.containsKey(name);
+    }
+
+    /**
+     * Gets the given package, with the options of all its occurrences merged.
+     * 
+     * @param name the name of the package
+     * @return the package, or null if the package is not registered
+     */
+    LatexPackage get(String name) {
+        Entry entry = packages.get(name);
+        return entry == null ? null : entry.merged();
+    }
+
+    /**
+     * Checks whether there are no packages registered.
+     * 
+     * @return true if there are no packages
+     */
+    boolean isEmpty() {
+        return packages.isEmpty();
+    }
+
+    /**
+     * Gets the registered packages, in the order of their first occurrence.
+     * 
+     * @return the packages, unmodifiable
+     */
+    List<LatexPackage> packages() {
+        if (snapshot == null) {
+            List<LatexPackage> ret = new ArrayList<>(packages.size());
+            for (Entry entry : packages.values()) {
+                ret.add(entry.merged());
+            }
+            snapshot = List.copyOf(ret);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,94 @@
+package eu.hoefel.jatex;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks of the threads of this JVM, by file. The locks are counted by their
+ * users, so that the lock of a file is dropped once no thread holds or waits
+ * for it anymore, instead of keeping one lock for every file ever used.
+ * 
+ * @author Udo Hoefel
+ */
+final class PathLocks {
+
+    private final Map<Path, Users> locks = new ConcurrentHashMap<>();
+
+    /**
+     * The lock of a file, along with the number of threads holding or waiting
+     * for it. The number is only changed within the atomic updates of the map.
+     * 
+     * @author Udo Hoefel
+     */
+    private static final class Users {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int count;
+    }
+
+    /**
+     * Acquires the lock of the given file, waiting for other threads holding it.
+     * 
+     * @param file the file
+     */
+    void lock(Path file) {
+        acquire(file).lock.lock();
+    }
+
+    /**
+     * Acquires the lock of the given file if no other thread holds it.
+     * 
+     * @param file the file
+     * @return true if the lock got acquired
+     */
+    boolean tryLock(Path file) {
+        if (acquire(file).lock.tryLock()) return true;
+        release(file);
+        return false;
+    }
+
+    /**
+     * Releases the lock of the given file, which has to be held by the calling
+     * thread.
+     * 
+     * @param file the file
+     */
+    void unlock(Path file) {
+        locks.get(file).lock.unlock();
+        release(file);
+    }
+
+    /**
+     * Gets the number of files with threads holding or waiting for their lock.
+     * 
+     * @return the number of locks
+     */
+    int size() {
+        return locks.size();
+    }
+
+    /**
+     * Registers the calling thread as a user of the lock of the given file.
+     * 
+     * @param file the file
+     * @return the lock of the file
+     */
+    private Users acquire(Path file) {
+        return locks.compute(file, (f, users) -> {
+            Users u = users == null ? new Users() : users;
+            u.count++;
+            return u;
+        });
+    }
+
+    /**
+     * Unregisters the calling thread as a user of the lock of the given file,
+     * dropping the lock if it has no users anymore.
+     * 
+     * @param file the file
+     */
+    private void release(Path file) {
+        locks.computeIfPresent(file, (f, users) -> --users.count == 0 ? null : users);
+    }
+}
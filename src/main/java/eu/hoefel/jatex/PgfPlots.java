@@ -1,15 +1,20 @@
 package eu.hoefel.jatex;
 
 import java.io.File;
+import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.lang.reflect.Array;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import eu.hoefel.utils.Strings;
@@ -23,11 +28,110 @@ import eu.hoefel.utils.Types;
  */
 public final class PgfPlots implements Texable {
 
+    private static final Logger logger = System.getLogger(PgfPlots.class.getName());
+
+    /** Matches the characters that TeX cannot read in file names. */
+    private static final Pattern TEX_UNSAFE = Pattern.compile("[\\s#$%&^_{}~]");
+
+    /**
+     * A line of the axis environment, or the lines of plotted data. The latter
+     * are deferred (see {@link TexSink#defer(java.util.function.Consumer)}), so
+     * a document only generates them when it gets written.
+     */
+    private static sealed interface Line {
+
+        /**
+         * Writes the line(s) to the given sink.
+         * 
+         * @param sink        the sink to write to
+         * @param indentLevel the indentation level of the axis environment
+         */
+        void render(TexSink sink, int indentLevel);
+    }
+
+    /**
+     * A line of code.
+     * 
+     * @param code the code
+     */
+    private static record Code(String code) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel) {
+            sink.line(indentLevel + 1, code);
+        }
+    }
+
+    /**
+     * Plotted data to be written as coordinates, i.e. as {@code (x,y)}.
+     * 
+     * @param coordinates the data
+     */
+    private static record CoordinateRows(Coordinates coordinates) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel) {
+            sink.defer(s -> coordinates.render(s, indentLevel + 2));
+        }
+    }
+
+    /**
+     * Plotted data to be written as table rows, i.e. with the values separated by
+     * spaces.
+     * 
+     * @param coordinates the data
+     */
+    private static record TableRows(Coordinates coordinates) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel) {
+            sink.defer(s -> coordinates.renderTable(s, indentLevel + 2));
+        }
+    }
+
+    /**
+     * Plotted data to be written to a sidecar data file that is read via
+     * {@code \addplot table}. The file is named after the hash of its content
+     * and only written along with a saved document.
+     * 
+     * @param code        the code in front of the file name
+     * @param folder      the folder of the file, absolute or relative to the
+     *                    folder of the document
+     * @param header      the header line of the table, may be null
+     * @param coordinates the data
+     */
+    private static record DataTable(String code, Path folder, String header, Coordinates coordinates) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel) {
+            sink.defer(s -> {
+                Path file = folder.resolve(coordinates.contentHash(header) + ".dat");
+                s.sidecar(file, data -> {
+                    if (header != null) data.line(0, header);
+                    coordinates.renderTable(data, 0);
+                });
+                s.line(indentLevel + 1, code + texPath(file) + "};");
+            });
+        }
+    }
+
     private Map<String, String> options = new HashMap<>();
-    private List<String> lines = new ArrayList<>();
     private List<LatexPackage> packages = new ArrayList<>();
     private List<LatexPreambleEntry> preambleEntries = new ArrayList<>();
-    private int estimatedNumRows = 0;
+
+    /** The lines of code and the plotted data. */
+    private List<Line> lines = new ArrayList<>();
+
+    /** The last plotted 3D data, used to guess the mesh layout. */
+    private Coordinates mesh;
+
+    /** The folder for sidecar data files, or null if the data gets inlined. */
+    private Path dataFolder;
+
+    /** The format of the floating point values of subsequent data. */
+    private CoordinateFormat format = CoordinateFormat.roundTrip();
+
+    /** The downsampling of subsequent 2D data, or null if all points are kept. */
+    private Downsampling downsampling;
+
+    /** The number of dropped points for each plotted data series. */
+    private List<Integer> droppedPoints = new ArrayList<>();
 
     /** Constructor that uses defaults (needed packages and settings). */
     public PgfPlots() {
@@ -45,6 +149,10 @@ public final class PgfPlots implements Texable {
         lines = new ArrayList<>(plot.lines);
         packages.addAll(plot.packages);
         preambleEntries.addAll(plot.preambleEntries);
+        dataFolder = plot.dataFolder;
+        format = plot.format;
+        downsampling = plot.downsampling;
+        droppedPoints.addAll(plot.droppedPoints);
     }
 
     /**
@@ -54,7 +162,7 @@ public final class PgfPlots implements Texable {
      * @return the Plot object
      */
     public PgfPlots add(String line) {
-        lines.add(line);
+        lines.add(new Code(line));
         return this;
     }
 
@@ -69,6 +177,97 @@ public final class PgfPlots implements Texable {
         return this;
     }
 
+    /**
+     * Sets the folder to write the data of subsequent plots of arrays and of
+     * contours to. Instead of inlining every coordinate in the LaTeX code, each
+     * data set gets written to a sidecar data file that is read via
+     * {@code \addplot table}, so the LaTeX code stays small regardless of the
+     * amount of data. The files are named after the hash of their content, so
+     * identical data gets written only once. They are written in the background
+     * when a document containing the plot gets saved, e.g. via
+     * {@link Latex#save()} or {@link Latex#exec()}, which wait until they are
+     * complete. Generating the code otherwise, e.g. via {@link #latexCode()} or
+     * {@link Latex#toString()}, only refers to the files.
+     * <p>
+     * A relative folder is resolved against the folder of the document and
+     * appears relative in the LaTeX code as well, so the document can be moved
+     * together with its data. An absolute folder appears absolute in the LaTeX
+     * code.
+     * 
+     * @param folder the folder for the data files, or null to inline the data
+     *               (the default)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the folder contains characters that
+     *                                  TeX cannot read in file names, i.e.
+     *                                  whitespace or any of
+     *                                  {@code #$%&^_{}~}, or if it is relative
+     *                                  but outside of the folder of the
+     *                                  document
+     */
+    public PgfPlots dataFolder(String folder) {
+        if (folder == null) {
+            dataFolder = null;
+            return this;
+        }
+
+        Path path = Paths.get(folder).normalize();
+        if (TEX_UNSAFE.matcher(texPath(path)).find()) {
+            throw new IllegalArgumentException("TeX cannot read files in %s, as its path contains whitespace or any of #$%%&^_{}~"
+                    .formatted(folder));
+        } else if (!path.isAbsolute() && path.startsWith("..")) {
+            throw new IllegalArgumentException("Relative data folders need to be within the folder of the document, but got " + folder);
+        }
+        dataFolder = path;
+        return this;
+    }
+
+    /**
+     * Sets the precision of the floating point values of subsequent plots of
+     * arrays and of contours. Rounding to e.g. 6 significant digits, which is
+     * usually more than enough for a plot, roughly halves the size of the data
+     * in the LaTeX code or in the sidecar data files and speeds up both writing
+     * and parsing it.
+     * 
+     * @param significantDigits the number of significant digits (1 to 15), or 0
+     *                          to write the values such that they can be read
+     *                          back exactly (the default)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the number of significant digits is
+     *                                  negative or larger than 15
+     * @see CoordinateFormat
+     */
+    public PgfPlots precision(int significantDigits) {
+        format = new CoordinateFormat(significantDigits);
+        return this;
+    }
+
+    /**
+     * Sets the downsampling for subsequent plots of 2D data. Series with more
+     * points than can be resolved get reduced before their coordinates are
+     * written. Note that if the number of points is derived from the axis width,
+     * the width (if any) needs to be set before plotting.
+     * 
+     * @param downsampling the downsampling, or null to keep all points (the
+     *                     default)
+     * @return the Plot object
+     * @see #droppedPoints()
+     */
+    public PgfPlots downsampling(Downsampling downsampling) {
+        this.downsampling = downsampling;
+        return this;
+    }
+
+    /**
+     * Gets the number of points that were dropped by the
+     * {@link #downsampling(Downsampling) downsampling}, for each plotted data
+     * series (i.e. not for formulas and files) in the order they were plotted.
+     * 
+     * @return the numbers of dropped points
+     */
+    public List<Integer> droppedPoints() {
+        return List.copyOf(droppedPoints);
+    }
+
     /**
      * Activates the major grid.
      * 
@@ -160,21 +359,9 @@ public final class PgfPlots implements Texable {
             String file = new File(s).isFile() ? " file " : " ";
 
             add("\\addplot " + formattedOptions + file + "{" + input + "};");
-        } else if (input.getClass().isArray() && Types.dimension(input.getClass()) == 2 && Array.getLength(input) == 2) {
-            add("\\addplot " + formattedOptions + "coordinates {");
-            for (int i = 0; i < Array.getLength(Array.get(input, 0)); i++) {
-                add(Latex.indent(1) + "(" + Array.get(Array.get(input, 0), i) + "," + Array.get(Array.get(input, 1), i) + ")");
-            }
-            add("};");
-        } else if (input.getClass().isArray() && Types.dimension(input.getClass()) == 2 && Array.getLength(input) == 3) {
-            add("\\addplot3 " + formattedOptions + "coordinates {");
-            Set<Object> elems = new HashSet<>();
-            for (int i = 0; i < Array.getLength(Array.get(input, 0)); i++) {
-                add(Latex.indent(1) + "(" + Array.get(Array.get(input, 0), i) + "," + Array.get(Array.get(input, 1), i) + "," + Array.get(Array.get(input, 2), i) + ")");
-                elems.add(Array.get(Array.get(input, 0), i));
-            }
-            add("};");
-            estimatedNumRows = elems.size();
+        } else if (input.getClass().isArray() && Types.dimension(input.getClass()) == 2
+                && (Array.getLength(input) == 2 || Array.getLength(input) == 3)) {
+            return plot(Coordinates.ofArray(input), legend, options);
         } else {
             throw new IllegalArgumentException("Only 2D and 3D arrays are supported");
         }
@@ -184,26 +371,212 @@ public final class PgfPlots implements Texable {
     }
 
     /**
-     * Plots data as a contour plot.
+     * Plots 2D or 3D data. The numbers are written without any boxing or
+     * intermediate strings, so this is the preferred way to plot large data sets.
+     * The data get copied.
+     * 
+     * @param data    the data to plot, i.e. {x, y} or {x, y, z}
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the data are neither 2D nor 3D or if the
+     *                                  y or z values are fewer than the x values
+     */
+    public PgfPlots plot(double[][] data, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(data), legend, options);
+    }
+
+    /**
+     * Plots 2D or 3D data. The numbers are written without any boxing or
+     * intermediate strings. The data get copied.
+     * 
+     * @param data    the data to plot, i.e. {x, y} or {x, y, z}
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the data are neither 2D nor 3D or if the
+     *                                  y or z values are fewer than the x values
+     */
+    public PgfPlots plot(float[][] data, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(data), legend, options);
+    }
+
+    /**
+     * Plots 2D or 3D data. The numbers are written without any boxing or
+     * intermediate strings. The data get copied.
+     * 
+     * @param data    the data to plot, i.e. {x, y} or {x, y, z}
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the data are neither 2D nor 3D or if the
+     *                                  y or z values are fewer than the x values
+     */
+    public PgfPlots plot(int[][] data, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(data), legend, options);
+    }
+
+    /**
+     * Plots 2D or 3D data. The numbers are written without any boxing or
+     * intermediate strings. The data get copied.
+     * 
+     * @param data    the data to plot, i.e. {x, y} or {x, y, z}
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the data are neither 2D nor 3D or if the
+     *                                  y or z values are fewer than the x values
+     */
+    public PgfPlots plot(long[][] data, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(data), legend, options);
+    }
+
+    /**
+     * Plots 2D data. The values get copied.
+     * 
+     * @param x       the x values
+     * @param y       the y values
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if there are fewer y values than x values
+     */
+    public PgfPlots plot(double[] x, double[] y, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(new double[][] { x, y }), legend, options);
+    }
+
+    /**
+     * Plots 3D data. The values get copied.
      * 
      * @param x       the x values
      * @param y       the y values
      * @param z       the z values
+     * @param legend  the legend entry, may be null
+     * @param options the options for this plot (<em>not</em> the axis environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if there are fewer y or z values than x
+     *                                  values
+     */
+    public PgfPlots plot(double[] x, double[] y, double[] z, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(new double[][] { x, y, z }), legend, options);
+    }
+
+    /**
+     * Plots 2D or 3D data from the remaining content of a buffer, e.g. a buffer
+     * mapped from a file. The coordinates are expected to be interleaved, i.e. x0,
+     * y0, x1, y1, ... for 2D data. Note that the content of the buffer is
+     * <em>not</em> copied, i.e. it gets read whenever the code is generated.
+     * 
+     * @param data      the data to plot
+     * @param dimension the dimension of the data, i.e. 2 or 3
+     * @param legend    the legend entry, may be null
+     * @param options   the options for this plot (<em>not</em> the axis
+     *                  environment!)
+     * @return the Plot object
+     * @throws IllegalArgumentException if the dimension is neither 2 nor 3 or if
+     *                                  the number of remaining values is not a
+     *                                  multiple of the dimension
+     */
+    public PgfPlots plot(DoubleBuffer data, int dimension, String legend, Map<String, String> options) {
+        return plot(Coordinates.of(data, dimension), legend, options);
+    }
+
+    /**
+     * Plots the given coordinates.
+     * 
+     * @param coordinates the coordinates
+     * @param legend      the legend entry, may be null
+     * @param options     the options for this plot (<em>not</em> the axis
+     *                    environment!)
+     * @return the Plot object
+     */
+    private PgfPlots plot(Coordinates coordinates, String legend, Map<String, String> options) {
+        coordinates = coordinates.withFormat(format);
+        boolean hasOptions = options != null && !options.isEmpty();
+        String formattedOptions = hasOptions ?  "+" + Latex.toOptions(options) + " ": "";
+
+        if (downsampling != null) {
+            int numPoints = coordinates.size();
+            // the resolution is given by the axis, not by the options of the series
+            coordinates = downsampling.apply(coordinates, this.options.get("width"));
+            int dropped = numPoints - coordinates.size();
+            droppedPoints.add(dropped);
+            if (dropped > 0) {
+                logger.log(Level.DEBUG, () -> (legend == null ? "Downsampled series" : "Downsampled series '" + legend + "'")
+                        + " from %d to %d points".formatted(numPoints, numPoints - dropped));
+            }
+        } else {
+            droppedPoints.add(0);
+        }
+
+        boolean is3d = coordinates.dimension() == 3;
+        String addplot = (is3d ? "\\addplot3 " : "\\addplot ") + formattedOptions;
+        if (dataFolder == null) {
+            add(addplot + "coordinates {");
+            lines.add(new CoordinateRows(coordinates));
+            add("};");
+        } else {
+            lines.add(new DataTable(addplot + "table {", dataFolder, null, coordinates));
+        }
+        if (is3d) mesh = coordinates;
+
+        if (legend != null) add("\\addlegendentry{%s};".formatted(legend));
+        return this;
+    }
+
+    /**
+     * Plots data as a contour plot. The z values get copied once, the grid is
+     * written row by row directly to the output when the code is generated.
+     * 
+     * @param x       the x values
+     * @param y       the y values
+     * @param z       the z values, with {@code z[i][j]} corresponding to
+     *                {@code x[i]} and {@code y[j]}
      * @param options the options for this plot (<em>not</em> the axis
      *                environment!), use e.g. "contour filled={number=20}" to change
      *                the number of levels
      * @return the Plot object
+     * @throws IllegalArgumentException if z does not cover the grid
      */
     public PgfPlots contour(double[] x, double[] y, double[][] z, Map<String, String> options) {
-        addOptions(Map.of("view", "{0}{90}", "colorbar", ""));
+        return contour(Coordinates.ofGrid(x, y, z), x.length, y.length, options);
+    }
 
-        String[] ssvs = new String[x.length * y.length];
-        double[] zFlat = flatten(z);
-        for (int i = 0; i < x.length; i++) {
-            for (int j = 0; j < y.length; j++) {
-                ssvs[i * y.length + j] = x[i] + " " + y[j] + " " + zFlat[i * y.length + j];
-            }
-        }
+    /**
+     * Plots data as a contour plot. The z values are read from the buffer, which
+     * may be e.g. a direct buffer or a buffer mapped from a file, so that large
+     * grids do not need to fit into the heap. Note that the content of the buffer
+     * is <em>not</em> copied, i.e. it gets read whenever the code is generated.
+     * 
+     * @param x       the x values
+     * @param y       the y values
+     * @param z       the remaining z values, row by row, i.e. the value at the
+     *                relative index {@code i * y.length + j} corresponds to
+     *                {@code x[i]} and {@code y[j]}
+     * @param options the options for this plot (<em>not</em> the axis
+     *                environment!), use e.g. "contour filled={number=20}" to change
+     *                the number of levels
+     * @return the Plot object
+     * @throws IllegalArgumentException if the number of remaining z values does
+     *                                  not match the grid
+     */
+    public PgfPlots contour(double[] x, double[] y, DoubleBuffer z, Map<String, String> options) {
+        return contour(Coordinates.ofGrid(x, y, z), x.length, y.length, options);
+    }
+
+    /**
+     * Plots data on a grid as a contour plot.
+     * 
+     * @param grid    the coordinates on the grid
+     * @param rows    the number of x values
+     * @param cols    the number of y values
+     * @param options the options for this plot (<em>not</em> the axis
+     *                environment!)
+     * @return the Plot object
+     */
+    private PgfPlots contour(Coordinates grid, int rows, int cols, Map<String, String> options) {
+        grid = grid.withFormat(format);
+        addOptions(Map.of("view", "{0}{90}", "colorbar", ""));
 
         boolean hasNumber  = Stream.of(options).anyMatch(s -> s.containsKey("contour filled") && s.get("contour filled").contains("{number="));
         boolean hasSamples = Stream.of(options).anyMatch(s -> s.containsKey("samples"));
@@ -214,40 +587,36 @@ public final class PgfPlots implements Texable {
             concatenatedUserOptions.append(option.getKey() + (Latex.STRING_IS_NOT_BLANK.test(option.getValue()) ? "=" + option.getValue() : "") + ",");
         }
 
-        add("\\addplot3[surf,"
-                + "mesh/rows=" + x.length + ","
-                + "mesh/cols=" + y.length + "," 
+        String addplot = "\\addplot3[surf,"
+                + "mesh/rows=" + rows + ","
+                + "mesh/cols=" + cols + "," 
                 + concatenatedUserOptions.toString()
                 + (!hasNumber  ? "contour filled={number=7}," : "")
                 + (!hasSamples ? "samples=150," : "")
                 + (!hasShader  ? "shader=interp," : "")
-                + "] table {");
-        add(Latex.indent(1) + "X Y Z");
-        for (String ssv : ssvs) {
-            add(Latex.indent(1) + ssv);
+                + "] table {";
+
+        if (dataFolder != null) {
+            lines.add(new DataTable(addplot, dataFolder, "X Y Z", grid));
+            return this;
         }
+
+        add(addplot);
+        add(Latex.indent(1) + "X Y Z");
+        lines.add(new TableRows(grid));
         add("};");
         return this;
     }
 
     /**
-     * Flattens a 2D double array into 1D. The returned data is stored row by row
-     * from {@code a}. This method only works for rectangular arrays.
+     * Converts the path to a file to the form used in LaTeX code, i.e. with
+     * forward slashes.
      * 
-     * @param a the 2D array
-     * @return the flattened array
+     * @param file the file
+     * @return the path to use in LaTeX code
      */
-    private static final double[] flatten(double[][] a) {
-        int size = a.length * a[0].length;
-        double[] flat = new double[size];
-
-        int index = 0;
-        for (int i = 0; i < a.length; i++) {
-            int numNew = a[i].length;
-            System.arraycopy(a[i], 0, flat, index, numNew);
-            index += numNew;
-        }
-        return flat;
+    private static String texPath(Path file) {
+        return file.toString().replace("\\", "/");
     }
 
     /**
@@ -259,6 +628,38 @@ public final class PgfPlots implements Texable {
      *         if an error occurred
      */
     public int exec(String filepath) {
+        Latex tex = standalone(filepath);
+        tex.save(Level.ALL);
+
+        if (tex.isExecutable()) {
+            return tex.exec();
+        }
+
+        throw new IllegalStateException("Seems like " + tex.getCompiler() + " is not accessible from Java. "
+                + "Please make sure that it is installed and on the PATH environment variable.");
+    }
+
+    /**
+     * Convenience method for plotting directly via the standalone LaTeX
+     * documentclass, without blocking the calling thread.
+     * 
+     * @param filepath the path to save to
+     * @param executor the executor for saving the document and for the work
+     *                 between the compiler passes
+     * @return the result of the compilation
+     * @see Latex#execAsync(Executor)
+     */
+    public CompletableFuture<CompileResult> execAsync(String filepath, Executor executor) {
+        return standalone(filepath).execAsync(executor);
+    }
+
+    /**
+     * Creates the standalone LaTeX document containing the plot.
+     * 
+     * @param filepath the path to save to
+     * @return the LaTeX document
+     */
+    private Latex standalone(String filepath) {
         Latex tex = new Latex();
         tex.compiler(TexCompiler.LUALATEX);
 
@@ -279,6 +680,7 @@ public final class PgfPlots implements Texable {
                 "samples", "100",
                 "legend cell align", "left"));
 
+        int estimatedNumRows = mesh == null ? 0 : mesh.distinctX();
         if (estimatedNumRows != 0) {
             // try with guessed number of rows
             plot.addOptions(Map.of("mesh/cols", Integer.toString(estimatedNumRows)));
@@ -290,14 +692,7 @@ public final class PgfPlots implements Texable {
         plot.preambleEntries.add(new LatexPreambleEntry("\\pgfplotsset", Map.of("cycle multiindex* list", "{mark list*\\nextlist Dark2-8\\nextlist}",
                                                                         "colormap/viridis", "")));
         tex.add(Tikz.of(plot));
-        tex.save(Level.ALL);
-
-        if (tex.isExecutable()) {
-            return tex.exec();
-        }
-
-        throw new IllegalStateException("Seems like " + tex.getCompiler() + " is not accessible from Java. "
-                + "Please make sure that it is installed and on the PATH environment variable.");
+        return tex;
     }
 
     /**
@@ -327,6 +722,23 @@ public final class PgfPlots implements Texable {
         return new PgfPlots().plot(input, legend, options);
     }
 
+    /**
+     * Plots data from a file, formulas or 2D/3D arrays, with 2D data getting
+     * downsampled.
+     * 
+     * @param <T>          the data type
+     * @param input        either the filename, the formula (e.g. cos(deg(x))*x^2)
+     *                     or the data to plot
+     * @param legend       the legend entry
+     * @param options      the options for this plot (<em>not</em> the axis
+     *                     environment!)
+     * @param downsampling the downsampling, or null to keep all points
+     * @return a new Plot object
+     */
+    public static final <T> PgfPlots of(T input, String legend, Map<String, String> options, Downsampling downsampling) {
+        return new PgfPlots().downsampling(downsampling).plot(input, legend, options);
+    }
+
     /**
      * Plots filled contours.
      * 
@@ -342,6 +754,23 @@ public final class PgfPlots implements Texable {
         return new PgfPlots().contour(x, y, z, options);
     }
 
+    /**
+     * Plots filled contours. Note that the content of the buffer is <em>not</em>
+     * copied.
+     * 
+     * @param x       the x values
+     * @param y       the y values
+     * @param z       the remaining z values, row by row, see
+     *                {@link #contour(double[], double[], DoubleBuffer, Map)}
+     * @param options the options for this plot (<em>not</em> the axis
+     *                environment!), use e.g. Map.of("contour filled",
+     *                "{number=20}") to change the number of levels
+     * @return the Plot object
+     */
+    public static final PgfPlots contourOf(double[] x, double[] y, DoubleBuffer z, Map<String, String> options) {
+        return new PgfPlots().contour(x, y, z, options);
+    }
+
     /**
      * Requests these tikzlibraries to be loaded.
      * 
@@ -433,17 +862,26 @@ public final class PgfPlots implements Texable {
     @Override
     public List<String> latexCode() {
         List<String> ret = new ArrayList<>();
-        ret.add("\\begin{axis}");
-        ret.add(Latex.indent(1) + "[");
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    @Override
+    public void render(TexSink sink, int indentLevel) {
+        sink.line(indentLevel, "\\begin{axis}");
+        sink.line(indentLevel + 1, "[");
         for (Entry<String, String> option : options.entrySet()) {
-            ret.add(Latex.indent(2) + option.getKey() + (Latex.STRING_IS_NOT_BLANK.test(option.getValue()) ? "=" + option.getValue() : "") + ",");
+            sink.indent(indentLevel + 2).append(option.getKey());
+            if (Latex.STRING_IS_NOT_BLANK.test(option.getValue())) {
+                sink.append("=").append(option.getValue());
+            }
+            sink.append(",").endLine();
         }
-        ret.add(Latex.indent(1) + "]");
-        ret.add("");
-        for (String line : lines) {
-            ret.add(Latex.indent(1) + line);
+        sink.line(indentLevel + 1, "]");
+        sink.line(indentLevel, "");
+        for (Line line : lines) {
+            line.render(sink, indentLevel);
         }
-        ret.add("\\end{axis}");
-        return ret;
+        sink.line(indentLevel, "\\end{axis}");
     }
 }
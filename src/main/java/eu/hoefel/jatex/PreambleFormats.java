@@ -0,0 +1,202 @@
+package eu.hoefel.jatex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dumps the package loading part of a preamble into a format file
+ * (mylatexformat style), so that subsequent compilations with the same
+ * preamble start from the format instead of loading all packages again. The
+ * format files are named after the hash of the compiler, its version and the
+ * dumped part of the preamble, so they can be shared by documents and reused
+ * across compilations, while an update of the TeX installation leads to new
+ * formats. Formats that fail to load anyway are {@link #discard(Path)
+ * discarded}, and the document gets compiled without them.
+ * <p>
+ * The dumped part ends at {@link #END_OF_DUMP}, which is placed before the
+ * first package that cannot be dumped, as it loads OpenType fonts (which
+ * neither XeTeX nor LuaTeX can dump), registers Lua callbacks (which do not
+ * survive in a LuaTeX format) or depends on the job, like hyperref. The rest
+ * of the preamble is read as usual in every compilation.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Latex#preambleFormat(String)
+ */
+final class PreambleFormats {
+
+    private static final Logger logger = System.getLogger(PreambleFormats.class.getName());
+
+    /** The marker ending the part of the preamble that gets dumped. Expands to &#92;relax without a format. */
+    static final String END_OF_DUMP = "\\csname endofdump\\endcsname";
+
+    /** The packages that cannot be dumped into a format. */
+    static final Set<String> UNDUMPABLE_PACKAGES = Set.of("fontspec", "unicode-math", "polyglossia", "selnolig",
+            "luacode", "luatextra", "hyperref", "bookmark", "cleveref");
+
+    /** The locks for the formats being dumped, by format file. */
+    private static final PathLocks LOCKS = new PathLocks();
+
+    /** The format files that could not be dumped, which are not tried again. */
+    private static final Set<Path> FAILED = ConcurrentHashMap.newKeySet();
+
+    /** The version banners of the compilers, determined once per JVM. */
+    private static final Map<TexCompiler, String> VERSIONS = new ConcurrentHashMap<>();
+
+    /** No instances needed. */
+    private PreambleFormats() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Gets the format for the preamble of the given document, dumping it first
+     * if it does not exist yet.
+     * 
+     * @param compiler the compiler
+     * @param head     the rendered preamble of the document, containing
+     *                 {@link #END_OF_DUMP}
+     * @param texFile  the saved document
+     * @param folder   the folder of the formats
+     * @return the format file without its ".fmt" extension, as expected by
+     *         {@code -fmt}, or null if the preamble cannot be dumped
+     */
+    static Path of(TexCompiler compiler, String head, String texFile, Path folder) {
+        int end = head.indexOf(END_OF_DUMP);
+        if (end < 0) return null;
+
+        String key = compiler.name() + '\n' + VERSIONS.computeIfAbsent(compiler, PreambleFormats::version) + '\n' + head.substring(0, end);
+        String name = "jatex-" + Compilation.sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 32);
+        Path format = folder.toAbsolutePath().resolve(name);
+        Path fmt = format.resolveSibling(name + ".fmt");
+
+        LOCKS.lock(fmt);
+        try {
+            if (Files.isRegularFile(fmt)) {
+                logger.log(Level.DEBUG, "Reusing format {0}", fmt);
+                return format;
+            }
+            if (FAILED.contains(fmt)) return null;
+            if (dump(compiler, texFile, fmt)) return format;
+            FAILED.add(fmt);
+            return null;
+        } finally {
+            LOCKS.unlock(fmt);
+        }
+    }
+
+    /**
+     * Deletes the given format, e.g. because the compiler is unable to load it,
+     * so that it gets dumped again for the next compilation.
+     * 
+     * @param format the format file without its ".fmt" extension
+     */
+    static void discard(Path format) {
+        Path fmt = format.resolveSibling(format.getFileName() + ".fmt");
+        LOCKS.lock(fmt);
+        try {
+            Files.deleteIfExists(fmt);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, () -> "Unable to delete %s, %s".formatted(fmt, e.getMessage()));
+        } finally {
+            LOCKS.unlock(fmt);
+        }
+    }
+
+    /**
+     * Gets the version banner of the given compiler, i.e. the first line printed
+     * by {@code --version}, which changes with every update of the engine.
+     * 
+     * @param compiler the compiler
+     * @return the version banner, or an empty string if it cannot be determined
+     */
+    private static String version(TexCompiler compiler) {
+        try {
+            Process p = new ProcessBuilder(compiler.executableName(), "--version").redirectErrorStream(true).start();
+            String banner;
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                banner = br.lines().findFirst().orElse("");
+                // read the rest so the process does not block on a full pipe
+                br.lines().forEach(line -> {});
+            }
+            return p.waitFor() == 0 ? banner : "";
+        } catch (IOException e) {
+            logger.log(Level.DEBUG, () -> "Unable to determine the version of %s, %s".formatted(compiler, e.getMessage()));
+            return "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Dumps the preamble of the given document up to {@link #END_OF_DUMP} into
+     * the given format file. The format is dumped under a temporary name and
+     * moved afterwards, so that other processes never see an incomplete format.
+     * 
+     * @param compiler the compiler
+     * @param texFile  the saved document
+     * @param fmt      the format file
+     * @return true if the format got dumped
+     */
+    private static boolean dump(TexCompiler compiler, String texFile, Path fmt) {
+        String exe = compiler.executableName();
+        String tmpName = fmt.getFileName().toString().replace(".fmt", "-" + UUID.randomUUID());
+        Path folder = fmt.getParent();
+        Path tmp = folder.resolve(tmpName + ".fmt");
+
+        ProcessBuilder pb = new ProcessBuilder(List.of(exe,
+                "-ini",
+                "-jobname=" + tmpName,
+                "--output-directory=" + folder,
+                "--enable-write18",
+                "--interaction=nonstopmode",
+                "-halt-on-error",
+                "&" + exe,
+                "mylatexformat.ltx",
+                texFile));
+        pb.redirectErrorStream(true);
+
+        try {
+            Files.createDirectories(folder);
+            Process p = pb.start();
+            List<String> lines;
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                lines = br.lines().toList();
+            }
+
+            if (p.waitFor() != 0 || !Files.isRegularFile(tmp)) {
+                logger.log(Level.WARNING, "Unable to dump the preamble into a format, compiling without it:{0}{1}",
+                        System.lineSeparator(), String.join(System.lineSeparator(), lines));
+                return false;
+            }
+            Files.move(tmp, fmt, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.log(Level.DEBUG, "Dumped format {0}", fmt);
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            for (String ext : List.of(".fmt", ".log")) {
+                try {
+                    Files.deleteIfExists(folder.resolve(tmpName + ext));
+                } catch (IOException e) {
+                    logger.log(Level.DEBUG, () -> "Unable to delete %s%s, %s".formatted(tmpName, ext, e.getMessage()));
+                }
+            }
+        }
+    }
+}
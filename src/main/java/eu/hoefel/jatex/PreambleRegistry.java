@@ -0,0 +1,195 @@
+package eu.hoefel.jatex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the preamble entries in order, with non-standalone entries of the same
+ * command merged on insertion (see {@link LatexPreambleEntry#cleanup(List)}).
+ * The entries that may be updated are indexed by their command, so that
+ * merging e.g. the &#92;usetikzlibrary entries of many texables does not
+ * need to search through all entries, and the options of the merged entries
+ * are collected in place instead of copying them for every merge. The
+ * preamble lines are cached per entry until it changes.
+ * 
+ * @author Udo Hoefel
+ */
+final class PreambleRegistry {
+
+    /** The entries in order. */
+    private final List<Slot> slots = new ArrayList<>();
+
+    /** The non-standalone entries, by command. */
+    private final Map<String, Slot> updatable = new HashMap<>();
+
+    /** The number of entries, by command. */
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    /** The entries, null if outdated. */
+    private List<LatexPreambleEntry> snapshot;
+
+    /**
+     * An entry in the preamble, with the options of subsequent entries of the
+     * same command merged in if it is not standalone.
+     * 
+     * @author Udo Hoefel
+     */
+    private static final class Slot {
+        private final String cmd;
+
+        /** The (merged) entry, null if outdated. */
+        private LatexPreambleEntry entry;
+
+        /** The merged options, null as long as nothing got merged in. */
+        private Map<String, String> options;
+
+        /** The preamble line, null if outdated. */
+        private String line;
+
+        /**
+         * Constructor.
+         * 
+         * @param entry the entry
+         */
+        private Slot(LatexPreambleEntry entry) {
+            this.cmd = entry.cmd();
+            this.entry = entry;
+        }
+
+        /**
+         * Merges the options of the given entry into this entry, overriding
+         * previously set options.
+         * 
+         * @param other the entry to merge
+         */
+        private void merge(LatexPreambleEntry other) {
+            if (other.options().isEmpty()) return;
+            if (options == null) options = new HashMap<>(entry.options());
+            options.putAll(other.options());
+            entry = null;
+            line = null;
+        }
+
+        /**
+         * Gets the (merged) entry.
+         * 
+         * @return the entry
+         */
+        private LatexPreambleEntry entry() {
+            if (entry == null) entry = new LatexPreambleEntry(cmd, options, false);
+            return entry;
+        }
+
+        /**
+         * Gets the preamble line of the entry.
+         * 
+         * @return the preamble line
+         */
+        private String line() {
+            if (line == null) line = entry().preambleLine();
+            return line;
+        }
+    }
+
+    /**
+     * Adds the given entry. If the entry is not standalone and there is already a
+     * non-standalone entry with the same command, the options get merged into
+     * the existing entry, with the new options overriding the previous ones.
+     * 
+     * @param entry the entry to add
+     */
+    void add(LatexPreambleEntry entry) {
+        Objects.requireNonNull(entry);
+        snapshot = null;
+
+        if (!entry.standalone()) {
+            Slot slot = updatable.get(entry.cmd());
+            if (slot != null) {
+                slot.merge(entry);
+                return;
+            }
+        }
+
+        Slot slot = new Slot(entry);
+        slots.add(slot);
+        if (!entry.standalone()) updatable.put(entry.cmd(), slot);
+        counts.merge(entry.cmd(), 1, Integer::sum);
+    }
+
+    /**
+     * Adds the given entries.
+     * 
+     * @param entries the entries to add
+     * @see #add(LatexPreambleEntry)
+     */
+    void addAll(Collection<LatexPreambleEntry> entries) {
+        for (LatexPreambleEntry entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Removes all entries with the given command.
+     * 
+     * @param cmd the command
+     */
+    void remove(String cmd) {
+        if (counts.remove(cmd) == null) return;
+        slots.removeIf(slot -> slot.cmd.equals(cmd));
+        updatable.remove(cmd);
+        snapshot = null;
+    }
+
+    /**
+     * Checks whether there is an entry with the given command.
+     * 
+     * @param cmd the command
+     * @return true if there is such an entry
+     */
+    boolean contains(String cmd) {
+        return counts.containsKey(cmd);
+    }
+
+    /**
+     * Checks whether there are no entries.
+     * 
+     * @return true if there are no entries
+     */
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * Gets the entries, in order.
+     * 
+     * @return the entries, unmodifiable
+     */
+    List<LatexPreambleEntry> entries() {
+        if (snapshot == null) {
+            List<LatexPreambleEntry> ret = new ArrayList<>(slots.size());
+            for (Slot slot : slots) {
+                ret.add(slot.entry());
+            }
+            snapshot = List.copyOf(ret);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the preamble lines of the entries, in order.
+     * 
+     * @return the preamble lines
+     * @see LatexPreambleEntry#preambleLine()
+     */
+    List<String> lines() {
+        List<String> ret = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            ret.add(slot.line());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,379 @@
+package eu.hoefel.jatex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Class for tables with a very large number of rows, e.g. from database
+ * queries or CSV exports. In contrast to {@link Table}, the rows are not
+ * stored, but taken from their source while the table is being written. The
+ * table is always a {@link Table.TableEnvironment#LONGTABLE}, so that it can
+ * span multiple pages, and its head rows are repeated on every page.
+ * <p>
+ * If the table gets added to a {@link Latex} document, the rows are only
+ * written when the document is saved, so the memory needed does not depend on
+ * the number of rows. Note that {@link #latexCode()} and
+ * {@link Latex#toString()} collect all the lines in memory, though. Rows given
+ * via an iterator or a stream are left out by {@link Latex#toString()}, so
+ * that they remain for saving the document.
+ * <p>
+ * Exact padding of the columns would need a full pass over the rows, so the
+ * column widths are instead determined from the first rows only (see
+ * {@link #padding(int)}). Longer entries further down simply do not get padded.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Table#streaming(String...)
+ */
+public final class StreamingTable implements Texable {
+
+    /** The default number of rows used to determine the column widths. */
+    private static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    private final String format;
+    private final int definedNumCols;
+    private final List<String[]> head = new ArrayList<>();
+    private String label = null;
+    private String caption = null;
+    private String captionShort = null;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    private Supplier<Iterator<String[]>> rows = Collections::emptyIterator;
+    private Runnable onWritten = () -> {};
+    private boolean singleUse = false;
+    private boolean written = false;
+
+    private List<LatexPackage> packages = new ArrayList<>();
+    private List<LatexPreambleEntry> preambleExtras = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * 
+     * @param formats the column formats, e.g. "l","c","c" for 3 columns (the first
+     *                left aligned, and 2 centered)
+     * @see Table#streaming(String...)
+     */
+    StreamingTable(String... formats) {
+        String[] formatsTrimmed = new String[formats.length];
+        for (int i = 0; i < formatsTrimmed.length; i++) {
+            formatsTrimmed[i] = formats[i].trim();
+        }
+        format = String.join(" ", formatsTrimmed);
+        definedNumCols = formatsTrimmed.length;
+        usePackages(new LatexPackage("booktabs"), new LatexPackage("longtable"));
+    }
+
+    /**
+     * Adds a head row, i.e. a row that gets repeated at the top of every page.
+     * 
+     * @param cells the cell entries, each separate String is for another column
+     * @return this StreamingTable object
+     */
+    public StreamingTable head(String... cells) {
+        head.add(checkedRow(cells));
+        return this;
+    }
+
+    /**
+     * Sets the rows of the table. The rows get requested anew every time the
+     * table is written, so the table can be written repeatedly.
+     * 
+     * @param rows the rows, each with the cell entries for the columns
+     * @return this StreamingTable object
+     */
+    public StreamingTable rows(Iterable<String[]> rows) {
+        Objects.requireNonNull(rows);
+        this.rows = rows::iterator;
+        onWritten = () -> {};
+        singleUse = false;
+        written = false;
+        return this;
+    }
+
+    /**
+     * Sets the rows of the table. As the iterator can be consumed only once, the
+     * table can be written only once.
+     * 
+     * @param rows the rows, each with the cell entries for the columns
+     * @return this StreamingTable object
+     */
+    public StreamingTable rows(Iterator<String[]> rows) {
+        Objects.requireNonNull(rows);
+        this.rows = () -> rows;
+        onWritten = () -> {};
+        singleUse = true;
+        written = false;
+        return this;
+    }
+
+    /**
+     * Sets the rows of the table. As the stream can be consumed only once, the
+     * table can be written only once. The stream gets closed after it has been
+     * written, so e.g. streams from {@link java.nio.file.Files#lines(java.nio.file.Path)}
+     * do not need to be closed separately.
+     * 
+     * @param rows the rows, each with the cell entries for the columns
+     * @return this StreamingTable object
+     */
+    public StreamingTable rows(Stream<String[]> rows) {
+        Objects.requireNonNull(rows);
+        this.rows = rows::iterator;
+        onWritten = rows::close;
+        singleUse = true;
+        written = false;
+        return this;
+    }
+
+    /**
+     * Sets the number of rows (including the head rows) from which the column
+     * widths get determined for padding the entries. The rows get buffered until
+     * the widths are known. The default is {@value #DEFAULT_SAMPLE_SIZE}.
+     * 
+     * @param sampleSize the number of rows, or 0 to not pad the entries at all
+     * @return this StreamingTable object
+     * @throws IllegalArgumentException if the number of rows is negative
+     */
+    public StreamingTable padding(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("The number of rows to sample needs to be non-negative, but got " + sampleSize);
+        }
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    /**
+     * Gets the caption of the table.
+     * 
+     * @return the caption
+     */
+    public String getCaption() {
+        return caption;
+    }
+
+    /**
+     * Sets the caption of the table.
+     * 
+     * @param caption the caption
+     * @return this StreamingTable object
+     */
+    public StreamingTable caption(String caption) {
+        this.caption = caption;
+        return this;
+    }
+
+    /**
+     * Gets the short form of the caption.
+     * 
+     * @return the short caption
+     */
+    public String getCaptionShort() {
+        return captionShort;
+    }
+
+    /**
+     * Sets the short form of the caption, for example for the table of tables.
+     * 
+     * @param captionShort the short form
+     * @return this StreamingTable object
+     */
+    public StreamingTable captionShort(String captionShort) {
+        this.captionShort = captionShort;
+        return this;
+    }
+
+    /**
+     * Gets the full label for this table without the internal namespace prefix:
+     * {@value Table#LABEL_NAMESPACE}.
+     * 
+     * @return the label
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Sets the label for this table. Internally added is the namespace prefix:
+     * {@value Table#LABEL_NAMESPACE}. The label is only used in combination with a
+     * caption.
+     * 
+     * @param label the label
+     * @return this StreamingTable object
+     */
+    public StreamingTable label(String label) {
+        this.label = label;
+        return this;
+    }
+
+    /**
+     * Indicates to {@link Latex} that these packages and options are needed.
+     * 
+     * @param packages the needed packages
+     * @return the StreamingTable object
+     */
+    public StreamingTable usePackages(LatexPackage... packages) {
+        this.packages.addAll(List.of(packages));
+        return this;
+    }
+
+    @Override
+    public List<LatexPackage> neededPackages() {
+        return packages;
+    }
+
+    @Override
+    public List<LatexPreambleEntry> preambleExtras() {
+        return preambleExtras;
+    }
+
+    @Override
+    public boolean isRenderedLazily() {
+        // the rows are only requested when writing the document
+        return true;
+    }
+
+    @Override
+    public List<String> latexCode() {
+        List<String> ret = new ArrayList<>();
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalStateException    if the rows were given via an iterator or a
+     *                                  stream that has already been written
+     * @throws IllegalArgumentException if a row has more entries than there are
+     *                                  columns
+     */
+    @Override
+    public void render(TexSink sink, int indentLevel) {
+        if (singleUse && written) {
+            throw new IllegalStateException("The rows can be written only once. "
+                    + "Use rows(Iterable) for tables that are written repeatedly.");
+        }
+        written = true;
+
+        try {
+            render(sink, indentLevel, rows.get(), false);
+        } finally {
+            onWritten.run();
+        }
+    }
+
+    /**
+     * Writes the table without taking its rows if they can be taken only once,
+     * i.e. if they were given via an iterator or a stream. The rows are then
+     * replaced by a comment.
+     * 
+     * @param sink        the sink to write to
+     * @param indentLevel the indentation level
+     * @see Latex#toString()
+     */
+    void preview(TexSink sink, int indentLevel) {
+        if (singleUse) {
+            render(sink, indentLevel, Collections.emptyIterator(), true);
+        } else {
+            render(sink, indentLevel);
+        }
+    }
+
+    /**
+     * Writes the table.
+     * 
+     * @param sink        the sink to write to
+     * @param indentLevel the indentation level
+     * @param it          the rows
+     * @param omitted     true if the rows are left out
+     * @throws IllegalArgumentException if a row has more entries than there are
+     *                                  columns
+     */
+    private void render(TexSink sink, int indentLevel, Iterator<String[]> it, boolean omitted) {
+        int n = indentLevel + 1;
+        sink.indent(n).append("\\begin{longtable}{").append(format).append("}\\toprule").endLine();
+        if (caption != null) {
+            sink.indent(n + 1).append("\\caption");
+            if (captionShort != null) sink.append("[").append(captionShort).append("]");
+            sink.append("{").append(caption).append("}");
+            if (label != null) sink.append("\\label{").append(Table.LABEL_NAMESPACE).append(label).append("}");
+            sink.append(" \\tabularnewline").endLine();
+        }
+
+        // buffer the first rows to determine the column widths
+        List<String[]> sample = new ArrayList<>(head);
+        while (sample.size() < sampleSize && it.hasNext()) {
+            sample.add(checkedRow(it.next()));
+        }
+        int[] widths = new int[definedNumCols];
+        for (int i = 0; i < sample.size() && i < sampleSize; i++) {
+            String[] row = sample.get(i);
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != null) widths[j] = Math.max(widths[j], row[j].length());
+            }
+        }
+
+        int numRows = sample.size();
+        for (int i = 0; i < numRows; i++) {
+            boolean last = i == numRows - 1 && !it.hasNext();
+            writeRow(sink, n + 1, sample.get(i), widths, i == head.size() - 1, last);
+        }
+
+        while (it.hasNext()) {
+            String[] row = checkedRow(it.next());
+            writeRow(sink, n + 1, row, widths, false, !it.hasNext());
+        }
+
+        if (omitted) sink.line(n + 1, "% streamed rows omitted");
+        if (numRows == 0) sink.line(n + 1, "\\bottomrule");
+        sink.indent(n).append("\\end{longtable}").endLine();
+    }
+
+    /**
+     * Writes a row of the table.
+     * 
+     * @param sink    the sink to write to
+     * @param level   the indentation level
+     * @param row     the cell entries
+     * @param widths  the widths to pad the entries to
+     * @param endHead true if the row is the last head row
+     * @param last    true if the row is the last row of the table
+     */
+    private static void writeRow(TexSink sink, int level, String[] row, int[] widths, boolean endHead, boolean last) {
+        sink.indent(level);
+        for (int j = 0; j < row.length; j++) {
+            if (j > 0) sink.append(" & ");
+            int length = 0;
+            if (row[j] != null) {
+                sink.append(row[j]);
+                length = row[j].length();
+            }
+            for (int k = widths[j] - length; k > 0; k--) {
+                sink.append(' ');
+            }
+        }
+
+        sink.append(" \\tabularnewline");
+        if (endHead) sink.append("\\midrule\\endhead");
+        if (last) sink.append("\\bottomrule");
+        sink.endLine();
+    }
+
+    /**
+     * Checks that the given row does not have more entries than there are columns.
+     * 
+     * @param row the row
+     * @return the row
+     * @throws IllegalArgumentException if the row has too many entries
+     */
+    private String[] checkedRow(String[] row) {
+        if (row.length > definedNumCols) {
+            throw new IllegalArgumentException("More columns requested than defined: " + row.length + " > " + definedNumCols);
+        }
+        return row;
+    }
+}
@@ -5,7 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * Class for handling tables to be included in {@link Latex} documents.
@@ -31,11 +30,7 @@ public final class Table implements Texable {
     private boolean centering;
     private String position = null;
 
-    private Map<Integer, Map<Integer, String>> entry = new HashMap<>();
-    private Map<Integer, Map<Integer, Boolean>> active = new HashMap<>();
-    private Map<Integer, Map<Integer, Boolean>> useAmpersand = new HashMap<>();
-    private Map<Integer, Map<Integer, Integer>> width = new HashMap<>();
-    private Map<Integer, Map<Integer, String>> color = new HashMap<>();
+    private TableCells cells = new TableCells();
 
     private List<LatexPackage> packages = new ArrayList<>();
     private List<LatexPreambleEntry> preambleExtras = new ArrayList<>();
@@ -118,67 +113,12 @@ public final class Table implements Texable {
 
     /** Calculates the requested number of rows and columns. */
     private void calculateNumRowsCols() {
-        numCols = 0;
-        numRows = 0;
-        for (var col : active.entrySet()) {
-            for (var row : col.getValue().entrySet()) {
-                if (Boolean.TRUE.equals(row.getValue())) {
-                    numCols = Math.max(numCols, col.getKey());
-                    numRows = Math.max(numRows, row.getKey());
-                }
-            }
-        }
-
-        // we add 1 because we start indexing at 0
-        numCols++;
-        numRows++;
+        numCols = cells.numCols();
+        numRows = cells.numRows();
 
         if (numCols > definedNumCols) {
             throw new IllegalArgumentException("More columns requested than defined: " + numCols + " > " + definedNumCols);
         }
-
-        // fill the remaining cells
-        for (int i = 0; i < numCols; i++) {
-            boolean val = (i != numCols - 1);
-            for (int j = 0; j < numRows; j++) {
-                Map<Integer, Boolean> innerMap = useAmpersand.getOrDefault(i, new HashMap<>());
-                innerMap.putIfAbsent(j, val);
-                useAmpersand.put(i, innerMap);
-            }
-        }
-
-        // calculate the correct width
-        int colorCommandLength = "{\\cellcolor{}}".length();
-        for (int i = 0; i < numCols; i++) {
-            if (entry.containsKey(i)) {
-                int max = 0;
-                for (Entry<Integer, String> w : entry.get(i).entrySet()) {
-                    int colorlength = 0;
-                    if (color.containsKey(i) && color.get(i).containsKey(w.getKey())) {
-                        colorlength = colorCommandLength + color.get(i).get(w.getKey()).length();
-                    }
-                    max = Math.max(max, w.getValue().length() + colorlength);
-                }
-                for (int j = 0; j < numRows; j++) {
-                    int w = 0;
-                    if (entry.get(i).containsKey(j)) {
-                        w += entry.get(i).get(j).length();
-                    }
-                    if (color.containsKey(i) && color.get(i).containsKey(j)) {
-                        w += colorCommandLength + color.get(i).get(j).length();
-                    }
-                    Map<Integer, Integer> innerMap = width.getOrDefault(i, new HashMap<>());
-                    innerMap.put(j, max - w);
-                    width.put(i, innerMap);
-                }
-            } else {
-                for (int j = 0; j < numRows; j++) {
-                    Map<Integer, Integer> innerMap = width.getOrDefault(i, new HashMap<>());
-                    innerMap.put(j, 0);
-                    width.put(i, innerMap);
-                }
-            }
-        }
     }
 
     /**
@@ -190,7 +130,7 @@ public final class Table implements Texable {
      * @return this Table object
      */
     public Table entry(int col, int row, String entry) {
-        this.entry.computeIfAbsent(col, HashMap::new).put(row, entry);
+        cells.entry(col, row, entry);
         activateCells(col, row, entry);
         return this;
     }
@@ -204,7 +144,7 @@ public final class Table implements Texable {
      * @return the Table object
      */
     public Table color(int col, int row, String color) {
-        this.color.computeIfAbsent(col, HashMap::new).put(row, color);
+        cells.color(col, row, color);
         activateCells(col, row, color);
         return this;
     }
@@ -218,9 +158,7 @@ public final class Table implements Texable {
      * @param str the String to check
      */
     private void activateCells(int col, int row, String str) {
-        // this is the obvious part...
-        active.computeIfAbsent(col, HashMap::new).put(row, true);
-
+        // the cell itself got activated when setting its content
         // here we look for multirow/-column
         String multirow = "\\multirow{";
         if (str.contains(multirow)) {
@@ -229,8 +167,7 @@ public final class Table implements Texable {
             int addrows = Integer.parseInt(str.substring(start, end));
 
             for (int i = 0; i < addrows; i++) {
-                active.computeIfAbsent(col, HashMap::new).put(row + i, true);
-                useAmpersand.computeIfAbsent(col, HashMap::new).put(row + i, true);
+                cells.ampersand(col, row + i, true);
             }
         }
 
@@ -241,8 +178,7 @@ public final class Table implements Texable {
             int addcols = Integer.parseInt(str.substring(start, end));
 
             for (int i = 0; i < addcols; i++) {
-                active.computeIfAbsent(col + i, HashMap::new).put(row, true);
-                useAmpersand.computeIfAbsent(col + i, HashMap::new).put(row, false);
+                cells.ampersand(col + i, row, false);
             }
         }
     }
@@ -486,6 +422,20 @@ public final class Table implements Texable {
         return  "\\multicolumn{%d}{%s}{%s}".formatted(numCols, alignment, content);
     }
 
+    /**
+     * Creates a table whose rows are not stored, but taken from their source
+     * (e.g. a database query) while the table is being written. This is meant for
+     * tables with a huge number of rows.
+     * 
+     * @param formats the column formats, e.g. "l","c","c" for 3 columns (the first
+     *                left aligned, and 2 centered)
+     * @return the new streaming table
+     * @see StreamingTable
+     */
+    public static StreamingTable streaming(String... formats) {
+        return new StreamingTable(formats);
+    }
+
     /**
      * Indicates to {@link Latex} that these packages and options are needed.
      * 
@@ -521,64 +471,65 @@ public final class Table implements Texable {
 
     @Override
     public List<String> latexCode() {
+        List<String> ret = new ArrayList<>();
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    @Override
+    public void render(TexSink sink, int indentLevel) {
         // to make sure the user didn't put garbage in
         if (!isFloating()) label(null);
 
         calculateNumRowsCols();
 
-        List<String> ret = new ArrayList<>();
-        int n = 1;
+        int n = indentLevel + 1;
 
         if (isFloating()) {
-            ret.add(Latex.indent(n) + "\\begin{table}[" + (position != null ? position : "") + "]%");
-            if (centering) ret.add(Latex.indent(n) + "\\centering");
+            sink.indent(n).append("\\begin{table}[").append(position != null ? position : "").append("]%").endLine();
+            if (centering) sink.line(n, "\\centering");
             if (caption != null) {
-                ret.add((Latex.indent(n + 1) + "\\caption"
-                        + (captionShort != null ? "[" + captionShort + "]" : "") + "{" + caption
-                        + "}%"));
+                sink.indent(n + 1).append("\\caption");
+                if (captionShort != null) sink.append("[").append(captionShort).append("]");
+                sink.append("{").append(caption).append("}%").endLine();
             }
-            if (label != null) ret.add("%s\\label{%s%s}%%".formatted(Latex.indent(n + 1), LABEL_NAMESPACE, label));
+            if (label != null) sink.indent(n + 1).append("\\label{").append(LABEL_NAMESPACE).append(label).append("}%").endLine();
             n++;
         } else {
-            if (centering) ret.add(Latex.indent(n) + "{\\centering");
+            if (centering) sink.line(n, "{\\centering");
         }
-        ret.add(Latex.indent(n) + "\\begin{" + env.name().toLowerCase(Locale.ENGLISH) + "}{" + format + "}\\toprule");
+        String envName = env.name().toLowerCase(Locale.ENGLISH);
+        sink.indent(n).append("\\begin{").append(envName).append("}{").append(format).append("}\\toprule").endLine();
 
         for (int i = 0; i < numRows; i++) {
-            StringBuilder str = new StringBuilder();
-            str.append(Latex.indent(n + 1));
+            sink.indent(n + 1);
             for (int j = 0; j < numCols; j++) {
-                if (color.containsKey(j) && color.get(j).containsKey(i)) {
-                    str.append("{\\cellcolor{" + color.get(j).get(i) + "}}");
-                }
-
-                if (entry.containsKey(j) && entry.get(j).containsKey(i)) {
-                    str.append(entry.get(j).get(i));
-                }
+                String color = cells.color(j, i);
+                if (color != null) sink.append("{\\cellcolor{").append(color).append("}}");
 
-                str.append(" ".repeat(width.get(j).get(i)));
+                String entry = cells.entry(j, i);
+                if (entry != null) sink.append(entry);
 
-                if (Boolean.TRUE.equals(useAmpersand.get(j).get(i))) {
-                    str.append(" & ");
+                for (int k = cells.padding(j, i); k > 0; k--) {
+                    sink.append(' ');
                 }
-            }
 
-            str.append(" \\tabularnewline" 
-                    + (midRuleExtra.containsKey(i) ? "\\midrule" : "")
-                    + (i == endHead && env == TableEnvironment.LONGTABLE ? "\\endhead" : "")
-                    + (i == numRows - 1 ? "\\bottomrule" : ""));
+                if (cells.usesAmpersand(j, i, j != numCols - 1)) sink.append(" & ");
+            }
 
-            ret.add(str.toString());
+            sink.append(" \\tabularnewline");
+            if (midRuleExtra.containsKey(i)) sink.append("\\midrule");
+            if (i == endHead && env == TableEnvironment.LONGTABLE) sink.append("\\endhead");
+            if (i == numRows - 1) sink.append("\\bottomrule");
+            sink.endLine();
         }
 
-        ret.add(Latex.indent(n) + "\\end{" + env.name().toLowerCase(Locale.ENGLISH) + "}");
+        sink.indent(n).append("\\end{").append(envName).append("}").endLine();
 
         if (isFloating()) {
-            ret.add(Latex.indent(n - 1) + "\\end{table}");
+            sink.line(n - 1, "\\end{table}");
         } else if (centering) {
-             ret.add(Latex.indent(n) + "}");
+            sink.line(n, "}");
         }
-
-        return ret;
     }
 }
@@ -0,0 +1,476 @@
+package eu.hoefel.jatex;
+
+import java.util.Arrays;
+
+/**
+ * Storage for the cells of a {@link Table}. The cells are kept in flat arrays,
+ * either laid out densely row by row or, if only few cells of the spanned area
+ * are used, addressed via an open addressing hash table with primitive keys.
+ * The layout is switched automatically depending on the fill ratio. Repeated
+ * cell contents share the same string instance, and the width of each column
+ * is maintained while the cells are set.
+ * 
+ * @author Udo Hoefel
+ */
+final class TableCells {
+
+    /** Flag for cells that count towards the size of the table. */
+    private static final byte ACTIVE = 1;
+
+    /** Flag for cells for which it is explicitly set whether an ampersand follows. */
+    private static final byte AMPERSAND_SET = 2;
+
+    /** Flag for cells that are followed by an ampersand, if explicitly set. */
+    private static final byte AMPERSAND = 4;
+
+    /** The length of the color command without the actual color. */
+    private static final int CELLCOLOR_LENGTH = "{\\cellcolor{}}".length();
+
+    /** The area below which the dense layout is used in any case. */
+    private static final int MIN_SPARSE_AREA = 4096;
+
+    /** The dense layout is replaced if the area exceeds this many times the number of cells. */
+    private static final int SPARSE_FACTOR = 8;
+
+    /** The sparse layout is replaced if the area is at most this many times the number of cells. */
+    private static final int DENSE_FACTOR = 2;
+
+    /** The number of recently used strings to reuse, a power of 2. */
+    private static final int INTERN_CACHE_SIZE = 1024;
+
+    /** Marks empty positions in the hash table. */
+    private static final long EMPTY = -1;
+
+    private boolean dense = true;
+    private int numCells = 0;
+    private int maxRow = 0;
+    private int maxCol = 0;
+
+    /** The number of columns per row in the dense layout. */
+    private int stride = 0;
+
+    /** The number of rows that fit in the dense layout. */
+    private int rowCapacity = 0;
+
+    /** The hash table of the sparse layout, containing the keys of the cells. */
+    private long[] hashKeys;
+
+    /** The hash table of the sparse layout, containing the slots of the cells. */
+    private int[] hashSlots;
+
+    /** The keys of the cells per slot in the sparse layout. */
+    private long[] slotKeys;
+
+    private String[] entries = new String[0];
+    private String[] colors = new String[0];
+    private byte[] flags = new byte[0];
+
+    private int[] columnWidth = new int[0];
+    private boolean[] columnDirty = new boolean[0];
+    private boolean[] columnHasEntry = new boolean[0];
+
+    private final String[] internCache = new String[INTERN_CACHE_SIZE];
+
+    /**
+     * Sets the entry of a cell, which activates the cell.
+     * 
+     * @param col   the column
+     * @param row   the row
+     * @param entry the entry
+     */
+    void entry(int col, int row, String entry) {
+        int slot = activeSlot(col, row);
+        int oldWidth = cellWidth(slot);
+        entries[slot] = intern(entry);
+        updateColumnWidth(col, oldWidth, cellWidth(slot));
+    }
+
+    /**
+     * Sets the color of a cell, which activates the cell.
+     * 
+     * @param col   the column
+     * @param row   the row
+     * @param color the color
+     */
+    void color(int col, int row, String color) {
+        int slot = activeSlot(col, row);
+        int oldWidth = cellWidth(slot);
+        colors[slot] = intern(color);
+        updateColumnWidth(col, oldWidth, cellWidth(slot));
+    }
+
+    /**
+     * Sets whether a cell is followed by an ampersand, which activates the cell.
+     * 
+     * @param col the column
+     * @param row the row
+     * @param use true if an ampersand should follow
+     */
+    void ampersand(int col, int row, boolean use) {
+        int slot = activeSlot(col, row);
+        flags[slot] = (byte) ((flags[slot] & ~AMPERSAND) | AMPERSAND_SET | (use ? AMPERSAND : 0));
+    }
+
+    /**
+     * Gets the entry of a cell.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the entry, or null if none is set
+     */
+    String entry(int col, int row) {
+        int slot = find(col, row);
+        return slot < 0 ? null : entries[slot];
+    }
+
+    /**
+     * Gets the color of a cell.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the color, or null if none is set
+     */
+    String color(int col, int row) {
+        int slot = find(col, row);
+        return slot < 0 ? null : colors[slot];
+    }
+
+    /**
+     * Gets whether a cell is followed by an ampersand.
+     * 
+     * @param col          the column
+     * @param row          the row
+     * @param defaultValue the value to use if it is not explicitly set
+     * @return true if an ampersand should follow
+     */
+    boolean usesAmpersand(int col, int row, boolean defaultValue) {
+        int slot = find(col, row);
+        if (slot < 0 || (flags[slot] & AMPERSAND_SET) == 0) return defaultValue;
+        return (flags[slot] & AMPERSAND) != 0;
+    }
+
+    /**
+     * Gets the number of rows, i.e. the largest row index of any active cell plus
+     * one (but at least 1).
+     * 
+     * @return the number of rows
+     */
+    int numRows() {
+        return maxRow + 1;
+    }
+
+    /**
+     * Gets the number of columns, i.e. the largest column index of any active
+     * cell plus one (but at least 1).
+     * 
+     * @return the number of columns
+     */
+    int numCols() {
+        return maxCol + 1;
+    }
+
+    /**
+     * Gets the number of spaces needed after a cell to align it with the widest
+     * entry of its column.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the number of spaces
+     */
+    int padding(int col, int row) {
+        if (col >= columnHasEntry.length || !columnHasEntry[col]) return 0;
+        if (columnDirty[col]) recalculateColumnWidth(col);
+
+        int slot = find(col, row);
+        if (slot < 0) return columnWidth[col];
+
+        int width = entries[slot] == null ? 0 : entries[slot].length();
+        if (colors[slot] != null) width += CELLCOLOR_LENGTH + colors[slot].length();
+        return Math.max(0, columnWidth[col] - width);
+    }
+
+    /**
+     * Gets the width of a cell as relevant for the width of its column.
+     * 
+     * @param slot the slot of the cell
+     * @return the width, or -1 if the cell has no entry
+     */
+    private int cellWidth(int slot) {
+        if (entries[slot] == null) return -1;
+        return entries[slot].length() + (colors[slot] == null ? 0 : CELLCOLOR_LENGTH + colors[slot].length());
+    }
+
+    /**
+     * Updates the width of a column after the width of one of its cells changed.
+     * If the cell may have been the widest one and got narrower, the width gets
+     * recalculated lazily.
+     * 
+     * @param col      the column
+     * @param oldWidth the previous width of the cell
+     * @param newWidth the new width of the cell
+     */
+    private void updateColumnWidth(int col, int oldWidth, int newWidth) {
+        if (col >= columnWidth.length) {
+            int length = Math.max(col + 1, 2 * columnWidth.length);
+            columnWidth = Arrays.copyOf(columnWidth, length);
+            columnDirty = Arrays.copyOf(columnDirty, length);
+            columnHasEntry = Arrays.copyOf(columnHasEntry, length);
+        }
+
+        if (newWidth >= 0) columnHasEntry[col] = true;
+        if (newWidth >= columnWidth[col]) {
+            columnWidth[col] = newWidth;
+        } else if (oldWidth == columnWidth[col]) {
+            columnDirty[col] = true;
+        }
+    }
+
+    /**
+     * Recalculates the width of a column from all of its cells.
+     * 
+     * @param col the column
+     */
+    private void recalculateColumnWidth(int col) {
+        int width = 0;
+        if (dense) {
+            for (int row = 0; row <= maxRow; row++) {
+                int slot = row * stride + col;
+                if (flags[slot] != 0) width = Math.max(width, cellWidth(slot));
+            }
+        } else {
+            for (int slot = 0; slot < numCells; slot++) {
+                if ((int) slotKeys[slot] == col) width = Math.max(width, cellWidth(slot));
+            }
+        }
+        columnWidth[col] = width;
+        columnDirty[col] = false;
+    }
+
+    /**
+     * Gets the string to store, reusing a recently stored equal string.
+     * 
+     * @param s the string
+     * @return the string to store
+     */
+    private String intern(String s) {
+        if (s == null) return null;
+
+        int i = s.hashCode() & (INTERN_CACHE_SIZE - 1);
+        String cached = internCache[i];
+        if (s.equals(cached)) return cached;
+        internCache[i] = s;
+        return s;
+    }
+
+    /**
+     * Packs the indices of a cell into a key.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the key
+     */
+    private static long key(int col, int row) {
+        return ((long) row << 32) | col;
+    }
+
+    /**
+     * Spreads the bits of a key for the hash table.
+     * 
+     * @param key the key
+     * @return the hash
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Finds the slot of a cell.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the slot, or -1 if the cell does not exist
+     */
+    private int find(int col, int row) {
+        if (col < 0 || row < 0) return -1;
+
+        if (dense) {
+            if (col >= stride || row >= rowCapacity) return -1;
+            int slot = row * stride + col;
+            return flags[slot] == 0 ? -1 : slot;
+        }
+
+        long key = key(col, row);
+        int mask = hashKeys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (hashKeys[i] == EMPTY) return -1;
+            if (hashKeys[i] == key) return hashSlots[i];
+        }
+    }
+
+    /**
+     * Gets the slot of a cell, creating the cell if necessary, and activates it.
+     * 
+     * @param col the column
+     * @param row the row
+     * @return the slot
+     * @throws IllegalArgumentException if an index is negative
+     */
+    private int activeSlot(int col, int row) {
+        if (col < 0 || row < 0) {
+            throw new IllegalArgumentException("Cell indices must not be negative, but got column %d and row %d".formatted(col, row));
+        }
+
+        int slot = find(col, row);
+        if (slot >= 0) return slot;
+
+        long area = (long) (Math.max(maxRow, row) + 1) * (Math.max(maxCol, col) + 1);
+        if (dense && area > MIN_SPARSE_AREA && area > (long) SPARSE_FACTOR * (numCells + 1)) {
+            toSparse();
+        } else if (!dense && area <= (long) DENSE_FACTOR * (numCells + 1)) {
+            toDense(Math.max(maxCol, col) + 1, Math.max(maxRow, row) + 1);
+        }
+
+        maxRow = Math.max(maxRow, row);
+        maxCol = Math.max(maxCol, col);
+        if (dense) {
+            if (col >= stride) {
+                relayout(col + 1, Math.max(rowCapacity, row + 1));
+            } else if (row >= rowCapacity) {
+                relayout(stride, Math.max(row + 1, 2 * rowCapacity));
+            }
+            slot = row * stride + col;
+        } else {
+            slot = insert(key(col, row));
+        }
+        numCells++;
+        flags[slot] = ACTIVE;
+        return slot;
+    }
+
+    /**
+     * Changes the dense layout to the given size.
+     * 
+     * @param newStride      the number of columns per row
+     * @param newRowCapacity the number of rows
+     */
+    private void relayout(int newStride, int newRowCapacity) {
+        int size = Math.multiplyExact(newStride, newRowCapacity);
+        String[] newEntries = new String[size];
+        String[] newColors = new String[size];
+        byte[] newFlags = new byte[size];
+        for (int row = 0; row < rowCapacity; row++) {
+            System.arraycopy(entries, row * stride, newEntries, row * newStride, stride);
+            System.arraycopy(colors, row * stride, newColors, row * newStride, stride);
+            System.arraycopy(flags, row * stride, newFlags, row * newStride, stride);
+        }
+        entries = newEntries;
+        colors = newColors;
+        flags = newFlags;
+        stride = newStride;
+        rowCapacity = newRowCapacity;
+    }
+
+    /** Changes from the dense to the sparse layout. */
+    private void toSparse() {
+        String[] oldEntries = entries;
+        String[] oldColors = colors;
+        byte[] oldFlags = flags;
+
+        int capacity = Math.max(16, 2 * numCells);
+        entries = new String[capacity];
+        colors = new String[capacity];
+        flags = new byte[capacity];
+        slotKeys = new long[capacity];
+        hashKeys = new long[Integer.highestOneBit(capacity) * 4];
+        hashSlots = new int[hashKeys.length];
+        Arrays.fill(hashKeys, EMPTY);
+
+        numCells = 0;
+        dense = false;
+        for (int slot = 0; slot < oldFlags.length; slot++) {
+            if (oldFlags[slot] == 0) continue;
+            int newSlot = insert(key(slot % stride, slot / stride));
+            entries[newSlot] = oldEntries[slot];
+            colors[newSlot] = oldColors[slot];
+            flags[newSlot] = oldFlags[slot];
+            numCells++;
+        }
+        stride = 0;
+        rowCapacity = 0;
+    }
+
+    /**
+     * Changes from the sparse to the dense layout.
+     * 
+     * @param cols the number of columns to allocate
+     * @param rows the number of rows to allocate
+     */
+    private void toDense(int cols, int rows) {
+        int size = Math.multiplyExact(cols, rows);
+        String[] newEntries = new String[size];
+        String[] newColors = new String[size];
+        byte[] newFlags = new byte[size];
+        for (int slot = 0; slot < numCells; slot++) {
+            long key = slotKeys[slot];
+            int newSlot = (int) (key >>> 32) * cols + (int) key;
+            newEntries[newSlot] = entries[slot];
+            newColors[newSlot] = colors[slot];
+            newFlags[newSlot] = flags[slot];
+        }
+        entries = newEntries;
+        colors = newColors;
+        flags = newFlags;
+        stride = cols;
+        rowCapacity = rows;
+        dense = true;
+        hashKeys = null;
+        hashSlots = null;
+        slotKeys = null;
+    }
+
+    /**
+     * Inserts a new cell in the sparse layout. The slot is the next free one, i.e.
+     * {@link #numCells} has to be incremented afterwards.
+     * 
+     * @param key the key of the cell
+     * @return the slot of the cell
+     */
+    private int insert(long key) {
+        int slot = numCells;
+        if (slot == slotKeys.length) {
+            int capacity = 2 * slotKeys.length;
+            entries = Arrays.copyOf(entries, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            slotKeys = Arrays.copyOf(slotKeys, capacity);
+        }
+        if (2 * (numCells + 1) > hashKeys.length) rehash(2 * hashKeys.length);
+
+        slotKeys[slot] = key;
+        int mask = hashKeys.length - 1;
+        int i = hash(key) & mask;
+        while (hashKeys[i] != EMPTY) i = (i + 1) & mask;
+        hashKeys[i] = key;
+        hashSlots[i] = slot;
+        return slot;
+    }
+
+    /**
+     * Rebuilds the hash table of the sparse layout with the given size.
+     * 
+     * @param size the new size, a power of 2
+     */
+    private void rehash(int size) {
+        hashKeys = new long[size];
+        hashSlots = new int[size];
+        Arrays.fill(hashKeys, EMPTY);
+        int mask = size - 1;
+        for (int slot = 0; slot < numCells; slot++) {
+            int i = hash(slotKeys[slot]) & mask;
+            while (hashKeys[i] != EMPTY) i = (i + 1) & mask;
+            hashKeys[i] = slotKeys[slot];
+            hashSlots[i] = slot;
+        }
+    }
+}
@@ -32,4 +32,27 @@ public enum TexCompiler {
     public String executableName() {
         return name().toLowerCase(Locale.ENGLISH);
     }
+
+    /**
+     * Gets the command line option that makes the compiler skip writing its
+     * output, while still writing the auxiliary files.
+     * 
+     * @return the option, or null if the compiler does not support it
+     */
+    String draftOption() {
+        return switch (this) {
+            case PDFLATEX, LUALATEX -> "-draftmode";
+            case XETEX -> "-no-pdf";
+            case LATEX -> null;
+        };
+    }
+
+    /**
+     * Gets the file extension of the document generated by the compiler.
+     * 
+     * @return the file extension, without the dot
+     */
+    String outputExtension() {
+        return this == LATEX ? "dvi" : "pdf";
+    }
 }
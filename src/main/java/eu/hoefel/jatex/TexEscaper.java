@@ -0,0 +1,261 @@
+package eu.hoefel.jatex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Escapes the characters that have a special meaning in LaTeX. The input is
+ * scanned only once and the replacements are looked up in a table, so strings
+ * that do not need any escaping are returned as they are, without any
+ * allocation.
+ * <p>
+ * The available characters depend on the compiler: lualatex and xelatex read
+ * UTF-8 natively, so only the ASCII characters with a special meaning in LaTeX
+ * need to be escaped. For pdflatex (and latex) some common non-ASCII characters
+ * are replaced by the corresponding text commands as well.
+ * 
+ * @author Udo Hoefel
+ * 
+ * @see Latex#escapeAllChars(String, TexCompiler)
+ * @see Latex#escapeChars(String, TexCompiler)
+ */
+public final class TexEscaper {
+
+    /** The replacements of the ASCII characters with a special meaning in LaTeX. */
+    private static final Map<Character, String> ASCII_SPECIALS = Map.of(
+            '\\', "\\textbackslash ",
+            '#',  "\\#",
+            '$',  "\\$",
+            '%',  "\\%",
+            '_',  "\\_",
+            '&',  "\\&",
+            '{',  "\\{",
+            '}',  "\\}",
+            '~',  "\\textasciitilde ",
+            '^',  "\\textasciicircum ");
+
+    /** The replacements of non-ASCII characters that pdflatex cannot typeset directly. */
+    private static final Map<Character, String> PDFTEX_SPECIALS = Map.of(
+            '\u00A0', "~",                    // no-break space
+            '\u00A9', "\\textcopyright{}",    // copyright sign
+            '\u00AE', "\\textregistered{}",   // registered sign
+            '\u00B0', "\\textdegree{}",       // degree sign
+            '\u00B1', "\\textpm{}",           // plus-minus sign
+            '\u00B5', "\\textmu{}",           // micro sign
+            '\u00D7', "\\texttimes{}",        // multiplication sign
+            '\u2026', "\\dots{}",             // horizontal ellipsis
+            '\u20AC', "\\texteuro{}",         // euro sign
+            '\u2122', "\\texttrademark{}");   // trade mark sign
+
+    /** The escaper for compilers that read UTF-8 natively. */
+    private static final TexEscaper UNICODE = new TexEscaper(ASCII_SPECIALS);
+
+    /** The escaper for compilers that need text commands for some non-ASCII characters. */
+    private static final TexEscaper PDFTEX = new TexEscaper(ASCII_SPECIALS, PDFTEX_SPECIALS);
+
+    /** The size of the directly indexed part of the lookup table. */
+    private static final int TABLE_SIZE = 256;
+
+    /** The replacements for characters below {@link #TABLE_SIZE}, null if none. */
+    private final String[] table = new String[TABLE_SIZE];
+
+    /** The sorted characters at or above {@link #TABLE_SIZE} that get replaced. */
+    private final char[] wideChars;
+
+    /** The replacements corresponding to {@link #wideChars}. */
+    private final String[] wideReplacements;
+
+    /**
+     * Constructor.
+     * 
+     * @param replacements the replacements per character
+     */
+    @SafeVarargs
+    private TexEscaper(Map<Character, String>... replacements) {
+        Map<Character, String> wide = new TreeMap<>();
+        for (Map<Character, String> map : replacements) {
+            for (var replacement : map.entrySet()) {
+                char c = replacement.getKey();
+                if (c < TABLE_SIZE) {
+                    table[c] = replacement.getValue();
+                } else {
+                    wide.put(c, replacement.getValue());
+                }
+            }
+        }
+
+        wideChars = new char[wide.size()];
+        wideReplacements = new String[wide.size()];
+        int i = 0;
+        for (var replacement : wide.entrySet()) {
+            wideChars[i] = replacement.getKey();
+            wideReplacements[i] = replacement.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Gets the escaper suitable for the given compiler.
+     * 
+     * @param compiler the compiler, not {@code null}
+     * @return the escaper
+     */
+    public static TexEscaper of(TexCompiler compiler) {
+        return switch (Objects.requireNonNull(compiler)) {
+            case LATEX, PDFLATEX -> PDFTEX;
+            case XETEX, LUALATEX -> UNICODE;
+        };
+    }
+
+    /**
+     * Gets the replacement of the given character.
+     * 
+     * @param c the character
+     * @return the replacement, or null if the character does not need escaping
+     */
+    private String replacement(char c) {
+        if (c < TABLE_SIZE) return table[c];
+        int i = Arrays.binarySearch(wideChars, c);
+        return i < 0 ? null : wideReplacements[i];
+    }
+
+    /**
+     * Gets the index of the first character that needs escaping.
+     * 
+     * @param input     the input
+     * @param mathAware whether to skip inline math, i.e. everything within
+     *                  {@code $...$}
+     * @return the index of the first character that needs escaping, or -1 if none
+     *         needs escaping
+     */
+    private int firstEscape(CharSequence input, boolean mathAware) {
+        boolean mathmodeActive = false;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (mathAware && c == '$') {
+                mathmodeActive ^= true;
+            } else if (!mathmodeActive && replacement(c) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the given input contains any characters that need escaping.
+     * 
+     * @param input the input
+     * @return true if at least one character needs escaping
+     */
+    public boolean needsEscaping(CharSequence input) {
+        return firstEscape(input, false) >= 0;
+    }
+
+    /**
+     * Escapes all characters with a special meaning in LaTeX.
+     * 
+     * @param input the input
+     * @return the escaped input, or the input itself if nothing needs escaping
+     */
+    public String escape(String input) {
+        return escape(input, false);
+    }
+
+    /**
+     * Escapes all characters with a special meaning in LaTeX, as long as they are
+     * not within inline math, i.e. within {@code $...$}. This could be made more
+     * fancy, but should work pretty well in most cases.
+     * 
+     * @param input the input
+     * @return the escaped input, or the input itself if nothing needs escaping
+     */
+    public String escapeOutsideMath(String input) {
+        return escape(input, true);
+    }
+
+    /**
+     * Escapes the characters with a special meaning in LaTeX.
+     * 
+     * @param input     the input
+     * @param mathAware whether to skip inline math
+     * @return the escaped input, or the input itself if nothing needs escaping
+     */
+    private String escape(String input, boolean mathAware) {
+        int first = firstEscape(input, mathAware);
+        if (first < 0) return input;
+
+        StringBuilder sb = new StringBuilder(input.length() + 16);
+        sb.append(input, 0, first);
+        write(input, first, mathAware, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the given input with all characters with a special meaning in LaTeX
+     * escaped to the given Appendable, e.g. a {@link StringBuilder}.
+     * 
+     * @param <T>   the type of the appendable
+     * @param input the input
+     * @param out   the Appendable to append to
+     * @return the Appendable
+     * @throws UncheckedIOException if writing to the Appendable fails
+     */
+    public <T extends Appendable> T escape(CharSequence input, T out) {
+        write(input, 0, false, out);
+        return out;
+    }
+
+    /**
+     * Appends the given input to the given Appendable, with all characters with a
+     * special meaning in LaTeX escaped as long as they are not within inline math,
+     * i.e. within {@code $...$}.
+     * 
+     * @param <T>   the type of the appendable
+     * @param input the input
+     * @param out   the Appendable to append to
+     * @return the Appendable
+     * @throws UncheckedIOException if writing to the Appendable fails
+     */
+    public <T extends Appendable> T escapeOutsideMath(CharSequence input, T out) {
+        write(input, 0, true, out);
+        return out;
+    }
+
+    /**
+     * Writes the escaped input, starting at the given index, to the given sink.
+     * Unescaped runs of characters are written in one go.
+     * 
+     * @param input     the input
+     * @param from      the index to start at, which must not be within inline math
+     * @param mathAware whether to skip inline math
+     * @param out       the sink to write to
+     * @throws UncheckedIOException if writing to the sink fails
+     */
+    private void write(CharSequence input, int from, boolean mathAware, Appendable out) {
+        try {
+            boolean mathmodeActive = false;
+            int runStart = from;
+            for (int i = from; i < input.length(); i++) {
+                char c = input.charAt(i);
+                if (mathAware && c == '$') {
+                    mathmodeActive ^= true;
+                    continue;
+                }
+                if (mathmodeActive) continue;
+
+                String replacement = replacement(c);
+                if (replacement != null) {
+                    out.append(input, runStart, i).append(replacement);
+                    runStart = i + 1;
+                }
+            }
+            out.append(input, runStart, input.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package eu.hoefel.jatex;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sink for lines of LaTeX code. A line is built up via (typically) one call to
+ * {@link #indent(int)}, followed by an arbitrary number of calls to
+ * {@link #append(CharSequence)}, and it gets terminated by {@link #endLine()}.
+ * This allows {@link Texable texables} to write their code directly to the
+ * final destination, even if they are nested in other texables, see
+ * {@link Texable#render(TexSink, int)}.
+ * 
+ * @author Udo Hoefel
+ */
+public interface TexSink {
+
+    /**
+     * Appends the indentation for the given indentation level to the current line.
+     * 
+     * @param level the indentation level, see {@link Latex#indent(int)}
+     * @return the sink
+     */
+    public TexSink indent(int level);
+
+    /**
+     * Appends code to the current line.
+     * 
+     * @param code the code to append
+     * @return the sink
+     */
+    public TexSink append(CharSequence code);
+
+    /**
+     * Appends a number to the current line, formatted as by
+     * {@link Double#toString(double)}. Implementations should avoid creating
+     * intermediate strings.
+     * 
+     * @param value the number to append
+     * @return the sink
+     */
+    public default TexSink append(double value) {
+        return append(Double.toString(value));
+    }
+
+    /**
+     * Appends a number to the current line, formatted as by
+     * {@link Float#toString(float)}. Implementations should avoid creating
+     * intermediate strings.
+     * 
+     * @param value the number to append
+     * @return the sink
+     */
+    public default TexSink append(float value) {
+        return append(Float.toString(value));
+    }
+
+    /**
+     * Appends a number to the current line, formatted as by
+     * {@link Long#toString(long)}. Implementations should avoid creating
+     * intermediate strings.
+     * 
+     * @param value the number to append
+     * @return the sink
+     */
+    public default TexSink append(long value) {
+        return append(Long.toString(value));
+    }
+
+    /**
+     * Appends a number to the current line, formatted according to the given
+     * format. Implementations should avoid creating intermediate strings.
+     * 
+     * @param value  the number to append
+     * @param format the format, not {@code null}
+     * @return the sink
+     */
+    public default TexSink append(double value, CoordinateFormat format) {
+        return append(format.format(value, new StringBuilder()));
+    }
+
+    /**
+     * Appends a number to the current line, formatted according to the given
+     * format. Implementations should avoid creating intermediate strings.
+     * 
+     * @param value  the number to append
+     * @param format the format, not {@code null}
+     * @return the sink
+     */
+    public default TexSink append(float value, CoordinateFormat format) {
+        return append(format.format(value, new StringBuilder()));
+    }
+
+    /**
+     * Appends a character to the current line.
+     * 
+     * @param c the character to append
+     * @return the sink
+     */
+    public default TexSink append(char c) {
+        return append(String.valueOf(c));
+    }
+
+    /**
+     * Terminates the current line.
+     * 
+     * @return the sink
+     */
+    public TexSink endLine();
+
+    /**
+     * Writes a whole line of code with the given indentation level.
+     * 
+     * @param level the indentation level, see {@link Latex#indent(int)}
+     * @param code  the code of the line
+     * @return the sink
+     */
+    public default TexSink line(int level, CharSequence code) {
+        return indent(level).append(code).endLine();
+    }
+
+    /**
+     * Gets the folder of the document the lines are written to. Relative paths
+     * in the code, like the ones of the sidecar data files of
+     * {@link PgfPlots#dataFolder(String) plots}, are resolved against it.
+     * 
+     * @return the folder, or null if the lines are not written to a saved
+     *         document (the default)
+     */
+    public default Path folder() {
+        return null;
+    }
+
+    /**
+     * Writes a file along with the document the lines are written to, like the
+     * sidecar data files of {@link PgfPlots#dataFolder(String) plots}. The file
+     * is written in the background, and writing the document waits for it and
+     * reports the errors of writing it. The default implementation does not write
+     * the file, as the lines are not written to a saved document.
+     * 
+     * @param file    the file, resolved against the {@link #folder() folder} if
+     *                relative. It needs to be named after the hash of its
+     *                content, as it is not written again if it exists.
+     * @param content writes the content of the file to the sink given to it
+     * @return true if the file gets written
+     */
+    public default boolean sidecar(Path file, Consumer<TexSink> content) {
+        return false;
+    }
+
+    /**
+     * Writes lines of code that only need to be generated once the destination
+     * of the sink gets written, like the rows of large data sets. Sinks that keep
+     * the lines for later, like the body of a {@link Latex} document, store the
+     * code instead and run it when writing, so the lines are never held in
+     * memory. The default implementation generates the lines immediately. Must
+     * only be called at the start of a line.
+     * 
+     * @param code writes the lines to the sink given to it
+     * @return the sink
+     */
+    public default TexSink defer(Consumer<TexSink> code) {
+        code.accept(this);
+        return this;
+    }
+
+    /**
+     * Creates a sink that writes the lines directly to the given appendable,
+     * separated by line breaks. Each line gets written in one go once it is
+     * complete. Note that the appendable does not get flushed or closed.
+     * 
+     * @param out the appendable to write to, e.g. a {@link java.io.Writer} or a
+     *            {@link StringBuilder}
+     * @return the sink
+     * @throws java.io.UncheckedIOException if writing to the appendable fails
+     */
+    public static TexSink of(Appendable out) {
+        return new AppendableTexSink(out);
+    }
+
+    /**
+     * Creates a sink that adds every line to the given list.
+     * 
+     * @param lines the list to add the lines to
+     * @return the sink
+     */
+    public static TexSink of(List<? super String> lines) {
+        return new ListTexSink(lines);
+    }
+}
@@ -37,4 +37,34 @@ public interface Texable {
      * @return the lines of code
      */
     public List<String> latexCode();
+
+    /**
+     * Indicates whether the code should only be generated when the document
+     * containing this texable gets written, e.g. because it is streamed from a
+     * large source. If true, {@link Latex#add(Texable...)} keeps the texable
+     * itself instead of its lines of code, so changes made to it afterwards show
+     * up in the document. The default is false, i.e. the code gets generated
+     * immediately.
+     * 
+     * @return true if the code should be generated when writing the document
+     */
+    public default boolean isRenderedLazily() {
+        return false;
+    }
+
+    /**
+     * Writes the lines of LaTeX code to the given sink, with every line indented
+     * by {@code indentLevel} additional levels. This allows nesting texables without
+     * copying their lines. The default implementation writes the lines of
+     * {@link #latexCode()}, so implementations should override it to write their
+     * code directly to the sink.
+     * 
+     * @param sink        the sink to write to
+     * @param indentLevel the additional indentation level of every line
+     */
+    public default void render(TexSink sink, int indentLevel) {
+        for (String line : latexCode()) {
+            sink.line(indentLevel, line);
+        }
+    }
 }
@@ -1,7 +1,6 @@
 package eu.hoefel.jatex;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -17,8 +16,46 @@ import eu.hoefel.utils.Strings;
  */
 public final class Tikz implements Texable {
 
+    /** A line of the tikzpicture, or the lines of a plot. */
+    private static sealed interface Line {
+
+        /**
+         * Writes the line(s) to the given sink.
+         * 
+         * @param sink        the sink to write to
+         * @param indentLevel the indentation level of the line(s)
+         * @param lineEnd     the string to append to every line, e.g. "%"
+         */
+        void render(TexSink sink, int indentLevel, String lineEnd);
+    }
+
+    /**
+     * A line of code.
+     * 
+     * @param code the code
+     */
+    private static record Code(String code) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel, String lineEnd) {
+            sink.indent(indentLevel).append(code).append(lineEnd).endLine();
+        }
+    }
+
+    /**
+     * A plot, whose code gets written only once the tikzpicture gets written.
+     * 
+     * @param plot the plot
+     */
+    private static record Plot(PgfPlots plot) implements Line {
+        @Override
+        public void render(TexSink sink, int indentLevel, String lineEnd) {
+            plot.render(lineEnd.isEmpty() ? sink : new LineEndTexSink(sink, lineEnd), indentLevel);
+        }
+    }
+
     private List<String> options = new ArrayList<>();
-    private List<String> lines = new ArrayList<>();
+    /** The lines of code and the plots. */
+    private List<Line> lines = new ArrayList<>();
     private String fname = null;
     private List<LatexPackage> packages = new ArrayList<>();
     private List<LatexPreambleEntry> preambleEntries = new ArrayList<>();
@@ -37,7 +74,7 @@ public final class Tikz implements Texable {
     public Tikz plot(PgfPlots plot) {
         packages.addAll(plot.neededPackages());
         preambleEntries.addAll(plot.preambleExtras());
-        lines.addAll(plot.latexCode());
+        lines.add(new Plot(new PgfPlots(plot)));
         return this;
     }
 
@@ -60,7 +97,9 @@ public final class Tikz implements Texable {
      * @return the Tikz object
      */
     public Tikz add(String... lines) {
-        Collections.addAll(this.lines, lines);
+        for (String line : lines) {
+            this.lines.add(new Code(line));
+        }
         return this;
     }
 
@@ -242,24 +281,45 @@ public final class Tikz implements Texable {
 
     @Override
     public List<String> latexCode() {
+        List<String> ret = new ArrayList<>();
+        render(TexSink.of(ret), 0);
+        return ret;
+    }
+
+    @Override
+    public void render(TexSink sink, int indentLevel) {
+        render(sink, indentLevel, indentLevel, "");
+    }
+
+    /**
+     * Writes the tikzpicture to the given sink. The first and the last line are
+     * indented by {@code outerLevel} additional levels, all other lines by
+     * {@code innerLevel} additional levels.
+     * 
+     * @param sink       the sink to write to
+     * @param outerLevel the additional indentation level of the first and the last
+     *                   line
+     * @param innerLevel the additional indentation level of all other lines
+     * @param lineEnd    the string to append to every line, e.g. "%"
+     */
+    void render(TexSink sink, int outerLevel, int innerLevel, String lineEnd) {
         int outer = 1;
 
-        List<String> ret = new ArrayList<>();
+        int beginLevel = outerLevel;
         if (fname != null) {
-            ret.add(Latex.indent(outer) + "\\tikzsetnextfilename{" + fname + "}");
+            sink.indent(outerLevel + outer).append("\\tikzsetnextfilename{").append(fname).append("}").append(lineEnd).endLine();
+            beginLevel = innerLevel;
         }
-        ret.add(Latex.indent(outer) + "\\begin{tikzpicture}");
-        ret.add(Latex.indent(outer + 1) + "[");
+        sink.indent(beginLevel + outer).append("\\begin{tikzpicture}").append(lineEnd).endLine();
+        sink.indent(innerLevel + outer + 1).append("[").append(lineEnd).endLine();
         for (String option : options) {
-            ret.add(Latex.indent(outer + 2) + option + ",");
+            sink.indent(innerLevel + outer + 2).append(option).append(",").append(lineEnd).endLine();
         }
-        ret.add(Latex.indent(outer + 1) + "]");
-        ret.add("");
-        for (String line : lines) {
-            ret.add(Latex.indent(outer + 1) + line);
+        sink.indent(innerLevel + outer + 1).append("]").append(lineEnd).endLine();
+        sink.indent(innerLevel).append(lineEnd).endLine();
+        for (Line line : lines) {
+            line.render(sink, innerLevel + outer + 1, lineEnd);
         }
-        ret.add(Latex.indent(outer) + "\\end{tikzpicture}");
-
-        return ret;
+        sink.indent(outerLevel + outer).append("\\end{tikzpicture}").append(lineEnd).endLine();
     }
 }
@@ -7,7 +7,10 @@ import java.time.ZoneId;
 import java.util.Calendar;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import eu.hoefel.jatex.CompileResult;
 import eu.hoefel.jatex.Latex;
 import eu.hoefel.jatex.LatexPackage;
 import eu.hoefel.jatex.TexCompiler;
@@ -48,6 +51,7 @@ public final class KomaLetter {
     private String[] body;
 
     private Path file;
+    private String formatFolder;
 
     /** Hiding any public constructor. */
     private KomaLetter() {
@@ -208,6 +212,19 @@ public final class KomaLetter {
         return this;
     }
 
+    /**
+     * Sets the folder for precompiled preambles, so that the packages of the
+     * letter do not need to be loaded anew for every letter.
+     * 
+     * @param folder the folder of the format files, or null to not use formats
+     * @return the current KOMA letter instance
+     * @see Latex#preambleFormat(String)
+     */
+    public KomaLetter preambleFormat(String folder) {
+        this.formatFolder = folder;
+        return this;
+    }
+
     /**
      * Sets the title of the letter.
      * 
@@ -487,6 +504,28 @@ public final class KomaLetter {
      *         if an error occurred
      */
     public int exec() {
+        return latex().exec();
+    }
+
+    /**
+     * Generates the letter corresponding to the LaTeX content, without blocking
+     * the calling thread.
+     * 
+     * @param executor the executor for saving the letter and for the work
+     *                 between the compiler passes
+     * @return the result of the compilation
+     * @see Latex#execAsync(Executor)
+     */
+    public CompletableFuture<CompileResult> execAsync(Executor executor) {
+        return latex().execAsync(executor);
+    }
+
+    /**
+     * Creates the LaTeX document of the letter.
+     * 
+     * @return the LaTeX document
+     */
+    private Latex latex() {
         if (date == null) {
             date = LocalDate.now();
         }
@@ -576,7 +615,7 @@ public final class KomaLetter {
         tex.add("");
 
         tex.clean(clean, cleanupFileExtensions);
-
-        return tex.exec();
+        tex.preambleFormat(formatFolder);
+        return tex;
     }
 }
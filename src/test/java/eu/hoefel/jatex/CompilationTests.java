@@ -0,0 +1,258 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link Compilation}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class CompilationTests {
+
+    @DisplayName("Detecting features that need multiple passes")
+    @Test
+    void testNeedsAuxiliaryPasses() {
+        assertFalse(Compilation.needsAuxiliaryPasses(List.of()));
+        assertFalse(Compilation.needsAuxiliaryPasses(List.of("Some text", "\\section{Intro}", "$x^2$")));
+        assertFalse(Compilation.needsAuxiliaryPasses(List.of("\\labelsep=2pt", "\\refstepcounter{x}")));
+
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of("see \\cref{fig:a}")));
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of("\\label{eq:x}")));
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of("as in \\textcite{knuth}")));
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of("\\tableofcontents")));
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of("\\begin{longtable}{ll}")));
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of(Table.streaming("l").rows(List.<String[]>of(new String[] { "a" })))));
+
+        Latex tex = Latex.minimal();
+        tex.lot();
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of(tex.toString())));
+    }
+
+    @DisplayName("Detecting rerun requests in the log")
+    @Test
+    void testRequestsRerun(@TempDir Path folder) throws IOException {
+        Path log = folder.resolve("doc.log");
+        assertFalse(Compilation.requestsRerun(log));
+
+        Files.writeString(log, "Package rerunfilecheck Info: File `doc.out' has not changed.\n");
+        assertFalse(Compilation.requestsRerun(log));
+
+        Files.writeString(log, "Package: rerunfilecheck 2022/07/10 v1.10 Rerun checks for auxiliary files (HO)\n");
+        assertFalse(Compilation.requestsRerun(log));
+
+        Files.writeString(log, "Package biblatex Warning: Please rerun LaTeX.\n");
+        assertTrue(Compilation.requestsRerun(log));
+
+        Files.writeString(log, "LaTeX Warning: Label(s) may have changed. Rerun to get cross-references right.\n");
+        assertTrue(Compilation.requestsRerun(log));
+
+        Files.writeString(log, "Package longtable Warning: Table widths have changed. Rerun LaTeX.\n");
+        assertTrue(Compilation.requestsRerun(log));
+    }
+
+    @DisplayName("Compiling without a format that cannot be loaded")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testStaleFormat(@TempDir Path folder) throws IOException {
+        Path fmt = Files.writeString(folder.resolve("stale.fmt"), "not a format");
+        Latex tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("stale.tex");
+        tex.add("Hello");
+        Compilation compilation = new Compilation(TexCompiler.PDFLATEX, tex.getFolder(), tex.save(), null, 1, false, false, false)
+                .format(folder.resolve("stale"));
+        assertEquals(0, compilation.run());
+        assertFalse(Files.exists(fmt));
+    }
+
+    @DisplayName("Compiling simple documents in a single pass")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testAdaptivePasses(@TempDir Path folder) {
+        Latex tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("simple.tex");
+        tex.add("Hello");
+        Compilation compilation = new Compilation(TexCompiler.PDFLATEX, tex.getFolder(), tex.save(), null, 3, true, true, false);
+        assertEquals(0, compilation.run());
+        assertEquals(1, compilation.passes());
+
+        tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("toc.tex");
+        tex.toc();
+        tex.add("\\section{Intro}");
+        compilation = new Compilation(TexCompiler.PDFLATEX, tex.getFolder(), tex.save(), null, 3, true, true, true);
+        assertEquals(0, compilation.run());
+        assertTrue(compilation.passes() >= 2);
+        assertTrue(Files.isRegularFile(folder.resolve("toc.pdf")));
+    }
+
+    @DisplayName("Writing the output only in the final pass")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testDraftPasses(@TempDir Path folder) {
+        Latex tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("draft.tex");
+        tex.add("Hello");
+        Compilation compilation = new Compilation(TexCompiler.PDFLATEX, tex.getFolder(), tex.save(), null, 2, false, true, false);
+        assertEquals(0, compilation.run());
+        assertEquals(2, compilation.passes());
+        assertTrue(Files.isRegularFile(folder.resolve("draft.pdf")));
+    }
+
+    @DisplayName("Reusing cached bibliographies")
+    @Test
+    void testBibliographyCache(@TempDir Path folder) throws IOException {
+        Path bib = Files.writeString(folder.resolve("refs.bib"), "@book{knuth, title = {TeX}}");
+        byte[] bcf = "<bcf:citekey>knuth</bcf:citekey>".getBytes(StandardCharsets.UTF_8);
+        Files.write(folder.resolve("doc.bcf"), bcf);
+
+        String key = Compilation.sha256(Compilation.sha256(bcf).getBytes(StandardCharsets.US_ASCII), Files.readAllBytes(bib));
+        Path cached = Files.createDirectories(folder.resolve(Compilation.BBL_CACHE)).resolve(key + ".bbl");
+        Files.writeString(cached, "\\entry{knuth}");
+
+        Compilation compilation = new Compilation(TexCompiler.LUALATEX, folder.toString() + "/",
+                folder.resolve("doc.tex").toString(), bib, 3, true, true, true);
+        compilation.updateBibliography().join();
+        Path bbl = folder.resolve("doc.bbl");
+        assertEquals("\\entry{knuth}", Files.readString(bbl));
+
+        // unchanged .bcf, so nothing to do
+        Files.delete(bbl);
+        compilation.updateBibliography().join();
+        assertFalse(Files.exists(bbl));
+
+        // shared via the compile cache, without counting as a compiled document
+        CompileCache cache = new CompileCache(folder.resolve("cache").toString(), 1_000);
+        Files.createDirectories(folder.resolve("cache"));
+        Files.move(cached, cache.files().file(key, "bbl"));
+        Compilation other = new Compilation(TexCompiler.LUALATEX, folder.toString() + "/",
+                folder.resolve("doc.tex").toString(), bib, 3, true, true, true).bibliographyCache(cache.files());
+        other.updateBibliography().join();
+        assertEquals("\\entry{knuth}", Files.readString(bbl));
+        assertEquals(0, cache.hits());
+    }
+
+    @DisplayName("Draft mode defaults")
+    @Test
+    void testDraftPassesDefaults() {
+        assertFalse(Latex.minimal().isDraftPasses());
+        assertTrue(Latex.minimal().adaptive(true).isDraftPasses());
+        assertFalse(Latex.minimal().adaptive(true).draftPasses(false).isDraftPasses());
+        assertTrue(Latex.minimal().draftPasses(true).isDraftPasses());
+        assertEquals("-draftmode", TexCompiler.LUALATEX.draftOption());
+        assertEquals("-no-pdf", TexCompiler.XETEX.draftOption());
+    }
+
+    @DisplayName("Restoring cached documents asynchronously")
+    @Test
+    void testAsyncCached(@TempDir Path folder) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        CompileCache cache = new CompileCache(folder.resolve("cache").toString(), 1L << 20);
+        Latex tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("async.tex");
+        tex.cache(cache);
+        tex.add("Hello");
+
+        String key = CompileCache.key(List.of(tex.getCompiler().name(), Integer.toString(tex.getRepeat()), Boolean.toString(tex.isAdaptive())),
+                Path.of(tex.save()), List.of(), folder);
+        cache.store(key, tex.getCompiler().outputExtension(), Files.writeString(folder.resolve("cached.pdf"), "%PDF"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompileResult result = tex.execAsync(executor).get(10, TimeUnit.SECONDS);
+            assertTrue(result.isSuccess());
+            assertEquals(0, result.passes());
+            assertEquals("%PDF", Files.readString(result.pdf()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @DisplayName("Doing the work between the passes on the waiting thread")
+    @Test
+    void testCallingThread() throws InterruptedException, ExecutionException {
+        CallingThreadExecutor executor = new CallingThreadExecutor();
+        CompletableFuture<Void> exited = new CompletableFuture<>();
+        CompletableFuture<Thread> stage = exited.thenApplyAsync(v -> Thread.currentThread(), executor);
+        // like a process exiting, which completes its future on another thread
+        new Thread(() -> exited.complete(null)).start();
+        assertSame(Thread.currentThread(), executor.join(stage));
+    }
+
+    @DisplayName("Compiling asynchronously")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testAsync(@TempDir Path folder) throws InterruptedException, ExecutionException, TimeoutException {
+        Latex tex = Latex.minimal();
+        tex.compiler(TexCompiler.PDFLATEX);
+        tex.folder(folder.toString());
+        tex.filename("async.tex");
+        tex.adaptive(true);
+        tex.add("Hello");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompileResult result = tex.execAsync(executor).get(1, TimeUnit.MINUTES);
+            assertTrue(result.isSuccess());
+            assertEquals(1, result.passes());
+            assertEquals(folder.resolve("async.pdf").toAbsolutePath(), result.pdf().toAbsolutePath());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @DisplayName("Killing the compiler when cancelling")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testCancel(@TempDir Path folder) throws InterruptedException {
+        Latex tex = Latex.minimal();
+        tex.compiler(TexCompiler.PDFLATEX);
+        tex.folder(folder.toString());
+        tex.filename("endless.tex");
+        tex.add("\\newcount\\n \\loop\\advance\\n by 1 \\ifnum\\n>0 \\repeat");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<CompileResult> result = tex.execAsync(executor);
+            ProcessHandle compiler = null;
+            for (int i = 0; i < 200 && compiler == null; i++) {
+                compiler = ProcessHandle.current().children().findAny().orElse(null);
+                if (compiler == null) Thread.sleep(50);
+            }
+            assertNotNull(compiler);
+
+            assertTrue(result.cancel(true));
+            assertTrue(result.isCancelled());
+            for (int i = 0; i < 200 && compiler.isAlive(); i++) {
+                Thread.sleep(50);
+            }
+            assertFalse(compiler.isAlive());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
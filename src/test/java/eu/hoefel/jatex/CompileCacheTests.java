@@ -0,0 +1,141 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link CompileCache}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class CompileCacheTests {
+
+    @DisplayName("Keying documents by their content and inputs")
+    @Test
+    void testKey(@TempDir Path folder) throws IOException {
+        Path tex = Files.writeString(folder.resolve("doc.tex"), "\\documentclass{article}");
+        Path image = Files.writeString(folder.resolve("image.png"), "png");
+        List<String> settings = List.of("LUALATEX", "3");
+
+        String key = CompileCache.key(settings, tex, List.of(folder.resolve("image")), folder);
+        assertEquals(key, CompileCache.key(settings, tex, List.of(folder.resolve("image")), folder));
+        assertNotEquals(key, CompileCache.key(List.of("PDFLATEX", "3"), tex, List.of(folder.resolve("image")), folder));
+        assertNotEquals(key, CompileCache.key(settings, tex, List.of(), folder));
+
+        Files.writeString(image, "another png");
+        String changedImage = CompileCache.key(settings, tex, List.of(folder.resolve("image")), folder);
+        assertNotEquals(key, changedImage);
+
+        Files.writeString(tex, "\\documentclass{scrartcl}");
+        String changedTex = CompileCache.key(settings, tex, List.of(folder.resolve("image")), folder);
+        assertNotEquals(changedImage, changedTex);
+
+        // relative inputs are found in the folder of the document like by the compiler
+        Path relative = Path.of("image");
+        assertFalse(Files.exists(relative));
+        String relativeKey = CompileCache.key(settings, tex, List.of(relative), folder);
+        Files.writeString(image, "yet another png");
+        assertNotEquals(relativeKey, CompileCache.key(settings, tex, List.of(relative), folder));
+
+        // files are hashed without reading them into memory
+        assertEquals(Compilation.sha256(Files.readAllBytes(image)), CompileCache.sha256(image));
+
+        // documents with missing inputs are not cached
+        assertNull(CompileCache.key(settings, tex, List.of(Path.of("missing")), folder));
+    }
+
+    @DisplayName("Restoring cached documents")
+    @Test
+    void testRestore(@TempDir Path folder) throws IOException {
+        CompileCache cache = new CompileCache(folder.resolve("cache").toString(), 1_000);
+        Path pdf = Files.writeString(folder.resolve("doc.pdf"), "%PDF");
+        Path target = folder.resolve("restored.pdf");
+
+        assertFalse(cache.restore("key", "pdf", target));
+        cache.store("key", "pdf", pdf);
+        assertTrue(cache.restore("key", "pdf", target));
+        assertEquals("%PDF", Files.readString(target));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(4, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @DisplayName("Evicting the least recently used documents")
+    @Test
+    void testEviction(@TempDir Path folder) throws IOException {
+        Path cacheFolder = folder.resolve("cache");
+        CompileCache cache = new CompileCache(cacheFolder.toString(), 25);
+        Path pdf = Files.writeString(folder.resolve("doc.pdf"), "0123456789");
+
+        cache.store("a", "pdf", pdf);
+        Files.setLastModifiedTime(cacheFolder.resolve("a.pdf"), FileTime.fromMillis(1_000));
+        cache.store("b", "pdf", pdf);
+        Files.setLastModifiedTime(cacheFolder.resolve("b.pdf"), FileTime.fromMillis(2_000));
+
+        // using "a" makes "b" the least recently used one
+        assertTrue(cache.restore("a", "pdf", folder.resolve("restored.pdf")));
+        cache.store("c", "pdf", pdf);
+
+        assertTrue(Files.exists(cacheFolder.resolve("a.pdf")));
+        assertFalse(Files.exists(cacheFolder.resolve("b.pdf")));
+        assertTrue(Files.exists(cacheFolder.resolve("c.pdf")));
+        assertEquals(20, cache.size());
+    }
+
+    @DisplayName("Restoring cached documents without externalizing their figures")
+    @Test
+    void testCachedExternalFigures(@TempDir Path folder) throws IOException {
+        CompileCache cache = new CompileCache(folder.resolve("cache").toString(), 1L << 20);
+        Latex tex = Latex.minimal();
+        tex.folder(folder.toString());
+        tex.filename("figures.tex");
+        tex.cache(cache);
+        tex.externalizeConcurrently("graphics", 2);
+        tex.add(new Figure().tikz(new Tikz().add("\\draw (0,0) circle (1);")));
+
+        List<String> settings = List.of(tex.getCompiler().name(), Integer.toString(tex.getRepeat()), Boolean.toString(tex.isAdaptive()));
+        String key = CompileCache.key(settings, Path.of(tex.save()), List.of(), folder);
+        cache.store(key, tex.getCompiler().outputExtension(), Files.writeString(folder.resolve("cached.pdf"), "%PDF"));
+
+        assertEquals(0, tex.exec());
+        assertEquals(1, cache.hits());
+        assertFalse(Files.exists(folder.resolve("graphics")));
+        assertTrue(Files.readString(folder.resolve("figures.tex")).contains("\\begin{tikzpicture}"));
+    }
+
+    @DisplayName("Skipping the compilation of unchanged documents")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testUnchangedDocument(@TempDir Path folder) {
+        CompileCache cache = new CompileCache(folder.resolve("cache").toString(), 1L << 30);
+        Latex tex = Latex.minimal();
+        tex.compiler(TexCompiler.PDFLATEX);
+        tex.folder(folder.toString());
+        tex.filename("cached.tex");
+        tex.cache(cache);
+        tex.add("Hello");
+
+        assertEquals(0, tex.exec());
+        assertEquals(0, tex.exec());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        assertTrue(Files.isRegularFile(folder.resolve("cached.pdf")));
+    }
+}
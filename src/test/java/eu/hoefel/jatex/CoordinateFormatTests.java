@@ -0,0 +1,93 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Tests for the CoordinateFormat class.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class CoordinateFormatTests {
+
+    @ParameterizedTest(name = "Testing formatting of {0} with 6 significant digits")
+    @CsvSource({
+        "3.0,                   3",
+        "-2.5,                  -2.5",
+        "0.1,                   0.1",
+        "0.3333333333333333,    0.333333",
+        "100,                   100",
+        "123456,                123456",
+        "1234567,               1.23457e6",
+        "999999.7,              1e6",
+        "0.0001234567,          0.000123457",
+        "1e-5,                  1e-5",
+        "0,                     0",
+        "1.7976931348623157E308, 1.79769e308",
+        "4.9E-324,              4.94066e-324",
+        "NaN,                   nan",
+        "-Infinity,             -inf"
+    })
+    void significantDigits(double value, String expected) {
+        CoordinateFormat format = CoordinateFormat.ofSignificantDigits(6);
+        assertEquals(expected, format.format(value));
+    }
+
+    @ParameterizedTest(name = "Testing rounding of {0} to {1} significant digits")
+    @CsvSource({
+        "0.705,              2, 0.7",
+        "0.7050000000000001, 2, 0.71",
+        "-0.705,             2, -0.7",
+        "1.15,               2, 1.1",
+        "8.055,              3, 8.05",
+        "0.125,              2, 0.13",
+        "2.5,                1, 3",
+        "9.5,                1, 1e1",
+        "1.0000000000000005, 15, 1",
+        "123456789012345.5,  15, 123456789012346"
+    })
+    void ties(double value, int digits, String expected) {
+        assertEquals(expected, CoordinateFormat.ofSignificantDigits(digits).format(value));
+        assertEquals(new BigDecimal(value).round(new MathContext(digits)).doubleValue(), Double.parseDouble(expected));
+    }
+
+    @Test
+    @DisplayName("Testing rounding against BigDecimal")
+    void rounding() {
+        Random random = new Random(42);
+        for (int digits = 1; digits <= 15; digits++) {
+            CoordinateFormat format = CoordinateFormat.ofSignificantDigits(digits);
+            MathContext mc = new MathContext(digits);
+            for (int i = 0; i < 1000; i++) {
+                double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+                assertEquals(new BigDecimal(value).round(mc).doubleValue(), Double.parseDouble(format.format(value)),
+                        "%s with %d digits".formatted(value, digits));
+
+                // values with few decimals are often stored slightly below or above a tie
+                double tie = Math.round(value * 1e4) / 1e4 + 5e-5;
+                assertEquals(new BigDecimal(tie).round(mc).doubleValue(), Double.parseDouble(format.format(tie)),
+                        "%s with %d digits".formatted(tie, digits));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Testing round trip format")
+    void roundTrip() {
+        assertEquals("1.0E-5", CoordinateFormat.roundTrip().format(1e-5));
+        assertEquals("0.1", CoordinateFormat.roundTrip().format(0.1f, new StringBuilder()).toString());
+        assertEquals("0.1", CoordinateFormat.ofSignificantDigits(6).format(0.1f, new StringBuilder()).toString());
+        assertThrows(IllegalArgumentException.class, () -> CoordinateFormat.ofSignificantDigits(0));
+        assertThrows(IllegalArgumentException.class, () -> new CoordinateFormat(16));
+    }
+}
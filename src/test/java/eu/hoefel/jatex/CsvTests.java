@@ -0,0 +1,115 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests for the Csv class.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class CsvTests {
+
+    @TempDir
+    Path folder;
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(folder.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "0", "-0", "1", "-1.5", "+2.25", "0.1", ".5", "5.", "1e-5", "1.5E+10", "123456789012345678901234567890",
+            "0.30000000000000004", "4.9e-324", "1.7976931348623157e308", "9007199254740993", "1e23", "  3.5 ", "Infinity", "NaN" })
+    @DisplayName("Parsing numbers")
+    void testParseDouble(String number) {
+        ByteBuffer buf = ByteBuffer.wrap(number.getBytes(StandardCharsets.UTF_8));
+        assertEquals(Double.parseDouble(number), Csv.parseDouble(buf, 0, buf.limit()));
+    }
+
+    @Test
+    @DisplayName("Parsing special and invalid numbers")
+    void testParseSpecialDouble() {
+        assertEquals(Double.NaN, Csv.parseDouble(ByteBuffer.wrap("".getBytes()), 0, 0));
+        assertEquals(Double.NaN, Csv.parseDouble(ByteBuffer.wrap("nan".getBytes()), 0, 3));
+        assertEquals(Double.NEGATIVE_INFINITY, Csv.parseDouble(ByteBuffer.wrap("-inf".getBytes()), 0, 4));
+        assertThrows(NumberFormatException.class, () -> Csv.parseDouble(ByteBuffer.wrap("1.2.3".getBytes()), 0, 5));
+        assertThrows(NumberFormatException.class, () -> Csv.parseDouble(ByteBuffer.wrap("1e".getBytes()), 0, 2));
+    }
+
+    @Test
+    @DisplayName("Loading columns")
+    void testColumns() throws IOException {
+        Path file = write("data.csv", "﻿time, \"volt, V\",name\r\n"
+                + "0,1.5,a\r\n"
+                + "\r\n"
+                + "1,,\"b \"\"c\"\"\"\r\n"
+                + "2,-3e2\r\n");
+        Csv csv = Csv.of(file);
+
+        assertEquals(List.of("time", "volt, V", "name"), csv.header());
+        assertArrayEquals(new double[][] { { 0, 1, 2 }, { 1.5, Double.NaN, -300 } }, csv.doubles("time", "volt, V"));
+        assertArrayEquals(new double[][] { { 1.5, Double.NaN, -300 }, { 1.5, Double.NaN, -300 } }, csv.doubles("volt, V", "volt, V"));
+        assertArrayEquals(new String[][] { { "a", "b \"c\"", "" } }, csv.strings("name"));
+
+        assertThrows(IllegalArgumentException.class, () -> csv.doubles("voltage"));
+        assertThrows(IllegalArgumentException.class, () -> csv.doubles("name"));
+    }
+
+    @Test
+    @DisplayName("Loading tab separated columns")
+    void testTabs() throws IOException {
+        Path file = write("data.tsv", "a\tb\n1\t2\n3\t4");
+        assertArrayEquals(new double[][] { { 2, 4 } }, Csv.of(file).doubles("b"));
+        assertArrayEquals(new double[][] { { 2, 4 } }, Csv.of(write("data.txt", "a;b\n1;2\n3;4")).delimiter(';').doubles("b"));
+    }
+
+    @Test
+    @DisplayName("Loading columns into a table")
+    void testTable() throws IOException {
+        Path file = write("data.csv", "x,y\n1,2\n3,4\n");
+        Table table = Csv.of(file).table("y", "x");
+
+        List<String> code = table.latexCode().stream().map(String::strip).toList();
+        assertEquals("y & x \\tabularnewline\\midrule", code.get(3));
+        assertEquals("4 & 3 \\tabularnewline\\bottomrule", code.get(5));
+    }
+
+    @Test
+    @DisplayName("Parsing in parallel")
+    void testParallel() throws IOException {
+        Random rnd = new Random(42);
+        int n = 20_000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        StringBuilder sb = new StringBuilder("x,y,label\n");
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.001;
+            y[i] = rnd.nextGaussian() * Math.pow(10, rnd.nextInt(40) - 20);
+            sb.append(x[i]).append(',').append(y[i]).append(",l").append(i).append('\n');
+        }
+        Path file = write("large.csv", sb.toString());
+
+        Csv csv = Csv.of(file).parallelism(7).minChunkSize(1000);
+        assertArrayEquals(new double[][] { x, y }, csv.doubles("x", "y"));
+        String[] labels = csv.strings("label")[0];
+        assertEquals(n, labels.length);
+        assertEquals("l12345", labels[12345]);
+        assertArrayEquals(csv.doubles("y"), Csv.of(file).parallelism(1).doubles("y"));
+    }
+}
@@ -30,6 +30,23 @@ class EquationTests {
         assertEquals(env, eq.getEnvironment());
     }
 
+    @Test
+    @DisplayName("Testing rendering to a sink")
+    void render() {
+        Equation eq = new Equation().environment(EquationEnvironment.EQUATION)
+                                    .add(new Equation().environment(EquationEnvironment.SPLIT).add("x &= 1", "y &= 2"))
+                                    .label("nested");
+
+        var sb = new StringBuilder();
+        eq.render(TexSink.of(sb), 2);
+
+        var expected = new StringBuilder();
+        for (String line : eq.latexCode()) {
+            expected.append(Latex.indent(2)).append(line).append("\n");
+        }
+        assertEquals(expected.toString(), sb.toString());
+    }
+
     @Test
     @DisplayName("Testing labeling")
     void label() {
@@ -0,0 +1,170 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link ExternalFigures}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class ExternalFiguresTests {
+
+    private static final List<String> DOCUMENT = List.of(
+            "\\documentclass{article}",
+            "\\usepackage{tikz}",
+            "\\tikzexternalize[prefix=tikz/]",
+            "\\begin{document}",
+            "Some text",
+            "    \\tikzsetnextfilename{first}%",
+            "    \\begin{tikzpicture}%",
+            "        \\draw (0,0) -- (1,1);%",
+            "        \\node {\\begin{tikzpicture}\\end{tikzpicture}};%",
+            "    \\end{tikzpicture}%",
+            "More text",
+            "\\begin{tikzpicture}",
+            "    \\draw (0,0) circle (1);",
+            "\\end{tikzpicture}",
+            "\\begin{tikzpicture}",
+            "    \\draw (0,0) circle (1);",
+            "\\end{tikzpicture}",
+            "\\end{document}");
+
+    @DisplayName("Finding the tikzpictures of a document")
+    @Test
+    void testPictures() {
+        List<ExternalFigures.Picture> pictures = ExternalFigures.pictures(DOCUMENT, TexCompiler.PDFLATEX, null);
+        assertEquals(3, pictures.size());
+
+        ExternalFigures.Picture first = pictures.get(0);
+        assertEquals(5, first.from());
+        assertEquals(6, first.begin());
+        assertEquals(9, first.end());
+        assertFalse(first.source().contains("\\tikzexternalize"));
+        assertTrue(first.source().contains("\\PreviewEnvironment{tikzpicture}"));
+        assertTrue(first.source().contains("\\draw (0,0) -- (1,1);%"));
+
+        // identical pictures share their graphic, while the compiler matters
+        assertEquals(pictures.get(1).name(), pictures.get(2).name());
+        assertNotEquals(first.name(), pictures.get(1).name());
+        assertNotEquals(first.name(), ExternalFigures.pictures(DOCUMENT, TexCompiler.LUALATEX, null).get(0).name());
+
+        assertEquals(List.of(), ExternalFigures.pictures(List.of("\\begin{tikzpicture}", "\\end{tikzpicture}"), TexCompiler.PDFLATEX, null));
+    }
+
+    @DisplayName("Naming pictures by the content of the files they read")
+    @Test
+    void testFileContent(@TempDir Path folder) throws IOException {
+        Path a = Files.writeString(Files.createDirectories(folder.resolve("a")).resolve("data.dat"), "1 2");
+        Path b = Files.writeString(Files.createDirectories(folder.resolve("b")).resolve("data.dat"), "1 2");
+        Path c = Files.writeString(folder.resolve("other.dat"), "3 4");
+
+        List<String> names = new ArrayList<>();
+        for (Path file : List.of(a, b, c)) {
+            List<String> lines = List.of("\\documentclass{article}", "\\begin{document}", "\\begin{tikzpicture}",
+                    "\\addplot table {" + file.toAbsolutePath().toString().replace("\\", "/") + "};",
+                    "\\end{tikzpicture}", "\\end{document}");
+            names.add(ExternalFigures.pictures(lines, TexCompiler.PDFLATEX, null).get(0).name());
+        }
+        assertEquals(names.get(0), names.get(1));
+        assertNotEquals(names.get(0), names.get(2));
+
+        // relative paths are resolved against the folder of the document
+        List<String> lines = List.of("\\documentclass{article}", "\\begin{document}", "\\begin{tikzpicture}",
+                "\\addplot table {a/data.dat};", "\\end{tikzpicture}", "\\end{document}");
+        assertEquals(names.get(0), ExternalFigures.pictures(lines, TexCompiler.PDFLATEX, folder).get(0).name());
+    }
+
+    @DisplayName("Naming pictures independent of the metadata of the documents")
+    @Test
+    void testDocumentMetadata() {
+        Figure figure = new Figure().tikz(new Tikz().add("\\draw (0,0) circle (1);"));
+        List<String> first = Latex.standard().title("First title").bib(true).bibfile("first").add(figure).toString().lines().toList();
+        List<String> second = Latex.standard().title("Second title").bib(true).bibfile("second").add(figure).toString().lines().toList();
+        assertTrue(first.stream().anyMatch(line -> line.contains("pdftitle={First title}")));
+        assertTrue(second.contains("\\addbibresource{second.bib,}"));
+
+        ExternalFigures.Picture picture = ExternalFigures.pictures(first, TexCompiler.LUALATEX, null).get(0);
+        assertEquals(picture.name(), ExternalFigures.pictures(second, TexCompiler.LUALATEX, null).get(0).name());
+        assertFalse(picture.source().contains("First title"));
+        assertFalse(picture.source().contains("\\addbibresource"));
+        assertTrue(picture.source().contains("\\usepackage[bookmarksopenlevel=0,pdfencoding=unicode,pdfpagemode=UseOutlines]{hyperref}"));
+        assertTrue(picture.source().contains("\\setmainfont{Latin Modern Roman}"));
+
+        // but the packages and settings of the pictures matter
+        List<String> other = Latex.standard().title("First title").bib(true).bibfile("first").add(figure).usePackages("bm").toString().lines().toList();
+        assertNotEquals(picture.name(), ExternalFigures.pictures(other, TexCompiler.LUALATEX, null).get(0).name());
+        List<String> settings = new ArrayList<>(first);
+        settings.add(settings.indexOf("\\begin{document}"), "\\pgfplotsset{");
+        settings.add(settings.indexOf("\\begin{document}"), "    compat=1.18,");
+        settings.add(settings.indexOf("\\begin{document}"), "}");
+        ExternalFigures.Picture configured = ExternalFigures.pictures(settings, TexCompiler.LUALATEX, null).get(0);
+        assertNotEquals(picture.name(), configured.name());
+        assertTrue(configured.source().contains("\\pgfplotsset{\n    compat=1.18,\n}\n"));
+    }
+
+    @DisplayName("Sharing graphics between documents via the figure cache")
+    @Test
+    void testFigureCache(@TempDir Path folder) throws IOException {
+        FigureCache cache = new FigureCache(folder.resolve("cache").toString(), 1L << 20);
+        for (ExternalFigures.Picture picture : ExternalFigures.pictures(DOCUMENT, TexCompiler.PDFLATEX, null)) {
+            Files.createDirectories(folder.resolve("cache"));
+            Files.writeString(folder.resolve("cache").resolve(picture.name() + ".pdf"), "%PDF");
+        }
+
+        for (String doc : List.of("a", "b")) {
+            Path tex = Files.write(Files.createDirectories(folder.resolve(doc)).resolve("doc.tex"), DOCUMENT);
+            ExternalFigures.externalize(tex, TexCompiler.PDFLATEX, folder.resolve(doc).resolve("graphics"), 2, cache);
+            assertFalse(Files.readString(tex).contains("tikzpicture"));
+        }
+        // identical pictures are only taken once per document
+        assertEquals(4, cache.hits());
+        assertEquals(0, cache.misses());
+    }
+
+    @DisplayName("Including existing graphics instead of the tikzpictures")
+    @Test
+    void testReuseGraphics(@TempDir Path folder) throws IOException {
+        Path tex = Files.write(folder.resolve("doc.tex"), DOCUMENT);
+        Path graphics = Files.createDirectories(folder.resolve("graphics"));
+        for (ExternalFigures.Picture picture : ExternalFigures.pictures(DOCUMENT, TexCompiler.PDFLATEX, null)) {
+            Files.writeString(graphics.resolve(picture.name() + ".pdf"), "%PDF");
+        }
+
+        ExternalFigures.externalize(tex, TexCompiler.PDFLATEX, graphics, 2, null);
+        List<String> lines = Files.readAllLines(tex);
+        assertFalse(lines.stream().anyMatch(line -> line.contains("tikzpicture") || line.contains("tikzsetnextfilename")));
+        assertEquals(3, lines.stream().filter(line -> line.contains("\\includegraphics{")).count());
+        assertTrue(lines.contains("    \\includegraphics{" + graphics.toAbsolutePath().toString().replace("\\", "/")
+                + "/" + ExternalFigures.pictures(DOCUMENT, TexCompiler.PDFLATEX, null).get(0).name() + "}%"));
+    }
+
+    @DisplayName("Compiling tikzpictures concurrently")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testExternalize(@TempDir Path folder) {
+        Latex tex = Latex.minimal();
+        tex.compiler(TexCompiler.PDFLATEX);
+        tex.folder(folder.toString());
+        tex.filename("external.tex");
+        tex.externalizeConcurrently("graphics", 2);
+        for (int i = 0; i < 4; i++) {
+            tex.add(new Figure().tikz(new Tikz().add("\\draw (0,0) circle (" + (i + 1) + ");")));
+        }
+        assertEquals(0, tex.exec());
+        assertTrue(folder.resolve("graphics").toFile().list().length == 4);
+    }
+}
@@ -0,0 +1,162 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link FigureCache}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class FigureCacheTests {
+
+    private static Predicate<Path> writing(String content, AtomicInteger compilations) {
+        return file -> {
+            compilations.incrementAndGet();
+            try {
+                // like the compiled graphics, which are moved to the cache atomically
+                Path tmp = Files.writeString(file.resolveSibling(file.getFileName() + ".tmp"), content);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        };
+    }
+
+    @DisplayName("Compiling graphics only if they are not cached")
+    @Test
+    void testRestore(@TempDir Path folder) throws IOException {
+        FigureCache cache = new FigureCache(folder.resolve("cache").toString(), 1_000);
+        AtomicInteger compilations = new AtomicInteger();
+
+        assertTrue(cache.restore("key", "pdf", folder.resolve("a/key.pdf"), writing("%PDF", compilations)));
+        assertTrue(cache.restore("key", "pdf", folder.resolve("b/key.pdf"), writing("%PDF", compilations)));
+        assertEquals(1, compilations.get());
+        assertEquals("%PDF", Files.readString(folder.resolve("a/key.pdf")));
+        assertEquals("%PDF", Files.readString(folder.resolve("b/key.pdf")));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(4, cache.size());
+
+        assertFalse(cache.restore("failing", "pdf", folder.resolve("a/failing.pdf"), file -> false));
+        assertFalse(Files.exists(folder.resolve("a/failing.pdf")));
+        assertEquals(4, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @DisplayName("Compiling graphics requested concurrently only once")
+    @Test
+    void testConcurrentRestore(@TempDir Path folder) throws InterruptedException, ExecutionException, IOException {
+        AtomicInteger compilations = new AtomicInteger();
+        Predicate<Path> slow = writing("%PDF", compilations).and(file -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                // separate instances like in separate processes
+                FigureCache cache = new FigureCache(folder.resolve("cache").toString(), 1_000);
+                Path target = folder.resolve("doc" + i + "/key.pdf");
+                results.add(executor.submit(() -> cache.restore("key", "pdf", target, slow)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, compilations.get());
+        assertEquals("%PDF", Files.readString(folder.resolve("doc7/key.pdf")));
+    }
+
+    @DisplayName("Evicting the least recently used graphics")
+    @Test
+    void testEviction(@TempDir Path folder) {
+        Path cacheFolder = folder.resolve("cache");
+        FigureCache cache = new FigureCache(cacheFolder.toString(), 25);
+        AtomicInteger compilations = new AtomicInteger();
+
+        cache.restore("a", "pdf", folder.resolve("doc/a.pdf"), writing("0123456789", compilations));
+        cache.restore("b", "pdf", folder.resolve("doc/b.pdf"), writing("0123456789", compilations));
+        try {
+            Files.setLastModifiedTime(cacheFolder.resolve("a.pdf"), FileTime.fromMillis(2_000));
+            Files.setLastModifiedTime(cacheFolder.resolve("b.pdf"), FileTime.fromMillis(1_000));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache.restore("c", "pdf", folder.resolve("doc/c.pdf"), writing("0123456789", compilations));
+
+        assertTrue(Files.exists(cacheFolder.resolve("a.pdf")));
+        assertFalse(Files.exists(cacheFolder.resolve("b.pdf")));
+        assertTrue(Files.exists(cacheFolder.resolve("c.pdf")));
+        assertTrue(Files.exists(folder.resolve("doc/b.pdf")));
+        assertEquals(20, cache.size());
+
+        // the lock files are kept as long as their graphics
+        assertTrue(Files.exists(cacheFolder.resolve("a.lock")));
+        assertFalse(Files.exists(cacheFolder.resolve("b.lock")));
+        assertTrue(Files.exists(cacheFolder.resolve("c.lock")));
+        cache.clear();
+        assertFalse(Files.exists(cacheFolder.resolve("a.lock")));
+        assertFalse(Files.exists(cacheFolder.resolve("c.lock")));
+    }
+
+    @DisplayName("Keeping the lock files in use")
+    @Test
+    void testUnusedLocks(@TempDir Path folder) throws IOException, InterruptedException, ExecutionException {
+        Path held = Files.writeString(folder.resolve("held.lock"), "");
+        Path free = Files.writeString(folder.resolve("free.lock"), "");
+        Files.writeString(folder.resolve("cached.pdf"), "%PDF");
+        Path cached = Files.writeString(folder.resolve("cached.lock"), "");
+
+        PathLocks locks = new PathLocks();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // held by another thread, like a graphic being compiled
+            executor.submit(() -> locks.lock(held)).get();
+            new CacheFolder(folder, 1_000).deleteUnusedLocks(locks);
+            assertTrue(Files.exists(held));
+            assertFalse(Files.exists(free));
+            assertTrue(Files.exists(cached));
+
+            // the locks are dropped once released
+            assertEquals(1, locks.size());
+            executor.submit(() -> locks.unlock(held)).get();
+            assertEquals(0, locks.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
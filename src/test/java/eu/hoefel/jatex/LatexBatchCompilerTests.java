@@ -0,0 +1,117 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link LatexBatchCompiler}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class LatexBatchCompilerTests {
+
+    private static List<Latex> documents(Path folder, TexCompiler compiler, int n) {
+        List<Latex> texs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Latex tex = Latex.minimal();
+            tex.compiler(compiler);
+            tex.folder(folder.toString());
+            tex.filename("doc" + i + ".tex");
+            tex.clean(true);
+            tex.add("Document " + i);
+            texs.add(tex);
+        }
+        return texs;
+    }
+
+    @DisplayName("Returning a result for every document and removing the workspaces")
+    @Test
+    void testAllDocumentsComplete(@TempDir Path folder, @TempDir Path workspace) throws IOException {
+        List<Latex> texs = new ArrayList<>(documents(folder, TexCompiler.PDFLATEX, 5));
+        texs.addAll(documents(folder, TexCompiler.LUALATEX, 5));
+
+        try (LatexBatchCompiler compiler = new LatexBatchCompiler().parallelism(3)
+                .limit(TexCompiler.LUALATEX, 1)
+                .workspace(workspace.toString())) {
+            Set<Latex> compiled = compiler.compile(texs).map(LatexBatchCompiler.Job::tex).collect(Collectors.toSet());
+            assertEquals(Set.copyOf(texs), compiled);
+        }
+
+        try (Stream<Path> files = Files.list(workspace)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @DisplayName("Returning a result for documents failing with an error")
+    @Test
+    void testError(@TempDir Path folder) {
+        Latex tex = documents(folder, TexCompiler.PDFLATEX, 1).get(0);
+        tex.add(new Texable() {
+            @Override
+            public List<LatexPackage> neededPackages() {
+                return List.of();
+            }
+
+            @Override
+            public List<LatexPreambleEntry> preambleExtras() {
+                return List.of();
+            }
+
+            @Override
+            public List<String> latexCode() {
+                throw new AssertionError("failing texable");
+            }
+
+            @Override
+            public boolean isRenderedLazily() {
+                return true;
+            }
+        });
+
+        try (LatexBatchCompiler compiler = new LatexBatchCompiler()) {
+            List<LatexBatchCompiler.Job> jobs = compiler.compile(List.of(tex)).toList();
+            assertEquals(1, jobs.size());
+            assertEquals(-1, jobs.get(0).result().exitCode());
+            assertEquals(List.of("java.lang.AssertionError: failing texable"), jobs.get(0).result().diagnostics());
+        }
+    }
+
+    @DisplayName("Rejecting invalid settings and documents after closing")
+    @Test
+    void testInvalid() {
+        LatexBatchCompiler compiler = new LatexBatchCompiler();
+        assertThrows(IllegalArgumentException.class, () -> compiler.parallelism(0));
+        assertThrows(IllegalArgumentException.class, () -> compiler.limit(TexCompiler.PDFLATEX, 0));
+        compiler.close();
+        Latex tex = Latex.minimal();
+        assertThrows(IllegalStateException.class, () -> compiler.submit(tex));
+    }
+
+    @DisplayName("Compiling documents sharing a folder")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testSharedFolder(@TempDir Path folder) {
+        try (LatexBatchCompiler compiler = new LatexBatchCompiler().parallelism(4)) {
+            compiler.compile(documents(folder, TexCompiler.PDFLATEX, 8)).forEach(job -> {
+                assertEquals(0, job.result().exitCode());
+                assertTrue(job.result().isSuccess());
+                assertEquals(folder.resolve(job.tex().getFilename().replace(".tex", ".pdf")), job.result().pdf());
+            });
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package eu.hoefel.jatex;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 /**
  * Tests for {@link LatexPackage}.
@@ -22,4 +28,51 @@ class LatexPackageTests {
         assertTrue(LatexPackage.checkForIncompatiblePackages(List.of(new LatexPackage("a", "b", LatexPackageTests.class), new LatexPackage("b"))));
         assertFalse(LatexPackage.checkForIncompatiblePackages(List.of(new LatexPackage("a", "b", LatexPackageTests.class), new LatexPackage("c"))));
     }
+
+    @DisplayName("Merging packages in the registry")
+    @ParameterizedTest
+    @ValueSource(booleans = { true, false })
+    void testRegistryMerging(boolean firstDominates) {
+        List<LatexPackage> pckgs = List.of(
+                new LatexPackage("a", Map.of("x", "1")),
+                new LatexPackage("b"),
+                new LatexPackage("a", Map.of("x", "2", "y", "")),
+                new LatexPackage("c", "a", LatexPackageTests.class),
+                new LatexPackage("b", "open"),
+                new LatexPackage("c", Map.of("z", "3")));
+
+        PackageRegistry registry = new PackageRegistry();
+        registry.addAll(pckgs, firstDominates);
+        assertEquals(LatexPackage.cleanup(pckgs, firstDominates), registry.packages());
+        assertEquals(firstDominates ? "1" : "2", registry.get("a").options().get("x"));
+        assertTrue(registry.contains("b"));
+
+        // the classes requesting incompatible packages are collected
+        registry.add(new LatexPackage("c", Map.of(), Map.of("a", Set.of(String.class))), firstDominates);
+        assertEquals(Set.of(LatexPackageTests.class, String.class), registry.get("c").incompatiblePackages().get("a"));
+
+        registry.remove("b");
+        assertFalse(registry.contains("b"));
+        assertNull(registry.get("b"));
+        assertEquals(List.of("a", "c"), registry.packages().stream().map(LatexPackage::name).toList());
+    }
+
+    @DisplayName("Checking package incompatibilities in the registry")
+    @Test
+    void testRegistryIncompatibility() {
+        PackageRegistry registry = new PackageRegistry();
+        assertFalse(registry.add(new LatexPackage("a", "b", LatexPackageTests.class), true));
+        assertFalse(registry.add(new LatexPackage("c"), true));
+        assertTrue(registry.add(new LatexPackage("b"), true));
+
+        // only newly found incompatibilities are reported
+        assertFalse(registry.add(new LatexPackage("b", "opt"), true));
+        assertTrue(registry.add(new LatexPackage("c", "b", LatexPackageTests.class), true));
+
+        registry.remove("a");
+        registry.remove("c");
+        registry.remove("b");
+        assertFalse(registry.add(new LatexPackage("b"), true));
+        assertFalse(registry.isEmpty());
+    }
 }
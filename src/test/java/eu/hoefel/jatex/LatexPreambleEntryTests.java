@@ -0,0 +1,63 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link LatexPreambleEntry}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class LatexPreambleEntryTests {
+
+    @DisplayName("Merging non-standalone preamble entries")
+    @Test
+    void testCleanup() {
+        List<LatexPreambleEntry> entries = List.of(
+                new LatexPreambleEntry("\\pgfplotsset", Map.of("compat", "1.17"), false),
+                new LatexPreambleEntry("\\usetikzlibrary", Map.of("calc", ""), false),
+                new LatexPreambleEntry("\\pgfplotsset", Map.of("width", "8cm"), true),
+                new LatexPreambleEntry("\\usetikzlibrary", Map.of("calc", "", "arrows", ""), false),
+                new LatexPreambleEntry("\\pgfplotsset", Map.of("compat", "1.18"), false));
+
+        assertEquals(List.of(
+                new LatexPreambleEntry("\\pgfplotsset", Map.of("compat", "1.18"), false),
+                new LatexPreambleEntry("\\usetikzlibrary", Map.of("calc", "", "arrows", ""), false),
+                new LatexPreambleEntry("\\pgfplotsset", Map.of("width", "8cm"), true)),
+                LatexPreambleEntry.cleanup(entries));
+    }
+
+    @DisplayName("Keeping preamble entries in the registry")
+    @Test
+    void testRegistry() {
+        PreambleRegistry registry = new PreambleRegistry();
+        registry.add(new LatexPreambleEntry("\\usetikzlibrary", Map.of("calc", ""), false));
+        registry.add(new LatexPreambleEntry("% comment"));
+        assertEquals(List.of("\\usetikzlibrary{calc,}", "% comment"), registry.lines());
+
+        for (int i = 0; i < 10_000; i++) {
+            registry.add(new LatexPreambleEntry("\\usetikzlibrary", Map.of("calc", ""), false));
+        }
+        registry.add(new LatexPreambleEntry("\\usetikzlibrary", Map.of("arrows", ""), false));
+        assertEquals(2, registry.entries().size());
+        assertEquals(Map.of("calc", "", "arrows", ""), registry.entries().get(0).options());
+        assertEquals(registry.entries().get(0).preambleLine(), registry.lines().get(0));
+
+        assertTrue(registry.contains("% comment"));
+        registry.remove("\\usetikzlibrary");
+        assertFalse(registry.contains("\\usetikzlibrary"));
+        assertEquals(List.of("% comment"), registry.lines());
+
+        // merges start anew after removal
+        registry.add(new LatexPreambleEntry("\\usetikzlibrary", Map.of("shapes", ""), false));
+        assertEquals(List.of("% comment", "\\usetikzlibrary{shapes,}"), registry.lines());
+    }
+}
@@ -5,8 +5,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -29,6 +36,95 @@ class LatexTests {
         assertFalse(source.isBlank());
     }
 
+    @Test
+    @DisplayName("Testing streaming output")
+    void writeTo(@TempDir(cleanup = CleanupMode.ON_SUCCESS) Path folder) throws Exception {
+        var sb = new StringBuilder();
+        Latex.minimal().add("a").add("b").writeTo(sb);
+        assertTrue(sb.toString().endsWith("    a\n    b\n\\end{document}\n"));
+
+        var baos = new ByteArrayOutputStream();
+        Latex.minimal().add("a").add("b").writeTo(Channels.newChannel(baos));
+        assertEquals(sb.toString(), baos.toString(StandardCharsets.UTF_8));
+
+        var file = Latex.minimal().add("a").add("b").folder(folder.toString()).filename("a.tex").save();
+        assertEquals(sb.toString(), Files.readString(Path.of(file)));
+    }
+
+    @Test
+    @DisplayName("Testing repeated output")
+    void repeatedOutput() {
+        var tex = Latex.standard().add("a");
+        var source = tex.toString();
+        assertEquals(source, tex.toString());
+
+        tex.add("b");
+        assertEquals(Latex.standard().add("a").add("b").toString(), tex.toString());
+
+        tex.usePackages("tikz");
+        assertEquals(Latex.standard().add("a").add("b").usePackages("tikz").toString(), tex.toString());
+        assertTrue(tex.toString().contains("\\usepackage{tikz}"));
+    }
+
+    @Test
+    @DisplayName("Testing documents assembled from many texables")
+    void manyTexables() {
+        List<Texable> texables = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            texables.add(new Table().format("l").row(0, "x" + i));
+            texables.add(new PgfPlots().tikzlibraries("calc", "lib" + i % 3));
+        }
+
+        var tex = Latex.minimal();
+        texables.forEach(tex::add);
+        var source = tex.toString();
+        assertEquals(Latex.minimal().add(texables.toArray(Texable[]::new)).toString(), source);
+
+        // the packages and libraries requested by every texable are loaded once
+        assertEquals(source.indexOf("\\usepackage{booktabs}"), source.lastIndexOf("\\usepackage{booktabs}"));
+        int libraries = source.indexOf("\\usetikzlibrary{");
+        assertEquals(libraries, source.lastIndexOf("\\usetikzlibrary{"));
+        String line = source.substring(libraries, source.indexOf('\n', libraries));
+        for (String library : List.of("calc,", "lib0,", "lib1,", "lib2,")) {
+            assertTrue(line.contains(library));
+        }
+    }
+
+    @Test
+    @DisplayName("Testing lazily rendered texables")
+    void lazyTexables() {
+        AtomicInteger rendered = new AtomicInteger();
+        Texable lazy = new Texable() {
+            @Override
+            public List<LatexPackage> neededPackages() {
+                return List.of(new LatexPackage("booktabs"));
+            }
+
+            @Override
+            public List<LatexPreambleEntry> preambleExtras() {
+                return List.of();
+            }
+
+            @Override
+            public List<String> latexCode() {
+                return List.of("lazy" + rendered.incrementAndGet());
+            }
+
+            @Override
+            public boolean isRenderedLazily() {
+                return true;
+            }
+        };
+
+        var tex = Latex.minimal().add(lazy);
+        assertEquals(0, rendered.get());
+        assertTrue(tex.toString().contains("\\usepackage{booktabs}"));
+        // rendered anew every time, as its state may have changed
+        assertTrue(tex.toString().contains("lazy2"));
+        assertEquals(2, rendered.get());
+        assertTrue(Compilation.needsAuxiliaryPasses(List.of(lazy)));
+    }
+
     @Test
     @DisplayName("Testing executability")
     @EnabledIfLatexExecutable(compiler = TexCompiler.LUALATEX)
@@ -0,0 +1,258 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the PgfPlots class.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class PgfPlotsTests {
+
+    private static final List<String> COORDINATES_2D = List.of(
+            "\\addplot coordinates {",
+            Latex.indent(1) + "(1.0,4.0)",
+            Latex.indent(1) + "(2.5,-5.0)",
+            Latex.indent(1) + "(1.0E-5,6.0)",
+            "};",
+            "\\addlegendentry{leg};");
+
+    /**
+     * Gets the lines between the axis options and the end of the axis.
+     * 
+     * @param plot the plot
+     * @return the plotted lines, without their indentation within the axis
+     */
+    private static List<String> plotLines(PgfPlots plot) {
+        List<String> code = plot.latexCode();
+        return code.subList(code.indexOf("") + 1, code.size() - 1).stream()
+                   .map(line -> line.substring(Latex.indent(1).length()))
+                   .toList();
+    }
+
+    @Test
+    @DisplayName("Testing primitive data")
+    void primitives() {
+        double[] x = { 1, 2.5, 1e-5 };
+        double[] y = { 4, -5, 6 };
+
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot(new double[][] { x, y }, "leg", Map.of())));
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot(x, y, "leg", Map.of())));
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot((Object) new double[][] { x, y }, "leg", Map.of())));
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot(new Double[][] { { 1d, 2.5, 1e-5 }, { 4d, -5d, 6d } }, "leg", Map.of())));
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot(new float[][] { { 1f, 2.5f, 1e-5f }, { 4f, -5f, 6f } }, "leg", Map.of())));
+        assertEquals(COORDINATES_2D, plotLines(new PgfPlots().plot(DoubleBuffer.wrap(new double[] { 1, 4, 2.5, -5, 1e-5, 6 }), 2, "leg", Map.of())));
+
+        List<String> integral = List.of("\\addplot3 coordinates {",
+                Latex.indent(1) + "(1,4,-7)",
+                Latex.indent(1) + "(2,5,8)",
+                "};");
+        assertEquals(integral, plotLines(new PgfPlots().plot(new int[][] { { 1, 2 }, { 4, 5 }, { -7, 8 } }, null, Map.of())));
+        assertEquals(integral, plotLines(new PgfPlots().plot(new long[][] { { 1, 2 }, { 4, 5 }, { -7, 8 } }, null, Map.of())));
+    }
+
+    @Test
+    @DisplayName("Testing data snapshots")
+    void snapshots() {
+        double[] x = { 1, 2.5, 1e-5 };
+        double[] y = { 4, -5, 6 };
+        PgfPlots plot = new PgfPlots().plot(x, y, "leg", Map.of());
+        Tikz tikz = new Tikz().plot(plot);
+        x[0] = 42;
+        plot.add("% added later");
+
+        assertEquals(COORDINATES_2D, plotLines(plot).subList(0, COORDINATES_2D.size()));
+        assertEquals(tikz.latexCode().size() + 1, new Tikz().plot(plot).latexCode().size());
+    }
+
+    @Test
+    @DisplayName("Testing data generated only when writing the document")
+    void deferred() {
+        DoubleBuffer data = DoubleBuffer.wrap(new double[] { 1, 4, 2.5, -5 });
+        DoubleBuffer z = DoubleBuffer.wrap(new double[] { 1, 2 });
+        Latex tex = Latex.minimal()
+                         .plotData(new PgfPlots().plot(data, 2, null, Map.of()), "caption")
+                         .add(Tikz.of(PgfPlots.contourOf(new double[] { 0 }, new double[] { 1, 2 }, z, Map.of())));
+
+        // the buffers are not copied, so changes show up if the data is read afterwards
+        data.put(0, 42);
+        z.put(1, 7);
+        String source = tex.toString();
+        assertTrue(source.contains(Latex.indent(1) + "(42.0,4.0)%\n"));
+        assertTrue(source.contains(Latex.indent(1) + "0.0 2.0 7.0\n"));
+
+        // also after the document was printed before
+        data.put(0, 43);
+        source = tex.toString();
+        assertTrue(source.contains(Latex.indent(1) + "(43.0,4.0)%\n"));
+        StringBuilder sb = new StringBuilder();
+        tex.writeTo(sb);
+        assertEquals(sb.toString(), source);
+    }
+
+    @Test
+    @DisplayName("Testing invalid data")
+    void invalid() {
+        PgfPlots plot = new PgfPlots();
+        assertThrows(IllegalArgumentException.class, () -> plot.plot(new double[][] { { 1 } }, null, Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> plot.plot(new double[] { 1, 2 }, new double[] { 1 }, null, Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> plot.plot(DoubleBuffer.allocate(5), 2, null, Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> plot.plot(new double[][][] { { { 1 } } }, null, Map.of()));
+    }
+
+    @Test
+    @DisplayName("Testing sidecar data files")
+    void dataFiles(@TempDir Path folder) throws IOException {
+        double[] x = { 1, 2.5, 1e-5 };
+        double[] y = { 4, -5, 6 };
+
+        PgfPlots plot = new PgfPlots().dataFolder(folder.toString())
+                                      .plot(x, y, "leg", Map.of())
+                                      .plot(new double[][] { x, y }, null, Map.of("mark", "none"))
+                                      .plot(new float[][] { { 1f, 2.5f, 1e-5f }, { 4f, -5f, 6f } }, null, Map.of())
+                                      .contour(new double[] { 0, 1 }, new double[] { 2, 3, 4 }, new double[][] { { 1, 2, 3 }, { 4, 5, 6 } }, Map.of());
+        List<String> lines = plotLines(plot);
+        // generating the code only refers to the files
+        try (var files = Files.list(folder)) {
+            assertEquals(0, files.count());
+        }
+        Latex.minimal().folder(folder.resolve("doc").toString()).filename("doc.tex").add(Tikz.of(plot)).save();
+
+        String file = lines.get(0).substring(lines.get(0).indexOf('{') + 1, lines.get(0).lastIndexOf('}'));
+        assertEquals("\\addplot table {" + file + "};", lines.get(0));
+        assertEquals("\\addplot +[mark=none] table {" + file + "};", lines.get(2));
+        assertEquals(List.of("1.0 4.0", "2.5 -5.0", "1.0E-5 6.0"), Files.readAllLines(Path.of(file)));
+
+        // floats are formatted differently
+        assertNotEquals(lines.get(0), lines.get(3));
+        assertEquals(List.of("X Y Z", "0.0 2.0 1.0", "0.0 3.0 2.0", "0.0 4.0 3.0", "1.0 2.0 4.0", "1.0 3.0 5.0", "1.0 4.0 6.0"),
+                Files.readAllLines(Path.of(lines.get(4).substring(lines.get(4).lastIndexOf('{') + 1, lines.get(4).lastIndexOf('}')))));
+        try (var files = Files.list(folder)) {
+            assertEquals(3, files.filter(Files::isRegularFile).count());
+        }
+
+        // failed writes are reported by the document they belong to only
+        Path blocked = Files.writeString(folder.resolve("blocked"), "");
+        PgfPlots failing = new PgfPlots().dataFolder(blocked.toString()).plot(x, y, null, Map.of());
+        Latex broken = Latex.minimal().folder(folder.resolve("broken").toString()).filename("doc.tex").add(Tikz.of(failing));
+        assertThrows(UncheckedIOException.class, broken::save);
+        Latex working = Latex.minimal().folder(folder.resolve("doc").toString()).filename("doc.tex").add(Tikz.of(plot));
+        assertDoesNotThrow(() -> working.save());
+        assertThrows(UncheckedIOException.class, broken::save);
+    }
+
+    @Test
+    @DisplayName("Testing sidecar data files relative to the document")
+    void relativeDataFiles(@TempDir Path folder) throws IOException {
+        PgfPlots plot = new PgfPlots().dataFolder("data").plot(new double[] { 1, 2 }, new double[] { 3, 4 }, null, Map.of());
+        String line = plotLines(plot).get(0);
+        String file = line.substring(line.indexOf('{') + 1, line.lastIndexOf('}'));
+        assertTrue(file.startsWith("data/"));
+        // not resolved against the working directory
+        assertFalse(Files.exists(Path.of(file)));
+
+        Latex tex = Latex.minimal().folder(folder.toString()).filename("doc.tex").add(Tikz.of(plot));
+        assertTrue(Files.readString(Path.of(tex.save())).contains("\\addplot table {" + file + "};"));
+        assertEquals(List.of("1.0 3.0", "2.0 4.0"), Files.readAllLines(folder.resolve(file)));
+
+        assertThrows(IllegalArgumentException.class, () -> new PgfPlots().dataFolder("my data"));
+        assertThrows(IllegalArgumentException.class, () -> new PgfPlots().dataFolder("plot_data"));
+        assertThrows(IllegalArgumentException.class, () -> new PgfPlots().dataFolder("data#1"));
+        assertThrows(IllegalArgumentException.class, () -> new PgfPlots().dataFolder("../data"));
+    }
+
+    @Test
+    @DisplayName("Testing downsampling")
+    void downsampling() {
+        int n = 100_000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i;
+            y[i] = Math.sin(i / 1000.0);
+        }
+        y[54_321] = 42; // a spike
+
+        PgfPlots lttb = new PgfPlots().downsampling(Downsampling.lttb(500)).plot(x, y, null, Map.of());
+        List<String> lines = plotLines(lttb);
+        assertEquals(500 + 2, lines.size());
+        assertEquals(Latex.indent(1) + "(0.0,0.0)", lines.get(1));
+        assertEquals(Latex.indent(1) + "(99999.0," + y[n - 1] + ")", lines.get(500));
+        assertTrue(lines.contains(Latex.indent(1) + "(54321.0,42.0)"));
+        assertEquals(List.of(n - 500), lttb.droppedPoints());
+
+        PgfPlots minMax = PgfPlots.of(new double[][] { x, y }, null, Map.of(), Downsampling.minMax(500));
+        lines = plotLines(minMax);
+        assertTrue(lines.size() - 2 <= 500);
+        assertTrue(lines.contains(Latex.indent(1) + "(54321.0,42.0)"));
+        assertTrue(lines.contains(Latex.indent(1) + "(1571.0," + y[1571] + ")")); // maximum of the sine
+
+        // the number of points follows the width of the axis
+        PgfPlots narrow = new PgfPlots().addOptions(Map.of("width", "2cm")).downsampling(Downsampling.lttb()).plot(x, y, null, null);
+        assertEquals(Downsampling.lttb().targetPoints("2cm") + 2, plotLines(narrow).size());
+        assertTrue(Downsampling.lttb().targetPoints("2cm") < Downsampling.lttb().targetPoints(null));
+
+        // small series are kept as they are
+        PgfPlots small = new PgfPlots().downsampling(Downsampling.lttb()).plot(new int[][] { { 1, 2 }, { 3, 4 } }, null, Map.of());
+        assertEquals(List.of(0), small.droppedPoints());
+
+        assertEquals(997, Downsampling.lttb().targetPoints(null));
+        assertEquals(2 * 945, Downsampling.minMax().targetPoints("8cm"));
+        assertThrows(IllegalArgumentException.class, () -> Downsampling.lttb(2));
+    }
+
+    @Test
+    @DisplayName("Testing contours")
+    void contours() {
+        double[] x = { 0, 1 };
+        double[] y = { 2, 3, 4 };
+        double[][] z = { { 1, 2, 3 }, { 4, 5, 6 } };
+        DoubleBuffer direct = ByteBuffer.allocateDirect(6 * Double.BYTES).asDoubleBuffer();
+        direct.put(new double[] { 1, 2, 3, 4, 5, 6 }).flip();
+
+        List<String> expected = List.of("X Y Z", "0.0 2.0 1.0", "0.0 3.0 2.0", "0.0 4.0 3.0", "1.0 2.0 4.0", "1.0 3.0 5.0", "1.0 4.0 6.0");
+        for (PgfPlots contour : List.of(PgfPlots.contourOf(x, y, z, Map.of()), PgfPlots.contourOf(x, y, direct, Map.of()))) {
+            List<String> lines = plotLines(contour);
+            assertTrue(lines.get(0).startsWith("\\addplot3[surf,mesh/rows=2,mesh/cols=3,"));
+            assertEquals(expected, lines.subList(1, lines.size() - 1).stream().map(String::strip).toList());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> PgfPlots.contourOf(x, y, new double[][] { { 1, 2, 3 } }, Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> PgfPlots.contourOf(x, y, DoubleBuffer.allocate(5), Map.of()));
+    }
+
+    @Test
+    @DisplayName("Testing precision")
+    void precision() {
+        double[] x = { 1, 1.0 / 3, 1e-7 };
+        double[] y = { 123456789, -2.5, Math.PI };
+        List<String> lines = plotLines(new PgfPlots().precision(6).plot(x, y, null, Map.of()));
+        assertEquals(List.of("\\addplot coordinates {",
+                Latex.indent(1) + "(1,1.23457e8)",
+                Latex.indent(1) + "(0.333333,-2.5)",
+                Latex.indent(1) + "(1e-7,3.14159)",
+                "};"), lines);
+
+        lines = plotLines(new PgfPlots().precision(3).contour(new double[] { 0.5 }, new double[] { 2 }, new double[][] { { Math.E } }, Map.of()));
+        assertEquals(Latex.indent(1) + "0.5 2 2.72", lines.get(2));
+    }
+}
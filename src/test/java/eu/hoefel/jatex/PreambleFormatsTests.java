@@ -0,0 +1,71 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link PreambleFormats}.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class PreambleFormatsTests {
+
+    @DisplayName("Ending the dump before the first undumpable package")
+    @Test
+    void testEndOfDump(@TempDir Path folder) {
+        Latex tex = Latex.minimal().usePackages("amsmath", "siunitx", "fontspec", "booktabs");
+        assertFalse(tex.toString().contains(PreambleFormats.END_OF_DUMP));
+
+        tex.preambleFormat(folder.toString());
+        String doc = tex.toString();
+        int end = doc.indexOf(PreambleFormats.END_OF_DUMP);
+        assertTrue(doc.indexOf("{siunitx}") < end);
+        assertTrue(doc.indexOf("{fontspec}") > end);
+        assertTrue(doc.indexOf("{booktabs}") > end);
+
+        tex = Latex.minimal().usePackages("amsmath").preambleFormat(folder.toString());
+        doc = tex.toString();
+        end = doc.indexOf(PreambleFormats.END_OF_DUMP);
+        assertTrue(doc.indexOf("{amsmath}") < end);
+        assertTrue(end < doc.indexOf("\\begin{document}"));
+    }
+
+    @DisplayName("Not dumping preambles without end marker")
+    @Test
+    void testNoMarker(@TempDir Path folder) {
+        assertNull(PreambleFormats.of(TexCompiler.PDFLATEX, "\\documentclass{article}", "doc.tex", folder));
+    }
+
+    @DisplayName("Compiling from a dumped preamble")
+    @Test
+    @EnabledIfLatexExecutable(compiler = TexCompiler.PDFLATEX)
+    void testDumpedPreamble(@TempDir Path folder) throws IOException {
+        Path formats = folder.resolve("formats");
+        for (int i = 0; i < 2; i++) {
+            Latex tex = Latex.minimal();
+            tex.compiler(TexCompiler.PDFLATEX);
+            tex.folder(folder.toString());
+            tex.filename("doc" + i + ".tex");
+            tex.usePackages("amsmath", "booktabs");
+            tex.preambleFormat(formats.toString());
+            tex.add("Hello " + i);
+            assertEquals(0, tex.exec());
+        }
+
+        try (Stream<Path> files = Files.list(formats)) {
+            assertEquals(1, files.filter(f -> f.toString().endsWith(".fmt")).count());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the Table class.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class TableTests {
+
+    /**
+     * Gets the rows of the tabular environment.
+     * 
+     * @param table the table
+     * @return the rows, without their indentation
+     */
+    private static List<String> rows(Table table) {
+        List<String> code = table.latexCode();
+        return code.subList(3, code.size() - 2).stream().map(String::strip).toList();
+    }
+
+    @Test
+    @DisplayName("Rendering table cells")
+    void testRender() {
+        Table table = new Table().format("l", "c", "r", "l");
+        table.row(0, "a", "bbbb", "c");
+        table.entry(0, 1, Table.multicolumn(2, "c", "spanning")).entry(2, 1, "x");
+        table.entry(3, 2, Table.multirow(2, "mr")).entry(0, 3, "z");
+        table.entry(1, 0, "b").midrule(0);
+
+        assertEquals(List.of(
+                "a                            & b & c &                     \\tabularnewline\\midrule",
+                "\\multicolumn{2}{c}{spanning} x &                     \\tabularnewline",
+                "&   &   & \\multirow{2}{*}{mr} &  \\tabularnewline",
+                "z                            &   &   &                     &  \\tabularnewline\\bottomrule"),
+                rows(table));
+
+        // rendering twice gives the same result
+        assertEquals(table.latexCode(), table.latexCode());
+    }
+
+    @Test
+    @DisplayName("Rendering colored table cells")
+    void testColors() {
+        Table table = new Table().format("l", "l");
+        table.row(0, "a", "b").color(1, 0, "red").row(1, "ccc", "d");
+
+        assertEquals(List.of(
+                "a   & {\\cellcolor{red}}b \\tabularnewline",
+                "ccc & d                  \\tabularnewline\\bottomrule"),
+                rows(table));
+    }
+
+    @Test
+    @DisplayName("Shrinking columns")
+    void testShrinkingColumns() {
+        Table table = new Table().format("l", "l");
+        table.row(0, "a", "b").row(1, "a very long entry", "c");
+        table.entry(0, 1, "short");
+
+        assertEquals(List.of(
+                "a     & b \\tabularnewline",
+                "short & c \\tabularnewline\\bottomrule"),
+                rows(table));
+    }
+
+    @Test
+    @DisplayName("Sparse tables")
+    void testSparse() {
+        Table table = new Table().format("l", "l");
+        table.entry(0, 0, "first").entry(1, 100_000, "last");
+
+        List<String> rows = rows(table);
+        assertEquals(100_001, rows.size());
+        assertEquals("first &      \\tabularnewline", rows.get(0));
+        assertEquals("&      \\tabularnewline", rows.get(50_000));
+        assertEquals("& last \\tabularnewline\\bottomrule", rows.get(100_000));
+
+        // filling the table switches back to the dense layout
+        for (int i = 1; i < 100_000; i++) table.entry(0, i, Integer.toString(i % 10));
+        rows = rows(table);
+        assertEquals("7     &      \\tabularnewline", rows.get(50_007));
+        assertEquals("first &      \\tabularnewline", rows.get(0));
+    }
+
+    @Test
+    @DisplayName("Invalid cells")
+    void testInvalid() {
+        Table table = new Table();
+        assertThrows(IllegalArgumentException.class, () -> table.entry(-1, 0, "a"));
+        assertThrows(IllegalArgumentException.class, () -> table.color(0, -1, "red"));
+    }
+
+    @Test
+    @DisplayName("Rendering streaming tables")
+    void testStreaming() {
+        StreamingTable table = Table.streaming("l", "r")
+                .caption("Results").label("res")
+                .head("Name", "Value")
+                .rows(List.of(new String[] { "a", "1" }, new String[] { "longer", "22" }, new String[] { "b" }));
+
+        List<String> code = table.latexCode().stream().map(String::strip).toList();
+        assertEquals(List.of(
+                "\\begin{longtable}{l r}\\toprule",
+                "\\caption{Results}\\label{tab:res} \\tabularnewline",
+                "Name   & Value \\tabularnewline\\midrule\\endhead",
+                "a      & 1     \\tabularnewline",
+                "longer & 22    \\tabularnewline",
+                "b      \\tabularnewline\\bottomrule",
+                "\\end{longtable}"), code);
+
+        // rows from an iterable can be written repeatedly
+        assertEquals(table.latexCode(), table.latexCode());
+
+        // only the sampled rows determine the padding
+        code = table.padding(2).latexCode().stream().map(String::strip).toList();
+        assertEquals("a    & 1     \\tabularnewline", code.get(3));
+        assertEquals("longer & 22    \\tabularnewline", code.get(4));
+
+        code = table.padding(0).latexCode().stream().map(String::strip).toList();
+        assertEquals("a & 1 \\tabularnewline", code.get(3));
+    }
+
+    @Test
+    @DisplayName("Streaming rows lazily")
+    void testStreamingLazily() {
+        AtomicInteger requested = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<String[]> rows = IntStream.range(0, 10_000)
+                .peek(i -> requested.incrementAndGet())
+                .mapToObj(i -> new String[] { Integer.toString(i), "x" })
+                .onClose(() -> closed.set(true));
+
+        StreamingTable table = Table.streaming("l", "l").head("n", "v").rows(rows);
+        Latex tex = Latex.minimal().add(table);
+        assertEquals(0, requested.get());
+
+        // printing the document leaves the rows for saving it
+        String source = tex.toString();
+        assertEquals(0, requested.get());
+        assertTrue(source.contains("n & v \\tabularnewline\\midrule\\endhead\\bottomrule\n"));
+        assertTrue(source.contains("% streamed rows omitted\n"));
+
+        StringBuilder sb = new StringBuilder();
+        tex.writeTo(sb);
+        assertEquals(10_000, requested.get());
+        assertTrue(closed.get());
+        assertTrue(sb.indexOf("9999 & x \\tabularnewline\\bottomrule") > 0);
+
+        // the stream cannot be consumed twice
+        assertThrows(IllegalStateException.class, table::latexCode);
+    }
+
+    @Test
+    @DisplayName("Invalid streaming tables")
+    void testStreamingInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> Table.streaming("l").head("a", "b"));
+        assertThrows(IllegalArgumentException.class, () -> Table.streaming("l").padding(-1));
+
+        Iterator<String[]> rows = List.of(new String[] { "a" }, new String[] { "b", "c" }).iterator();
+        StreamingTable table = Table.streaming("l").rows(rows);
+        assertThrows(IllegalArgumentException.class, table::latexCode);
+    }
+}
@@ -0,0 +1,84 @@
+package eu.hoefel.jatex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests for the TexEscaper class.
+ * 
+ * @author Udo Hoefel
+ */
+@SuppressWarnings("javadoc")
+class TexEscaperTests {
+
+    /**
+     * The escaping as it was done before via chained replacements.
+     * 
+     * @param input the input
+     * @return the escaped input
+     */
+    private static String chainedEscape(String input) {
+        return input.replace("\\", "\\textbackslash ")
+                    .replace("#", "\\#")
+                    .replace("$", "\\$")
+                    .replace("%", "\\%")
+                    .replace("_", "\\_")
+                    .replace("&", "\\&")
+                    .replace("{", "\\{")
+                    .replace("}", "\\}")
+                    .replace("~", "\\textasciitilde ")
+                    .replace("^", "\\textasciicircum ");
+    }
+
+    @ParameterizedTest(name = "Testing escaping of \"{0}\"")
+    @ValueSource(strings = { "", "plain text", "50% of $x_1$ & {y}", "#~^\\", "a\\{b}_c", "ends with \\" })
+    void escape(String input) {
+        TexEscaper escaper = TexEscaper.of(TexCompiler.LUALATEX);
+        assertEquals(chainedEscape(input), escaper.escape(input));
+        assertEquals(chainedEscape(input), escaper.escape(input, new StringBuilder()).toString());
+        assertEquals(chainedEscape(input), Latex.escapeAllChars(input));
+    }
+
+    @Test
+    @DisplayName("Testing unchanged input")
+    void unchanged() {
+        String input = "nothing to escape here: 1.5, (a+b)=c!";
+        assertSame(input, TexEscaper.of(TexCompiler.LUALATEX).escape(input));
+        assertSame(input, TexEscaper.of(TexCompiler.PDFLATEX).escape(input));
+        assertFalse(TexEscaper.of(TexCompiler.XETEX).needsEscaping(input));
+
+        String math = "only $a_b^{2}$ in math";
+        assertSame(math, TexEscaper.of(TexCompiler.LUALATEX).escapeOutsideMath(math));
+        assertTrue(TexEscaper.of(TexCompiler.LUALATEX).needsEscaping(math));
+    }
+
+    @Test
+    @DisplayName("Testing math mode detection")
+    void mathMode() {
+        String input = "50% of $x_1$ & $\\alpha$ {y}";
+        String expected = "50\\% of $x_1$ \\& $\\alpha$ \\{y\\}";
+        assertEquals(expected, Latex.escapeChars(input));
+        assertEquals(expected, TexEscaper.of(TexCompiler.LUALATEX).escapeOutsideMath(input, new StringBuilder()).toString());
+
+        // an unclosed math mode extends to the end
+        assertEquals("a\\_b $c_d", Latex.escapeChars("a_b $c_d"));
+    }
+
+    @Test
+    @DisplayName("Testing engine dependent escaping")
+    void engines() {
+        String input = "20°C ± 5 µm, 3×4 €…";
+        assertSame(input, Latex.escapeAllChars(input, TexCompiler.LUALATEX));
+        assertSame(input, Latex.escapeAllChars(input, TexCompiler.XETEX));
+        assertEquals("20\\textdegree{}C \\textpm{} 5 \\textmu{}m, 3\\texttimes{}4 \\texteuro{}\\dots{}",
+                Latex.escapeAllChars(input, TexCompiler.PDFLATEX));
+        assertEquals("a~b \\%", Latex.escapeChars("a b %", TexCompiler.LATEX));
+    }
+}